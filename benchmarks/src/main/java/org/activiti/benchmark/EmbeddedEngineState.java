@@ -0,0 +1,72 @@
+package org.activiti.benchmark;
+
+import org.activiti.engine.ProcessEngine;
+import org.activiti.engine.impl.cfg.ProcessEngineConfigurationImpl;
+import org.activiti.engine.impl.cfg.StandaloneInMemProcessEngineConfiguration;
+import org.activiti.engine.runtime.Job;
+import org.activiti.engine.runtime.ProcessInstance;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Process engine on an embedded H2 database with the async executor switched off,
+ * so the benchmarks drive acquisition and execution themselves.
+ */
+@State(Scope.Benchmark)
+public class EmbeddedEngineState {
+
+    private static final Random random = new Random();
+
+    public ProcessEngine processEngine;
+    public ProcessEngineConfigurationImpl processEngineConfiguration;
+
+    @Setup(Level.Trial)
+    public void startEngine() {
+        StandaloneInMemProcessEngineConfiguration configuration = new StandaloneInMemProcessEngineConfiguration();
+        configuration.setJdbcUrl("jdbc:h2:mem:benchmark-" + System.nanoTime() + ";DB_CLOSE_DELAY=1000");
+        configuration.setDatabaseSchemaUpdate("create-drop");
+        configuration.setAsyncExecutorActivate(false);
+        processEngine = configuration.buildProcessEngine();
+        processEngineConfiguration = configuration;
+
+        processEngine.getRepositoryService().createDeployment().addClasspathResource("asyncProcess.bpmn20.xml").deploy();
+    }
+
+    @TearDown(Level.Trial)
+    public void closeEngine() {
+        processEngine.close();
+    }
+
+    public ProcessInstance startProcessInstance() {
+        Map<String, Object> vars = new HashMap<String, Object>();
+        vars.put("input1", random.nextInt(1000));
+        vars.put("input2", random.nextInt(5000));
+        return processEngine.getRuntimeService().startProcessInstanceByKey("AsyncProcess", vars);
+    }
+
+    /**
+     * Starts a new process instance and returns its first async job (service task A).
+     */
+    public Job createAsyncJob() {
+        ProcessInstance processInstance = startProcessInstance();
+        return processEngine.getManagementService().createJobQuery().processInstanceId(processInstance.getId()).singleResult();
+    }
+
+    /**
+     * Deletes a process instance with its jobs, variables and history, so the tables don't grow over the iterations.
+     */
+    public void deleteProcessInstance(String processInstanceId) {
+        if (processEngine.getRuntimeService().createProcessInstanceQuery().processInstanceId(processInstanceId).count() > 0) {
+            processEngine.getRuntimeService().deleteProcessInstance(processInstanceId, null);
+        }
+        processEngine.getHistoryService().deleteHistoricProcessInstance(processInstanceId);
+    }
+
+}
@@ -0,0 +1,54 @@
+package org.activiti.benchmark;
+
+import org.activiti.engine.impl.asyncexecutor.ExecuteAsyncRunnable;
+import org.activiti.engine.runtime.Job;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executes the first async job (service task A) of a fresh AsyncProcess instance through ExecuteAsyncRunnable,
+ * which is what a thread of the async executor pool does for every acquired job.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(2)
+public class ExecuteAsyncRunnableBenchmark {
+
+    private EmbeddedEngineState state;
+    private Job job;
+
+    @Setup(Level.Invocation)
+    public void createJob(EmbeddedEngineState state) {
+        this.state = state;
+        job = state.createAsyncJob();
+    }
+
+    @Benchmark
+    public void executeJob(EmbeddedEngineState state) {
+        new ExecuteAsyncRunnable(job, state.processEngineConfiguration).run();
+    }
+
+    /**
+     * Deletes the process instance with the jobs its execution created, so every invocation runs on tables of the same size.
+     */
+    @TearDown(Level.Invocation)
+    public void deleteJobs() {
+        state.deleteProcessInstance(job.getProcessInstanceId());
+    }
+
+}
@@ -0,0 +1,74 @@
+package org.activiti.benchmark;
+
+import org.activiti.engine.impl.asyncexecutor.AcquiredJobEntities;
+import org.activiti.engine.impl.asyncexecutor.AsyncExecutor;
+import org.activiti.engine.impl.cmd.AcquireJobsCmd;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One acquisition query (AcquireJobsCmd), as done by the async executor acquisition thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(2)
+public class JobAcquisitionBenchmark {
+
+    @Param({"1", "10"})
+    public int jobsPerAcquisition;
+
+    private EmbeddedEngineState state;
+    private AsyncExecutor asyncExecutor;
+    private final List<String> processInstanceIds = new ArrayList<String>();
+
+    @Setup(Level.Trial)
+    public void configureAcquisition(EmbeddedEngineState state) {
+        this.state = state;
+        asyncExecutor = state.processEngineConfiguration.getAsyncExecutor();
+        asyncExecutor.setMaxAsyncJobsDuePerAcquisition(jobsPerAcquisition);
+    }
+
+    // Every acquisition needs jobs that aren't locked yet. On in-memory H2 an acquisition is short enough for the
+    // timestamps JMH takes around each invocation to show in the score, so compare the params with each other.
+    @Setup(Level.Invocation)
+    public void createJobs() {
+        for (int i = 0; i < jobsPerAcquisition; i++) {
+            processInstanceIds.add(state.startProcessInstance().getId());
+        }
+    }
+
+    /**
+     * Deletes the process instances, with their (locked) jobs and history, so every acquisition queries a job table of the same size.
+     */
+    @TearDown(Level.Invocation)
+    public void deleteJobs() {
+        for (String processInstanceId : processInstanceIds) {
+            state.deleteProcessInstance(processInstanceId);
+        }
+        processInstanceIds.clear();
+    }
+
+    @Benchmark
+    public AcquiredJobEntities acquireJobs() {
+        return state.processEngineConfiguration.getCommandExecutor().execute(new AcquireJobsCmd(asyncExecutor));
+    }
+
+}
@@ -0,0 +1,66 @@
+package org.activiti.benchmark;
+
+import org.activiti.engine.runtime.Job;
+import org.activiti.spring.executor.jms.JobMessageListener;
+import org.apache.activemq.command.ActiveMQTextMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.jms.JMSException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handles one job message the way the message executor does, without the broker round trip.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(2)
+public class JobMessageListenerBenchmark {
+
+    private EmbeddedEngineState state;
+    private JobMessageListener jobMessageListener;
+    private ActiveMQTextMessage message;
+    private String processInstanceId;
+
+    @Setup(Level.Trial)
+    public void createListener(EmbeddedEngineState state) {
+        this.state = state;
+        jobMessageListener = new JobMessageListener();
+        jobMessageListener.setProcessEngineConfiguration(state.processEngineConfiguration);
+    }
+
+    @Setup(Level.Invocation)
+    public void createMessage() throws JMSException {
+        Job job = state.createAsyncJob();
+        processInstanceId = job.getProcessInstanceId();
+        message = new ActiveMQTextMessage();
+        message.setText(job.getId());
+    }
+
+    @Benchmark
+    public void onMessage() {
+        jobMessageListener.onMessage(message);
+    }
+
+    /**
+     * Deletes the process instance with the jobs its execution created, so every invocation runs on tables of the same size.
+     */
+    @TearDown(Level.Invocation)
+    public void deleteJobs() {
+        state.deleteProcessInstance(processInstanceId);
+    }
+
+}
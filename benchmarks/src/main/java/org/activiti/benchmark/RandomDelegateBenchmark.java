@@ -0,0 +1,54 @@
+package org.activiti.benchmark;
+
+import org.activiti.RandomDelegate;
+import org.activiti.engine.impl.interceptor.Command;
+import org.activiti.engine.impl.interceptor.CommandContext;
+import org.activiti.engine.impl.persistence.entity.ExecutionEntity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RandomDelegate.execute on a persisted execution, inside a command so the variable write is flushed
+ * and committed like it would be when the delegate runs as part of a job.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(2)
+public class RandomDelegateBenchmark {
+
+    private final RandomDelegate randomDelegate = new RandomDelegate();
+
+    private String processInstanceId;
+
+    // A new instance per iteration, otherwise the growing number of result_ variables skews later iterations
+    @Setup(Level.Iteration)
+    public void startProcessInstance(EmbeddedEngineState state) {
+        processInstanceId = state.startProcessInstance().getId();
+    }
+
+    @Benchmark
+    public void execute(EmbeddedEngineState state) {
+        state.processEngineConfiguration.getCommandExecutor().execute(new Command<Void>() {
+            public Void execute(CommandContext commandContext) {
+                ExecutionEntity execution = commandContext.getExecutionEntityManager().findById(processInstanceId);
+                randomDelegate.execute(execution);
+                return null;
+            }
+        });
+    }
+
+}
@@ -0,0 +1,29 @@
+package org.activiti.benchmark;
+
+import org.activiti.engine.runtime.ProcessInstance;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starting one AsyncProcess instance, up to and including the insert of the first async job.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(2)
+public class StartProcessInstanceBenchmark {
+
+    @Benchmark
+    public ProcessInstance startProcessInstance(EmbeddedEngineState state) {
+        return state.startProcessInstance();
+    }
+
+}
@@ -0,0 +1,8 @@
+cd target
+folder=folder_$RANDOM
+mkdir $folder
+cp asyncexecutor-1.0-SNAPSHOT.jar $folder
+cp ../config-acquisition.properties $folder
+cd $folder
+mv config-acquisition.properties config.properties
+java ${JAVA_OPTS:--Xmx2048m} -jar asyncexecutor-1.0-SNAPSHOT.jar
\ No newline at end of file
@@ -5,4 +5,4 @@ cp asyncexecutor-1.0-SNAPSHOT.jar $folder
 cp ../config-executor.properties $folder
 cd $folder
 mv config-executor.properties config.properties
-java -Xmx2048m -jar asyncexecutor-1.0-SNAPSHOT.jar
\ No newline at end of file
+java ${JAVA_OPTS:--Xmx2048m} -jar asyncexecutor-1.0-SNAPSHOT.jar
\ No newline at end of file
@@ -0,0 +1,167 @@
+package org.activiti;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.activiti.engine.impl.asyncexecutor.ExecuteAsyncRunnable;
+import org.activiti.engine.impl.asyncexecutor.ExecuteAsyncRunnableFactory;
+import org.activiti.engine.impl.cfg.ProcessEngineConfigurationImpl;
+import org.activiti.engine.runtime.Job;
+
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures the heap allocated by the job executions of this JVM (record-allocation=true, always on in the payload
+ * mode), with the allocation counter of the executing thread: the bytes allocated between the start and the end of
+ * every job (or job message), including the variable (de)serialization and the flush. The acquisition, the producer
+ * and the engine's background threads are not counted. Together with the collections of the garbage collectors over
+ * the same window this gives the allocation rate and the GC cost per job.
+ *
+ * Needs a JVM with thread allocation counters (HotSpot), and platform threads: nothing is recorded for virtual threads.
+ */
+public class AllocationMetrics {
+
+    private final com.sun.management.ThreadMXBean threadMXBean;
+    private final boolean supported;
+
+    private final Histogram allocatedBytes = new ConcurrentHistogram(2);
+    private final LongAdder totalAllocatedBytes = new LongAdder();
+    private final LongAdder executions = new LongAdder();
+
+    private volatile long startedAt;
+    private volatile long gcCountAtStart;
+    private volatile long gcTimeAtStart;
+
+    public AllocationMetrics() {
+        java.lang.management.ThreadMXBean platformThreadMXBean = ManagementFactory.getThreadMXBean();
+        if (platformThreadMXBean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) platformThreadMXBean).isThreadAllocatedMemorySupported()) {
+            threadMXBean = (com.sun.management.ThreadMXBean) platformThreadMXBean;
+            threadMXBean.setThreadAllocatedMemoryEnabled(true);
+            supported = true;
+        } else {
+            threadMXBean = null;
+            supported = false;
+            System.out.println("Thread allocation counters not supported by this JVM, allocation per job not recorded");
+        }
+        reset();
+    }
+
+    /**
+     * @param executeAsyncRunnableFactory the factory to wrap, or null for the engine's ExecuteAsyncRunnable
+     */
+    public ExecuteAsyncRunnableFactory wrap(final ExecuteAsyncRunnableFactory executeAsyncRunnableFactory) {
+        return new ExecuteAsyncRunnableFactory() {
+            public Runnable createExecuteAsyncRunnable(Job job, ProcessEngineConfigurationImpl processEngineConfiguration) {
+                final Runnable runnable = executeAsyncRunnableFactory != null
+                        ? executeAsyncRunnableFactory.createExecuteAsyncRunnable(job, processEngineConfiguration)
+                        : new ExecuteAsyncRunnable(job, processEngineConfiguration);
+                return new Runnable() {
+                    public void run() {
+                        long start = getAllocatedBytes();
+                        try {
+                            runnable.run();
+                        } finally {
+                            record(start);
+                        }
+                    }
+                };
+            }
+        };
+    }
+
+    public MessageListener wrap(final MessageListener messageListener) {
+        return new MessageListener() {
+            public void onMessage(Message message) {
+                long start = getAllocatedBytes();
+                try {
+                    messageListener.onMessage(message);
+                } finally {
+                    record(start);
+                }
+            }
+        };
+    }
+
+    private long getAllocatedBytes() {
+        return supported ? threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId()) : -1L;
+    }
+
+    private void record(long start) {
+        if (start < 0L) {
+            return;
+        }
+        long end = getAllocatedBytes();
+        if (end >= start) {
+            allocatedBytes.recordValue(end - start);
+            totalAllocatedBytes.add(end - start);
+            executions.increment();
+        }
+    }
+
+    public boolean hasSamples() {
+        return executions.sum() > 0;
+    }
+
+    public long getTotalAllocatedBytes() {
+        return totalAllocatedBytes.sum();
+    }
+
+    public Histogram getAllocatedBytesHistogram() {
+        return allocatedBytes.copy();
+    }
+
+    public long getGcCount() {
+        return sumCollectors(false) - gcCountAtStart;
+    }
+
+    public long getGcTime() {
+        return sumCollectors(true) - gcTimeAtStart;
+    }
+
+    public void reset() {
+        allocatedBytes.reset();
+        totalAllocatedBytes.reset();
+        executions.reset();
+        startedAt = System.currentTimeMillis();
+        gcCountAtStart = sumCollectors(false);
+        gcTimeAtStart = sumCollectors(true);
+    }
+
+    /**
+     * @param nrOfJobs the executed jobs, a job message of a batch holds more than one
+     */
+    public void printReport(PrintStream out, long nrOfJobs) {
+        long duration = Math.max(System.currentTimeMillis() - startedAt, 1L);
+        long total = totalAllocatedBytes.sum();
+        Histogram histogram = allocatedBytes.copy();
+        out.println();
+        out.println(String.format("Allocation : %.1f MB allocated by %d job executions, %.1f KB per job, %.1f MB/s",
+                total / (1024.0 * 1024.0), executions.sum(), nrOfJobs > 0 ? total / 1024.0 / nrOfJobs : 0.0,
+                1000.0 * total / (1024.0 * 1024.0) / duration));
+        out.println(String.format("Allocated per execution (KB) : p50=%.1f p90=%.1f p99=%.1f max=%.1f",
+                histogram.getValueAtPercentile(50.0) / 1024.0, histogram.getValueAtPercentile(90.0) / 1024.0,
+                histogram.getValueAtPercentile(99.0) / 1024.0, histogram.getMaxValue() / 1024.0));
+        out.println(String.format("GC : %d collections, %d ms (%.2f%% of %d ms)", getGcCount(), getGcTime(),
+                100.0 * getGcTime() / duration, duration));
+    }
+
+    /**
+     * @param time the time spent in collections (ms) instead of the nr of collections
+     */
+    private static long sumCollectors(boolean time) {
+        long total = 0L;
+        for (GarbageCollectorMXBean garbageCollector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            long value = time ? garbageCollector.getCollectionTime() : garbageCollector.getCollectionCount();
+            if (value > 0L) {
+                total += value;
+            }
+        }
+        return total;
+    }
+
+}
@@ -0,0 +1,257 @@
+package org.activiti;
+
+import org.activiti.engine.impl.cfg.ProcessEngineConfigurationImpl;
+import org.activiti.engine.impl.db.DbSqlSession;
+import org.activiti.engine.impl.interceptor.Command;
+import org.activiti.engine.impl.interceptor.CommandContext;
+import org.activiti.engine.impl.persistence.entity.Entity;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Asynchronous history for one engine (history-mode=async): the historic inserts and updates of a transaction are
+ * taken out of its flush (see {@link BenchmarkDbSqlSessionFactory}), buffered in memory once it committed, and written
+ * by a background thread in transactions of up to async-history-batch-size entities, at least every
+ * async-history-flush-interval ms.
+ *
+ * Activiti 6 has no async history of its own, this only shows what taking history out of the job transactions is worth.
+ * The buffer is lost when the JVM dies, and a transaction that looks up a historic row that is still buffered
+ * (eg. the end of a historic process instance started shortly before) doesn't find it, so that update is lost.
+ * Those lookups by id are counted as missed lookups (see {@link #countMissedLookup(Class, String)}), next to the
+ * written rows; a missed lookup through a query (eg. the historic activity instance of an execution) isn't counted.
+ */
+public class AsyncHistoryWriter {
+
+    private final int batchSize;
+    private final long flushInterval;
+
+    private final LinkedBlockingQueue<BufferedTransaction> queue = new LinkedBlockingQueue<BufferedTransaction>();
+    private final Set<String> bufferedInserts = ConcurrentHashMap.newKeySet();
+    private final AtomicLong bufferedEntities = new AtomicLong();
+    private final LongAdder writtenInserts = new LongAdder();
+    private final LongAdder writtenUpdates = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder failedEntities = new LongAdder();
+    private final LongAdder missedLookups = new LongAdder();
+    private volatile long maxBufferedEntities;
+
+    private ProcessEngineConfigurationImpl processEngineConfiguration;
+    private Thread writerThread;
+    private volatile boolean running;
+    private boolean stopped;
+
+    public AsyncHistoryWriter(int batchSize, long flushInterval) {
+        this.batchSize = batchSize;
+        this.flushInterval = flushInterval;
+    }
+
+    public void register(ProcessEngineConfigurationImpl processEngineConfiguration) {
+        this.processEngineConfiguration = processEngineConfiguration;
+        BenchmarkDbSqlSessionFactory.register(processEngineConfiguration).setAsyncHistoryWriter(this);
+    }
+
+    public boolean isWriterThread() {
+        return Thread.currentThread() == writerThread;
+    }
+
+    /**
+     * Called when a transaction committed, with its historic entities (either list can be null).
+     */
+    public void submit(List<Entity> inserts, List<Entity> updates) {
+        startIfNeeded();
+        if (!running) {
+            failedEntities.add(size(inserts) + size(updates));
+            return;
+        }
+        long buffered = bufferedEntities.addAndGet(size(inserts) + size(updates));
+        if (buffered > maxBufferedEntities) {
+            maxBufferedEntities = buffered;
+        }
+        if (inserts != null) {
+            for (Entity entity : inserts) {
+                bufferedInserts.add(key(entity.getClass(), entity.getId()));
+            }
+        }
+        queue.add(new BufferedTransaction(inserts, updates));
+    }
+
+    /**
+     * Called when a transaction didn't find a historic entity by id: counted when its insert is still buffered.
+     */
+    public void countMissedLookup(Class<?> entityClass, String id) {
+        if (id != null && bufferedInserts.contains(key(entityClass, id))) {
+            missedLookups.increment();
+        }
+    }
+
+    /**
+     * Writes what is still buffered and stops the writer thread.
+     */
+    public void stop() throws InterruptedException {
+        Thread thread;
+        synchronized (this) {
+            running = false;
+            stopped = true;
+            thread = writerThread;
+        }
+        if (thread != null) {
+            thread.join();
+        }
+    }
+
+    public long getBufferedEntities() {
+        return bufferedEntities.get();
+    }
+
+    public long getFailedEntities() {
+        return failedEntities.sum();
+    }
+
+    public long getMissedLookups() {
+        return missedLookups.sum();
+    }
+
+    public void printReport(PrintStream out) {
+        out.println("Async history : " + writtenInserts.sum() + " inserts / " + writtenUpdates.sum() + " updates written in "
+                + batches.sum() + " transactions, max " + maxBufferedEntities + " entities buffered, " + failedEntities.sum() + " lost, "
+                + missedLookups.sum() + " lookups of buffered rows missed (their updates are lost)");
+    }
+
+    private synchronized void startIfNeeded() {
+        if (writerThread != null || stopped) {
+            return;
+        }
+        running = true;
+        writerThread = new Thread(new Runnable() {
+            public void run() {
+                writeLoop();
+            }
+        }, "activiti-async-history-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    private void writeLoop() {
+        List<BufferedTransaction> transactions = new ArrayList<BufferedTransaction>();
+        while (running || !queue.isEmpty()) {
+            try {
+                BufferedTransaction transaction = queue.poll(flushInterval, TimeUnit.MILLISECONDS);
+                if (transaction == null) {
+                    continue;
+                }
+                transactions.add(transaction);
+                int entities = transaction.size();
+                while (entities < batchSize && (transaction = queue.poll()) != null) {
+                    transactions.add(transaction);
+                    entities += transaction.size();
+                }
+                write(transactions);
+                bufferedEntities.addAndGet(-entities);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                transactions.clear();
+            }
+        }
+    }
+
+    private void write(List<BufferedTransaction> transactions) {
+        // An entity updated by several transactions of the batch is only written once, with its latest state
+        final Map<String, Entity> inserts = new LinkedHashMap<String, Entity>();
+        final Map<String, Entity> updates = new LinkedHashMap<String, Entity>();
+        for (BufferedTransaction transaction : transactions) {
+            for (Entity entity : transaction.inserts) {
+                inserts.put(key(entity.getClass(), entity.getId()), entity);
+            }
+            for (Entity entity : transaction.updates) {
+                updates.put(key(entity.getClass(), entity.getId()), entity);
+            }
+        }
+
+        try {
+            execute(new ArrayList<Entity>(inserts.values()), new ArrayList<Entity>(updates.values()));
+            writtenInserts.add(inserts.size());
+            writtenUpdates.add(updates.size());
+            batches.increment();
+        } catch (Exception e) {
+            // One bad row fails the whole batch, write the rows one by one to lose only that one
+            for (Entity entity : inserts.values()) {
+                writeOne(entity, true);
+            }
+            for (Entity entity : updates.values()) {
+                writeOne(entity, false);
+            }
+        } finally {
+            bufferedInserts.removeAll(inserts.keySet());
+        }
+    }
+
+    private void writeOne(Entity entity, boolean insert) {
+        try {
+            if (insert) {
+                execute(Collections.singletonList(entity), Collections.<Entity>emptyList());
+                writtenInserts.increment();
+            } else {
+                execute(Collections.<Entity>emptyList(), Collections.singletonList(entity));
+                writtenUpdates.increment();
+            }
+            batches.increment();
+        } catch (Exception e) {
+            failedEntities.increment();
+        }
+    }
+
+    private void execute(final List<Entity> inserts, final List<Entity> updates) {
+        processEngineConfiguration.getCommandExecutor().execute(new Command<Void>() {
+            public Void execute(CommandContext commandContext) {
+                DbSqlSession dbSqlSession = commandContext.getDbSqlSession();
+                for (Entity entity : inserts) {
+                    dbSqlSession.insert(entity);
+                }
+                for (Entity entity : updates) {
+                    dbSqlSession.update(entity);
+                }
+                return null;
+            }
+        });
+    }
+
+    private static int size(List<Entity> entities) {
+        return entities != null ? entities.size() : 0;
+    }
+
+    private static String key(Class<?> entityClass, String id) {
+        return entityClass.getName() + id;
+    }
+
+    /**
+     * The historic inserts and updates of one committed transaction.
+     */
+    private static class BufferedTransaction {
+
+        final List<Entity> inserts;
+        final List<Entity> updates;
+
+        BufferedTransaction(List<Entity> inserts, List<Entity> updates) {
+            this.inserts = inserts != null ? inserts : Collections.<Entity>emptyList();
+            this.updates = updates != null ? updates : Collections.<Entity>emptyList();
+        }
+
+        int size() {
+            return inserts.size() + updates.size();
+        }
+    }
+
+}
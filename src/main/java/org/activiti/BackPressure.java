@@ -0,0 +1,306 @@
+package org.activiti;
+
+import org.activiti.engine.ProcessEngine;
+import org.activiti.engine.delegate.event.ActivitiEntityEvent;
+import org.activiti.engine.delegate.event.ActivitiEvent;
+import org.activiti.engine.delegate.event.ActivitiEventListener;
+import org.activiti.engine.delegate.event.ActivitiEventType;
+import org.activiti.engine.impl.asyncexecutor.DefaultAsyncJobExecutor;
+import org.activiti.engine.impl.cfg.ProcessEngineConfigurationImpl;
+import org.activiti.engine.impl.cfg.TransactionListener;
+import org.activiti.engine.impl.cfg.TransactionState;
+import org.activiti.engine.impl.context.Context;
+import org.activiti.engine.impl.interceptor.CommandContext;
+import org.activiti.engine.impl.persistence.entity.JobEntity;
+
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Holds back the process instance starts of this JVM while the executors are behind (backpressure=true): a start
+ * waits as long as the backlog is at or above backpressure-target (default 200). The backlog is sampled every
+ * backpressure-interval-ms (default 100) from backpressure-backlog:
+ *
+ * pending-jobs   : async jobs created and not yet executed, counted from the engine events of committed transactions
+ *                  (executor in this JVM)
+ * jms-queue      : the messages in the job queue of the broker running in this JVM
+ * executor-queue : the jobs waiting in the thread pool queues of the async executors of this JVM. The queues are
+ *                  bounded, a job rejected by a full queue since the previous sample counts as a backlog at target.
+ * db             : the async jobs in the database, one count query per sample (executors in other JVMs)
+ *
+ * The default depends on the mode, see {@link Main}.
+ *
+ * A start reserves one job per process instance it starts, the first async job of the instance, until that job is in
+ * the backlog: right after the start committed for pending-jobs, at the next sample for the sampled backlogs. So the
+ * starters don't all pass on the same sample, the backlog plus the reserved jobs stays below the target (a single
+ * start is let through when nothing is reserved).
+ */
+public class BackPressure implements ActivitiEventListener {
+
+    public static final String BACKLOG_PENDING_JOBS = "pending-jobs";
+    public static final String BACKLOG_JMS_QUEUE = "jms-queue";
+    public static final String BACKLOG_EXECUTOR_QUEUE = "executor-queue";
+    public static final String BACKLOG_DB = "db";
+
+    public static final ActivitiEventType[] EVENT_TYPES = new ActivitiEventType[] {
+            ActivitiEventType.ENTITY_CREATED,
+            ActivitiEventType.ENTITY_DELETED
+    };
+
+    private final String backlogSource;
+    private final long target;
+    private final long interval;
+    private final String queue;
+
+    private final LongAdder pendingJobs = new LongAdder();
+    private long reservedJobs; // guarded by this
+    private final AtomicLong releasedJobs = new AtomicLong(); // reservations of finished starts, released by the next sample
+    private final List<DefaultAsyncJobExecutor> asyncExecutors = new CopyOnWriteArrayList<DefaultAsyncJobExecutor>();
+    private final LongAdder rejectedJobs = new LongAdder();
+    private long previousRejectedJobs;
+
+    private ProcessEngine processEngine;
+    private ScheduledExecutorService sampler;
+    private volatile boolean running;
+    private volatile long backlog;
+    private volatile long maxBacklog;
+    private final LongAdder throttledStarts = new LongAdder();
+    private final LongAdder throttledTime = new LongAdder(); // nanos
+
+    public BackPressure(Properties properties, String defaultBacklogSource) {
+        String source = properties.getProperty("backpressure-backlog");
+        this.backlogSource = source != null && !"".equals(source) ? source : defaultBacklogSource;
+        this.target = BenchmarkRun.getLong(properties, "backpressure-target", 200L);
+        this.interval = BenchmarkRun.getLong(properties, "backpressure-interval-ms", 100L);
+        this.queue = properties.getProperty("queue");
+        if (!BACKLOG_PENDING_JOBS.equals(backlogSource) && !BACKLOG_JMS_QUEUE.equals(backlogSource)
+                && !BACKLOG_EXECUTOR_QUEUE.equals(backlogSource) && !BACKLOG_DB.equals(backlogSource)) {
+            throw new RuntimeException("Unknown backpressure-backlog " + backlogSource + ", use " + BACKLOG_PENDING_JOBS
+                    + ", " + BACKLOG_JMS_QUEUE + ", " + BACKLOG_EXECUTOR_QUEUE + " or " + BACKLOG_DB);
+        }
+    }
+
+    public void register(ProcessEngineConfigurationImpl processEngineConfiguration) {
+        BenchmarkEventListener.register(processEngineConfiguration, this, EVENT_TYPES);
+    }
+
+    public void addAsyncExecutor(DefaultAsyncJobExecutor asyncExecutor) {
+        asyncExecutors.add(asyncExecutor);
+    }
+
+    /**
+     * Starts sampling the backlog.
+     *
+     * @param processEngine the engine for the db backlog
+     */
+    public synchronized void start(ProcessEngine processEngine) {
+        this.processEngine = processEngine;
+        running = true;
+        System.out.println("Back-pressure : process instance starts wait while the " + backlogSource + " backlog is " + target + " or more");
+        sampler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "activiti-backpressure");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        sampler.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    sample();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        }, 0L, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (sampler != null) {
+            sampler.shutdownNow();
+        }
+        notifyAll();
+    }
+
+    /**
+     * Called before the start of processInstances process instances (in one transaction), returns when the backlog
+     * plus the reserved jobs is below the target. The returned reservation must be passed to {@link #release(long)}
+     * when the start is done.
+     */
+    public synchronized long await(int processInstances) {
+        if (!running) {
+            return 0L;
+        }
+        if (isFull()) {
+            long start = System.nanoTime();
+            throttledStarts.increment();
+            while (running && isFull()) {
+                try {
+                    wait(interval);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            throttledTime.add(System.nanoTime() - start);
+        }
+        reservedJobs += processInstances;
+        return processInstances;
+    }
+
+    private boolean isFull() {
+        long currentBacklog = BACKLOG_PENDING_JOBS.equals(backlogSource) ? Math.max(pendingJobs.sum(), 0L) : backlog;
+        return currentBacklog >= target || (reservedJobs > 0 && currentBacklog + reservedJobs >= target);
+    }
+
+    /**
+     * Called when a start is done, committed or not.
+     */
+    public void release(long reservation) {
+        if (reservation <= 0L) {
+            return;
+        }
+        if (BACKLOG_PENDING_JOBS.equals(backlogSource)) {
+            // The jobs of the committed start are counted in pendingJobs already
+            synchronized (this) {
+                reservedJobs -= reservation;
+                notifyAll();
+            }
+        } else {
+            releasedJobs.addAndGet(reservation);
+        }
+    }
+
+    protected void sample() throws Exception {
+        // Taken before the backlog is read, those starts are done and in the backlog that is read
+        long released = releasedJobs.getAndSet(0L);
+        long currentBacklog = readBacklog();
+        maxBacklog = Math.max(maxBacklog, currentBacklog);
+        synchronized (this) {
+            backlog = currentBacklog;
+            reservedJobs -= released;
+            notifyAll();
+        }
+    }
+
+    private long readBacklog() throws Exception {
+        if (BACKLOG_JMS_QUEUE.equals(backlogSource)) {
+            return Math.max(LocalEnvironment.getQueueSize(queue), 0L);
+
+        } else if (BACKLOG_EXECUTOR_QUEUE.equals(backlogSource)) {
+            long queuedJobs = 0L;
+            for (DefaultAsyncJobExecutor asyncExecutor : asyncExecutors) {
+                ThreadPoolExecutor threadPoolExecutor = getThreadPoolExecutor(asyncExecutor);
+                if (threadPoolExecutor != null) {
+                    queuedJobs += threadPoolExecutor.getQueue().size();
+                }
+            }
+            long rejected = rejectedJobs.sum();
+            boolean rejections = rejected > previousRejectedJobs;
+            previousRejectedJobs = rejected;
+            return rejections ? Math.max(queuedJobs, target) : queuedJobs;
+
+        } else if (BACKLOG_DB.equals(backlogSource)) {
+            return processEngine.getManagementService().createJobQuery().count(); // the async jobs, timers have their own table
+        }
+        return Math.max(pendingJobs.sum(), 0L);
+    }
+
+    /**
+     * The thread pool is created when the executor starts, its rejections are counted from then on.
+     */
+    private ThreadPoolExecutor getThreadPoolExecutor(DefaultAsyncJobExecutor asyncExecutor) {
+        ExecutorService executorService = asyncExecutor.getExecutorService();
+        if (!(executorService instanceof ThreadPoolExecutor)) {
+            return null;
+        }
+        ThreadPoolExecutor threadPoolExecutor = (ThreadPoolExecutor) executorService;
+        if (!(threadPoolExecutor.getRejectedExecutionHandler() instanceof CountingRejectedExecutionHandler)) {
+            threadPoolExecutor.setRejectedExecutionHandler(new CountingRejectedExecutionHandler(threadPoolExecutor.getRejectedExecutionHandler()));
+        }
+        return threadPoolExecutor;
+    }
+
+    public void onEvent(ActivitiEvent event) {
+        // A job unacquired by a full executor queue is deleted and inserted again, that nets to 0.
+        // Counted when the transaction committed, a rolled back job insert or delete doesn't change the backlog.
+        if (((ActivitiEntityEvent) event).getEntity() instanceof JobEntity) {
+            if (event.getType() == ActivitiEventType.ENTITY_CREATED) {
+                onCommit(new TransactionListener() {
+                    public void execute(CommandContext commandContext) {
+                        pendingJobs.increment();
+                    }
+                });
+            } else {
+                onCommit(new TransactionListener() {
+                    public void execute(CommandContext commandContext) {
+                        pendingJobs.decrement();
+                    }
+                });
+            }
+        }
+    }
+
+    private void onCommit(TransactionListener transactionListener) {
+        if (Context.getTransactionContext() != null) {
+            Context.getTransactionContext().addTransactionListener(TransactionState.COMMITTED, transactionListener);
+        } else {
+            transactionListener.execute(null);
+        }
+    }
+
+    public boolean isFailOnException() {
+        return false;
+    }
+
+    public long getMaxBacklog() {
+        return maxBacklog;
+    }
+
+    public long getThrottledStarts() {
+        return throttledStarts.sum();
+    }
+
+    public long getThrottledTime() {
+        return TimeUnit.NANOSECONDS.toMillis(throttledTime.sum());
+    }
+
+    public void printReport(PrintStream out) {
+        out.println();
+        out.println("Back-pressure (" + backlogSource + " backlog, target " + target + ") : max backlog " + maxBacklog + ", "
+                + throttledStarts.sum() + " starts held back, " + getThrottledTime() + " ms waited in total"
+                + (rejectedJobs.sum() > 0 ? ", " + rejectedJobs.sum() + " jobs rejected by a full executor queue" : ""));
+    }
+
+    private class CountingRejectedExecutionHandler implements RejectedExecutionHandler {
+
+        private final RejectedExecutionHandler delegate;
+
+        CountingRejectedExecutionHandler(RejectedExecutionHandler delegate) {
+            this.delegate = delegate;
+        }
+
+        public void rejectedExecution(Runnable runnable, ThreadPoolExecutor threadPoolExecutor) {
+            rejectedJobs.increment();
+            if (delegate != null) {
+                delegate.rejectedExecution(runnable, threadPoolExecutor);
+            } else {
+                throw new RejectedExecutionException("Async executor queue full");
+            }
+        }
+    }
+
+}
@@ -0,0 +1,137 @@
+package org.activiti;
+
+import org.HdrHistogram.Histogram;
+import org.activiti.engine.ProcessEngine;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Compares a producer that starts process instances as fast as it can with one held back by {@link BackPressure}
+ * (mode=backpressure), with the async executor or the message executor (backpressure-executor=message-executor)
+ * in this JVM. Both runs get a fresh producer and executor on a clean database and start nr-process-instances
+ * instances with start-process-instance-threads threads. The backlog is the pending jobs for the async executor
+ * and the JMS queue for the message executor, unless backpressure-backlog is set.
+ * The run without back-pressure is done benchmark-warmup-runs (default 1) times first to warm up the JVM, those
+ * results are discarded. The results go to backpressure-results.csv.
+ */
+public class BackPressureBenchmark {
+
+    private final Properties properties;
+    private final boolean messageExecutor;
+
+    public BackPressureBenchmark(Properties properties) {
+        this.properties = properties;
+        this.messageExecutor = "message-executor".equals(properties.getProperty("backpressure-executor"));
+    }
+
+    public void run() throws Exception {
+        System.out.println("Comparing process instance starts without and with back-pressure"
+                + (messageExecutor ? " (message executor)" : " (async executor)") + ", target backlog " + properties.getProperty("backpressure-target", "200"));
+
+        int warmupRuns = BenchmarkRun.getInt(properties, "benchmark-warmup-runs", 1);
+        for (int i = 0; i < warmupRuns; i++) {
+            System.out.println();
+            System.out.println("Warm-up run " + (i + 1) + "/" + warmupRuns + " : without back-pressure, result discarded");
+            runPoint(i, false);
+        }
+
+        List<BackPressureResult> results = new ArrayList<BackPressureResult>();
+        for (boolean backPressure : new boolean[] { false, true }) {
+            System.out.println();
+            System.out.println("Back-pressure run " + (backPressure ? "2/2 : with" : "1/2 : without") + " back-pressure");
+            BackPressureResult result = runPoint(warmupRuns + results.size(), backPressure);
+            System.out.println(result);
+            results.add(result);
+        }
+
+        BackPressureResult without = results.get(0);
+        BackPressureResult with = results.get(1);
+        BenchmarkResults.print("Back-pressure results", results, null);
+        System.out.println(String.format("Back-pressure : throughput %+.1f%%, p99 job latency %+.1f%%, p99 queue wait %+.1f%%, max backlog %d -> %d",
+                100.0 * (with.jobsPerSecond / without.jobsPerSecond - 1.0), 100.0 * (with.p99LatencyMs / without.p99LatencyMs - 1.0),
+                100.0 * (with.p99QueueWaitMs / without.p99QueueWaitMs - 1.0), without.maxBacklog, with.maxBacklog));
+        writeCsv(results, new File("backpressure-results.csv"));
+        System.out.println("Back-pressure results written to backpressure-results.csv");
+    }
+
+    protected BackPressureResult runPoint(int index, boolean backPressure) throws Exception {
+        BenchmarkRun run = new BenchmarkRun(properties, "backpressure", index);
+        try {
+            int nrOfProcessInstances = Integer.valueOf(properties.getProperty("nr-process-instances", "1000"));
+            Main.eventListener = new BenchmarkEventListener(nrOfProcessInstances);
+            Main.jobLatencyRecorder = new JobLatencyRecorder();
+            // Without back-pressure the backlog is still sampled, the starts just don't wait for it
+            BackPressure backlog = new BackPressure(properties, messageExecutor ? BackPressure.BACKLOG_JMS_QUEUE : BackPressure.BACKLOG_PENDING_JOBS);
+            Main.backPressure = backlog;
+
+            ProcessEngine producerEngine = run.startEngines(messageExecutor);
+            backlog.start(producerEngine);
+            if (!backPressure) {
+                Main.backPressure = null;
+            }
+
+            run.startProcessInstances(producerEngine, nrOfProcessInstances);
+
+            if (!run.awaitCompletion("backpressure-timeout-seconds", 1800)) {
+                System.out.println("Run " + (backPressure ? "with" : "without") + " back-pressure didn't complete in time, "
+                        + Main.eventListener.getCompletedProcessInstances() + " process instances completed");
+            }
+            backlog.stop();
+            Main.backPressure = null;
+
+            BackPressureResult result = new BackPressureResult();
+            result.backPressure = backPressure;
+            result.executedJobs = Main.eventListener.getExecutedJobs();
+            long duration = Main.eventListener.getLastCompletionTime() - Main.eventListener.getFirstEventTime();
+            result.jobsPerSecond = 1000.0 * result.executedJobs / Math.max(duration, 1L);
+            result.processInstancesPerSecond = 1000.0 * Main.eventListener.getCompletedProcessInstances() / Math.max(duration, 1L);
+            Histogram latency = Main.jobLatencyRecorder.getTotalHistogram().getTotalCount() > 0
+                    ? Main.jobLatencyRecorder.getTotalHistogram().copy() : Main.jobLatencyRecorder.getExecutionHistogram().copy();
+            result.p50LatencyMs = latency.getValueAtPercentile(50.0) / 1000.0;
+            result.p99LatencyMs = latency.getValueAtPercentile(99.0) / 1000.0;
+            result.p99QueueWaitMs = Main.jobLatencyRecorder.getQueueWaitHistogram().copy().getValueAtPercentile(99.0) / 1000.0;
+            result.maxBacklog = backlog.getMaxBacklog();
+            result.throttledStarts = backlog.getThrottledStarts();
+            result.throttledMs = backlog.getThrottledTime();
+            return result;
+        } finally {
+            run.close();
+        }
+    }
+
+    protected void writeCsv(List<BackPressureResult> results, File file) throws IOException {
+        String header = "backPressure;executedJobs;jobsPerSecond;processInstancesPerSecond;p50LatencyMs;p99LatencyMs;p99QueueWaitMs;maxBacklog;throttledStarts;throttledMs";
+        BenchmarkResults.writeCsv(file, header, results, new BenchmarkResults.CsvRow<BackPressureResult>() {
+            public Object[] getValues(BackPressureResult result) {
+                return new Object[] { result.backPressure, result.executedJobs, result.jobsPerSecond,
+                        result.processInstancesPerSecond, result.p50LatencyMs, result.p99LatencyMs, result.p99QueueWaitMs,
+                        result.maxBacklog, result.throttledStarts, result.throttledMs };
+            }
+        });
+    }
+
+    public static class BackPressureResult {
+
+        public boolean backPressure;
+        public long executedJobs;
+        public double jobsPerSecond;
+        public double processInstancesPerSecond;
+        public double p50LatencyMs;
+        public double p99LatencyMs;
+        public double p99QueueWaitMs;
+        public long maxBacklog;
+        public long throttledStarts;
+        public long throttledMs;
+
+        public String toString() {
+            return String.format("%-22s : %d jobs, %.1f jobs/s, %.1f process instances/s, job latency p50 %.1f ms p99 %.1f ms, p99 queue wait %.1f ms, max backlog %d, %d starts held back (%d ms)",
+                    backPressure ? "with back-pressure" : "without back-pressure", executedJobs, jobsPerSecond, processInstancesPerSecond,
+                    p50LatencyMs, p99LatencyMs, p99QueueWaitMs, maxBacklog, throttledStarts, throttledMs);
+        }
+    }
+
+}
@@ -0,0 +1,112 @@
+package org.activiti;
+
+import org.apache.activemq.command.ActiveMQTextMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.TextMessage;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Unpacks the batch messages of the {@link BatchingMessageBasedJobManager} and executes the jobs concurrently.
+ * Every job is handed to the delegate listener as a single job message, so it is executed (and timed) like any other job.
+ *
+ * Exclusive jobs of the same process instance run one after another, they would fail on the process instance lock otherwise.
+ * The listener returns when all jobs of the batch are done, so the message is only acknowledged afterwards.
+ * Messages without job count are passed to the delegate as is.
+ */
+public class BatchJobMessageListener implements MessageListener {
+
+  private static Logger logger = LoggerFactory.getLogger(BatchJobMessageListener.class);
+
+  protected MessageListener delegate;
+  protected ExecutorService executorService;
+
+  public BatchJobMessageListener(MessageListener delegate, ExecutorService executorService) {
+    this.delegate = delegate;
+    this.executorService = executorService;
+  }
+
+  public void onMessage(Message message) {
+    try {
+      if (!(message instanceof TextMessage) || !message.propertyExists(BatchingMessageBasedJobManager.JOB_COUNT_PROPERTY)) {
+        delegate.onMessage(message);
+        return;
+      }
+
+      List<List<Message>> groups = createJobGroups((TextMessage) message);
+      if (groups.size() == 1) {
+        executeJobs(groups.get(0));
+        return;
+      }
+
+      List<Future<?>> futures = new ArrayList<Future<?>>(groups.size());
+      for (final List<Message> group : groups) {
+        futures.add(executorService.submit(new Runnable() {
+          public void run() {
+            executeJobs(group);
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+
+    } catch (JMSException e) {
+      logger.error("Could not read batch job message", e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      logger.error("Error while executing batched job", e.getCause());
+    }
+  }
+
+  protected List<List<Message>> createJobGroups(TextMessage batchMessage) throws JMSException {
+    Map<String, List<Message>> exclusiveGroups = new LinkedHashMap<String, List<Message>>();
+    List<List<Message>> groups = new ArrayList<List<Message>>();
+    for (String jobLine : batchMessage.getText().split(BatchingMessageBasedJobManager.JOB_SEPARATOR)) {
+      if (jobLine.isEmpty()) {
+        continue;
+      }
+
+      ActiveMQTextMessage jobMessage = new ActiveMQTextMessage();
+      jobMessage.setText(BatchingMessageBasedJobManager.getJobId(jobLine));
+      jobMessage.setJMSTimestamp(batchMessage.getJMSTimestamp());
+
+      String exclusiveGroup = BatchingMessageBasedJobManager.getExclusiveGroup(jobLine);
+      if (exclusiveGroup != null) {
+        jobMessage.setStringProperty(ExclusiveJobScheduler.EXCLUSIVE_GROUP_PROPERTY, exclusiveGroup);
+      }
+      if (exclusiveGroup == null) {
+        List<Message> group = new ArrayList<Message>(1);
+        group.add(jobMessage);
+        groups.add(group);
+      } else {
+        List<Message> group = exclusiveGroups.get(exclusiveGroup);
+        if (group == null) {
+          group = new ArrayList<Message>();
+          exclusiveGroups.put(exclusiveGroup, group);
+          groups.add(group);
+        }
+        group.add(jobMessage);
+      }
+    }
+    return groups;
+  }
+
+  protected void executeJobs(List<Message> jobMessages) {
+    for (Message jobMessage : jobMessages) {
+      delegate.onMessage(jobMessage);
+    }
+  }
+
+}
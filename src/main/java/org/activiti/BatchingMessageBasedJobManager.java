@@ -0,0 +1,168 @@
+package org.activiti;
+
+import org.activiti.engine.impl.cfg.ProcessEngineConfigurationImpl;
+import org.activiti.engine.impl.cfg.TransactionListener;
+import org.activiti.engine.impl.cfg.TransactionState;
+import org.activiti.engine.impl.context.Context;
+import org.activiti.engine.impl.interceptor.CommandContext;
+import org.activiti.engine.runtime.Job;
+import org.activiti.spring.executor.jms.MessageBasedJobManager;
+import org.springframework.jms.core.MessageCreator;
+import org.springframework.jms.core.SessionCallback;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * MessageBasedJobManager that collects the jobs created in one transaction and sends them when it commits,
+ * instead of one JMS send per job.
+ *
+ * job-dispatch=single        : one message per job when the transaction commits, like the MessageBasedJobManager
+ * job-dispatch=batch         : one message for all jobs, one line per job (see {@link BatchJobMessageListener})
+ * job-dispatch=batch-session : the usual one message per job, but all of them in one transacted JMS session
+ *
+ * The single job messages of exclusive jobs carry their process instance in the
+ * {@link ExclusiveJobScheduler#EXCLUSIVE_GROUP_PROPERTY}.
+ */
+public class BatchingMessageBasedJobManager extends MessageBasedJobManager {
+
+  public static final String DISPATCH_SINGLE = "single";
+  public static final String DISPATCH_BATCH = "batch";
+  public static final String DISPATCH_BATCH_SESSION = "batch-session";
+
+  /** Int property set on batch messages, the nr of job lines in the text */
+  public static final String JOB_COUNT_PROPERTY = "jobCount";
+
+  public static final String JOB_SEPARATOR = "\n";
+  public static final String EXCLUSIVE_GROUP_SEPARATOR = "|";
+
+  protected static final String BATCH_ATTRIBUTE = BatchingMessageBasedJobManager.class.getName() + ".batch";
+
+  protected String dispatchMode;
+
+  public BatchingMessageBasedJobManager(ProcessEngineConfigurationImpl processEngineConfiguration, String dispatchMode) {
+    super(processEngineConfiguration);
+    this.dispatchMode = dispatchMode;
+  }
+
+  @Override
+  protected void sendMessage(Job job) {
+    CommandContext commandContext = Context.getCommandContext();
+    if (commandContext == null || Context.getTransactionContext() == null) {
+      super.sendMessage(job);
+      return;
+    }
+
+    if (DISPATCH_SINGLE.equals(dispatchMode)) {
+      final String jobLine = toJobLine(job);
+      Context.getTransactionContext().addTransactionListener(TransactionState.COMMITTED, new TransactionListener() {
+        public void execute(CommandContext commandContext) {
+          jmsTemplate.send(new MessageCreator() {
+            public Message createMessage(Session session) throws JMSException {
+              return createJobMessage(session, jobLine);
+            }
+          });
+        }
+      });
+      return;
+    }
+
+    @SuppressWarnings("unchecked")
+    List<String> batch = (List<String>) commandContext.getAttribute(BATCH_ATTRIBUTE);
+    if (batch == null) {
+      final List<String> newBatch = new ArrayList<String>();
+      commandContext.addAttribute(BATCH_ATTRIBUTE, newBatch);
+      Context.getTransactionContext().addTransactionListener(TransactionState.COMMITTED, new TransactionListener() {
+        public void execute(CommandContext commandContext) {
+          send(newBatch);
+        }
+      });
+      batch = newBatch;
+    }
+    batch.add(toJobLine(job));
+  }
+
+  /**
+   * Exclusive jobs get the process instance as group: the listener executes the jobs of one group one after another.
+   */
+  protected String toJobLine(Job job) {
+    if (job.isExclusive() && job.getProcessInstanceId() != null) {
+      return job.getId() + EXCLUSIVE_GROUP_SEPARATOR + job.getProcessInstanceId();
+    }
+    return job.getId();
+  }
+
+  protected void send(final List<String> jobLines) {
+    if (DISPATCH_BATCH_SESSION.equals(dispatchMode)) {
+      sendInOneSession(jobLines);
+      return;
+    }
+
+    jmsTemplate.send(new MessageCreator() {
+      public Message createMessage(Session session) throws JMSException {
+        return createBatchMessage(session, jobLines);
+      }
+    });
+  }
+
+  protected void sendInOneSession(final List<String> jobLines) {
+    jmsTemplate.execute(new SessionCallback<Object>() {
+      public Object doInJms(Session session) throws JMSException {
+        MessageProducer producer = session.createProducer(jmsTemplate.getDefaultDestination());
+        try {
+          for (String jobLine : jobLines) {
+            producer.send(createJobMessage(session, jobLine));
+          }
+          if (session.getTransacted()) {
+            session.commit();
+          }
+        } finally {
+          producer.close();
+        }
+        return null;
+      }
+    }, true);
+  }
+
+  public static TextMessage createBatchMessage(Session session, List<String> jobLines) throws JMSException {
+    StringBuilder text = new StringBuilder();
+    for (String jobLine : jobLines) {
+      if (text.length() > 0) {
+        text.append(JOB_SEPARATOR);
+      }
+      text.append(jobLine);
+    }
+    TextMessage message = session.createTextMessage(text.toString());
+    message.setIntProperty(JOB_COUNT_PROPERTY, jobLines.size());
+    return message;
+  }
+
+  public static TextMessage createJobMessage(Session session, String jobLine) throws JMSException {
+    TextMessage message = session.createTextMessage(getJobId(jobLine));
+    String exclusiveGroup = getExclusiveGroup(jobLine);
+    if (exclusiveGroup != null) {
+      message.setStringProperty(ExclusiveJobScheduler.EXCLUSIVE_GROUP_PROPERTY, exclusiveGroup);
+    }
+    return message;
+  }
+
+  public static String getJobId(String jobLine) {
+    int separatorIndex = jobLine.indexOf(EXCLUSIVE_GROUP_SEPARATOR);
+    return separatorIndex >= 0 ? jobLine.substring(0, separatorIndex) : jobLine;
+  }
+
+  public static String getExclusiveGroup(String jobLine) {
+    int separatorIndex = jobLine.indexOf(EXCLUSIVE_GROUP_SEPARATOR);
+    return separatorIndex >= 0 ? jobLine.substring(separatorIndex + 1) : null;
+  }
+
+  public String getDispatchMode() {
+    return dispatchMode;
+  }
+
+}
@@ -0,0 +1,174 @@
+package org.activiti;
+
+import org.activiti.engine.ActivitiException;
+import org.activiti.engine.impl.cfg.ProcessEngineConfigurationImpl;
+import org.activiti.engine.impl.cfg.TransactionContext;
+import org.activiti.engine.impl.cfg.TransactionListener;
+import org.activiti.engine.impl.cfg.TransactionState;
+import org.activiti.engine.impl.context.Context;
+import org.activiti.engine.impl.db.DbSqlSession;
+import org.activiti.engine.impl.db.DbSqlSessionFactory;
+import org.activiti.engine.impl.interceptor.CommandContext;
+import org.activiti.engine.impl.interceptor.Session;
+import org.activiti.engine.impl.persistence.cache.EntityCache;
+import org.activiti.engine.impl.persistence.entity.Entity;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * DbSqlSessionFactory of the benchmark engines. Its sessions count the flushed rows for the {@link DbRowCounter}
+ * and, with async history, take the historic entities out of the flush and hand them to the {@link AsyncHistoryWriter}
+ * once the transaction committed.
+ */
+public class BenchmarkDbSqlSessionFactory extends DbSqlSessionFactory {
+
+    private volatile DbRowCounter dbRowCounter;
+    private volatile AsyncHistoryWriter asyncHistoryWriter;
+
+    /**
+     * @return the factory of the configuration, set on the configuration first if needed
+     */
+    public static BenchmarkDbSqlSessionFactory register(ProcessEngineConfigurationImpl processEngineConfiguration) {
+        if (processEngineConfiguration.getDbSqlSessionFactory() instanceof BenchmarkDbSqlSessionFactory) {
+            return (BenchmarkDbSqlSessionFactory) processEngineConfiguration.getDbSqlSessionFactory();
+        }
+        BenchmarkDbSqlSessionFactory dbSqlSessionFactory = new BenchmarkDbSqlSessionFactory();
+        processEngineConfiguration.setDbSqlSessionFactory(dbSqlSessionFactory);
+        return dbSqlSessionFactory;
+    }
+
+    public void setDbRowCounter(DbRowCounter dbRowCounter) {
+        this.dbRowCounter = dbRowCounter;
+    }
+
+    public void setAsyncHistoryWriter(AsyncHistoryWriter asyncHistoryWriter) {
+        this.asyncHistoryWriter = asyncHistoryWriter;
+    }
+
+    public Session openSession(CommandContext commandContext) {
+        DbSqlSession dbSqlSession = new BenchmarkDbSqlSession(this, commandContext.getEntityCache());
+        try {
+            if (getDatabaseSchema() != null && getDatabaseSchema().length() > 0) {
+                dbSqlSession.getSqlSession().getConnection().setSchema(getDatabaseSchema());
+            }
+            if (getDatabaseCatalog() != null && getDatabaseCatalog().length() > 0) {
+                dbSqlSession.getSqlSession().getConnection().setCatalog(getDatabaseCatalog());
+            }
+        } catch (SQLException e) {
+            throw new ActivitiException("Could not set database schema or catalog on connection", e);
+        }
+        return dbSqlSession;
+    }
+
+    static boolean isHistoricEntity(Class<?> entityClass) {
+        return entityClass.getSimpleName().startsWith("Historic");
+    }
+
+    private class BenchmarkDbSqlSession extends DbSqlSession {
+
+        // The transaction context is no longer on the Context stack when the sessions are flushed
+        private final TransactionContext transactionContext = Context.getTransactionContext();
+        private List<Entity> deferredInserts;
+        private List<Entity> deferredUpdates;
+        private boolean submitOnCommit;
+
+        BenchmarkDbSqlSession(DbSqlSessionFactory dbSqlSessionFactory, EntityCache entityCache) {
+            super(dbSqlSessionFactory, entityCache);
+        }
+
+        public <T extends Entity> T selectById(Class<T> entityClass, String id, boolean useCache) {
+            T entity = super.selectById(entityClass, id, useCache);
+            if (entity == null && isDeferringHistory() && isHistoricEntity(entityClass)) {
+                asyncHistoryWriter.countMissedLookup(entityClass, id);
+            }
+            return entity;
+        }
+
+        protected void flushInserts() {
+            if (isDeferringHistory()) {
+                Iterator<Map.Entry<Class<? extends Entity>, Map<String, Entity>>> iterator = insertedObjects.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    Map.Entry<Class<? extends Entity>, Map<String, Entity>> entry = iterator.next();
+                    if (isHistoricEntity(entry.getKey())) {
+                        getDeferredInserts().addAll(entry.getValue().values());
+                        iterator.remove();
+                    }
+                }
+            }
+            super.flushInserts();
+        }
+
+        protected void flushInsertEntities(Class<? extends Entity> entityClass, Collection<Entity> entitiesToInsert) {
+            if (dbRowCounter != null) {
+                dbRowCounter.countInserts(entityClass, entitiesToInsert.size());
+            }
+            super.flushInsertEntities(entityClass, entitiesToInsert);
+        }
+
+        protected void flushUpdates() {
+            if (isDeferringHistory()) {
+                Iterator<Entity> iterator = updatedObjects.iterator();
+                while (iterator.hasNext()) {
+                    Entity entity = iterator.next();
+                    if (isHistoricEntity(entity.getClass())) {
+                        getDeferredUpdates().add(entity);
+                        iterator.remove();
+                    }
+                }
+            }
+            if (dbRowCounter != null) {
+                for (Entity entity : updatedObjects) {
+                    dbRowCounter.countUpdates(entity.getClass(), 1);
+                }
+            }
+            super.flushUpdates();
+        }
+
+        protected void flushDeleteEntities(Class<? extends Entity> entityClass, Collection<Entity> entitiesToDelete) {
+            if (dbRowCounter != null) {
+                dbRowCounter.countDeletes(entityClass, entitiesToDelete.size());
+            }
+            super.flushDeleteEntities(entityClass, entitiesToDelete);
+        }
+
+        private boolean isDeferringHistory() {
+            // The writer flushes the deferred entities through sessions of this factory too
+            return asyncHistoryWriter != null && !asyncHistoryWriter.isWriterThread() && transactionContext != null;
+        }
+
+        private List<Entity> getDeferredInserts() {
+            if (deferredInserts == null) {
+                deferredInserts = new ArrayList<Entity>();
+                submitOnCommit();
+            }
+            return deferredInserts;
+        }
+
+        private List<Entity> getDeferredUpdates() {
+            if (deferredUpdates == null) {
+                deferredUpdates = new ArrayList<Entity>();
+                submitOnCommit();
+            }
+            return deferredUpdates;
+        }
+
+        private void submitOnCommit() {
+            if (submitOnCommit) {
+                return;
+            }
+            submitOnCommit = true;
+            final AsyncHistoryWriter writer = asyncHistoryWriter;
+            transactionContext.addTransactionListener(TransactionState.COMMITTED, new TransactionListener() {
+                public void execute(CommandContext commandContext) {
+                    writer.submit(deferredInserts, deferredUpdates);
+                }
+            });
+        }
+    }
+
+}
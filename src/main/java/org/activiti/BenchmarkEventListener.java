@@ -0,0 +1,219 @@
+package org.activiti;
+
+import org.activiti.engine.ActivitiOptimisticLockingException;
+import org.activiti.engine.delegate.event.ActivitiEntityEvent;
+import org.activiti.engine.delegate.event.ActivitiEvent;
+import org.activiti.engine.delegate.event.ActivitiEventListener;
+import org.activiti.engine.delegate.event.ActivitiEventType;
+import org.activiti.engine.delegate.event.ActivitiExceptionEvent;
+import org.activiti.engine.impl.cfg.ProcessEngineConfigurationImpl;
+import org.activiti.engine.impl.cfg.TransactionListener;
+import org.activiti.engine.impl.cfg.TransactionState;
+import org.activiti.engine.impl.context.Context;
+import org.activiti.engine.impl.interceptor.CommandContext;
+import org.activiti.engine.impl.persistence.entity.ExecutionEntity;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps in-memory counters of what the engine(s) in this JVM did, so the end of a run can be detected
+ * without querying the database. Completions are only counted once their transaction has committed,
+ * a job that is rolled back on an optimistic locking exception doesn't count.
+ */
+public class BenchmarkEventListener implements ActivitiEventListener {
+
+    public static final ActivitiEventType[] EVENT_TYPES = new ActivitiEventType[] {
+            ActivitiEventType.PROCESS_STARTED,
+            ActivitiEventType.PROCESS_COMPLETED,
+            ActivitiEventType.PROCESS_CANCELLED,
+            ActivitiEventType.JOB_EXECUTION_SUCCESS,
+            ActivitiEventType.JOB_EXECUTION_FAILURE,
+            ActivitiEventType.JOB_RETRIES_DECREMENTED,
+            ActivitiEventType.TIMER_FIRED
+    };
+
+    private final LongAdder startedProcessInstances = new LongAdder();
+    private final LongAdder completedProcessInstances = new LongAdder();
+    private final LongAdder executedJobs = new LongAdder();
+    private final LongAdder failedJobs = new LongAdder();
+    private final LongAdder optimisticLockFailures = new LongAdder();
+    private final LongAdder retriesDecremented = new LongAdder();
+    private final LongAdder firedTimers = new LongAdder();
+
+    private final AtomicLong firstEventTime = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong lastCompletionTime = new AtomicLong();
+
+    private volatile CountDownLatch completionLatch;
+
+    public BenchmarkEventListener(int expectedProcessInstances) {
+        this.completionLatch = new CountDownLatch(Math.max(expectedProcessInstances, 0));
+    }
+
+    public void register(ProcessEngineConfigurationImpl processEngineConfiguration) {
+        register(processEngineConfiguration, this, EVENT_TYPES);
+    }
+
+    /**
+     * Starts counting from zero, eg. after a warm-up. Only call this when no process instances are running.
+     */
+    public void reset(int expectedProcessInstances) {
+        startedProcessInstances.reset();
+        completedProcessInstances.reset();
+        executedJobs.reset();
+        failedJobs.reset();
+        optimisticLockFailures.reset();
+        retriesDecremented.reset();
+        firedTimers.reset();
+        firstEventTime.set(Long.MAX_VALUE);
+        lastCompletionTime.set(0L);
+        completionLatch = new CountDownLatch(Math.max(expectedProcessInstances, 0));
+    }
+
+    /**
+     * Adds a typed event listener to the configuration, before the engine is built.
+     */
+    public static void register(ProcessEngineConfigurationImpl processEngineConfiguration, ActivitiEventListener listener, ActivitiEventType... eventTypes) {
+        Map<String, List<ActivitiEventListener>> typedEventListeners = processEngineConfiguration.getTypedEventListeners();
+        if (typedEventListeners == null) {
+            typedEventListeners = new HashMap<String, List<ActivitiEventListener>>();
+            processEngineConfiguration.setTypedEventListeners(typedEventListeners);
+        }
+
+        StringBuilder types = new StringBuilder();
+        for (ActivitiEventType eventType : eventTypes) {
+            if (types.length() > 0) {
+                types.append(",");
+            }
+            types.append(eventType.name());
+        }
+
+        List<ActivitiEventListener> listeners = typedEventListeners.get(types.toString());
+        if (listeners == null) {
+            listeners = new ArrayList<ActivitiEventListener>();
+            typedEventListeners.put(types.toString(), listeners);
+        }
+        listeners.add(listener);
+    }
+
+    public void onEvent(ActivitiEvent event) {
+        recordFirstEvent();
+        switch (event.getType()) {
+            case PROCESS_STARTED:
+                startedProcessInstances.increment();
+                break;
+            case PROCESS_COMPLETED:
+            case PROCESS_CANCELLED:
+                if (isProcessInstanceEvent(event)) {
+                    onCommit(new TransactionListener() {
+                        public void execute(CommandContext commandContext) {
+                            completedProcessInstances.increment();
+                            lastCompletionTime.accumulateAndGet(System.currentTimeMillis(), Math::max);
+                            completionLatch.countDown();
+                        }
+                    });
+                }
+                break;
+            case JOB_EXECUTION_SUCCESS:
+                onCommit(new TransactionListener() {
+                    public void execute(CommandContext commandContext) {
+                        executedJobs.increment();
+                    }
+                });
+                break;
+            case JOB_EXECUTION_FAILURE:
+                failedJobs.increment();
+                if (event instanceof ActivitiExceptionEvent
+                        && ((ActivitiExceptionEvent) event).getCause() instanceof ActivitiOptimisticLockingException) {
+                    optimisticLockFailures.increment();
+                }
+                break;
+            case JOB_RETRIES_DECREMENTED:
+                retriesDecremented.increment();
+                break;
+            case TIMER_FIRED:
+                firedTimers.increment();
+                break;
+            default:
+                break;
+        }
+    }
+
+    public boolean isFailOnException() {
+        return false;
+    }
+
+    /**
+     * @return true if the expected number of process instances completed within the timeout
+     */
+    public boolean awaitCompletion(long timeoutInMillis) throws InterruptedException {
+        return completionLatch.await(timeoutInMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public long getStartedProcessInstances() {
+        return startedProcessInstances.sum();
+    }
+
+    public long getCompletedProcessInstances() {
+        return completedProcessInstances.sum();
+    }
+
+    public long getExecutedJobs() {
+        return executedJobs.sum();
+    }
+
+    public long getFailedJobs() {
+        return failedJobs.sum();
+    }
+
+    /**
+     * @return the failed jobs that were rolled back on a concurrent update (eg. two jobs of the same process instance)
+     */
+    public long getOptimisticLockFailures() {
+        return optimisticLockFailures.sum();
+    }
+
+    public long getRetriesDecremented() {
+        return retriesDecremented.sum();
+    }
+
+    public long getFiredTimers() {
+        return firedTimers.sum();
+    }
+
+    public long getFirstEventTime() {
+        return firstEventTime.get();
+    }
+
+    public long getLastCompletionTime() {
+        return lastCompletionTime.get();
+    }
+
+    private void recordFirstEvent() {
+        if (firstEventTime.get() == Long.MAX_VALUE) {
+            firstEventTime.accumulateAndGet(System.currentTimeMillis(), Math::min);
+        }
+    }
+
+    private boolean isProcessInstanceEvent(ActivitiEvent event) {
+        if (event instanceof ActivitiEntityEvent && ((ActivitiEntityEvent) event).getEntity() instanceof ExecutionEntity) {
+            return ((ExecutionEntity) ((ActivitiEntityEvent) event).getEntity()).isProcessInstanceType();
+        }
+        return event.getExecutionId() != null && event.getExecutionId().equals(event.getProcessInstanceId());
+    }
+
+    private void onCommit(TransactionListener transactionListener) {
+        if (Context.getTransactionContext() != null) {
+            Context.getTransactionContext().addTransactionListener(TransactionState.COMMITTED, transactionListener);
+        } else {
+            transactionListener.execute(null);
+        }
+    }
+
+}
@@ -0,0 +1,58 @@
+package org.activiti;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+
+/**
+ * Prints the results of the runs of a benchmark that compares settings in one JVM (see {@link BenchmarkRun}) and
+ * writes them to a ;-separated csv file, one line per run.
+ */
+public class BenchmarkResults {
+
+    /**
+     * The csv values of a result, in the order of the columns of the header.
+     */
+    public interface CsvRow<T> {
+
+        Object[] getValues(T result);
+
+    }
+
+    /**
+     * Prints the title and a line per result, the best result (null for none) is marked with a *.
+     */
+    public static void print(String title, List<?> results, Object best) {
+        System.out.println();
+        System.out.println(title);
+        for (Object result : results) {
+            System.out.println((result == best ? "* " : "  ") + result);
+        }
+    }
+
+    /**
+     * @param header the column names, separated by ;
+     */
+    public static <T> void writeCsv(File file, String header, List<T> results, CsvRow<T> csvRow) throws IOException {
+        PrintWriter printWriter = new PrintWriter(new FileWriter(file));
+        try {
+            printWriter.println(header);
+            for (T result : results) {
+                Object[] values = csvRow.getValues(result);
+                StringBuilder line = new StringBuilder();
+                for (int i = 0; i < values.length; i++) {
+                    if (i > 0) {
+                        line.append(';');
+                    }
+                    line.append(values[i]);
+                }
+                printWriter.println(line);
+            }
+        } finally {
+            printWriter.close();
+        }
+    }
+
+}
@@ -0,0 +1,165 @@
+package org.activiti;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.activiti.engine.ProcessEngine;
+import org.activiti.engine.impl.cfg.ProcessEngineConfigurationImpl;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One run of a benchmark that compares settings in one JVM, on a clean database and with its own job queue:
+ *
+ * - an in-memory H2 database gets a fresh database per run (name-index), other databases are dropped and created by
+ *   the first engine of the run only (a one-shot schema-reset, see {@link RunLifecycle}), the engines built after it
+ *   leave the tables of the running executor alone
+ * - the queue gets the run index as suffix, messages left by a previous run stay in their own queue
+ *
+ * The properties changed for the run (by the benchmark too) are restored by {@link #close()}, which also closes the
+ * engines, the Spring contexts and the data sources of the run.
+ */
+public class BenchmarkRun {
+
+    private final Properties properties;
+    private final Properties originalProperties = new Properties();
+    private final RunLifecycle originalRunLifecycle;
+    private final boolean inMemoryDatabase;
+
+    private final List<AnnotationConfigApplicationContext> contexts = new ArrayList<AnnotationConfigApplicationContext>();
+    private final List<ProcessEngine> processEngines = new ArrayList<ProcessEngine>();
+    private ExecutorService starterThreads;
+
+    /**
+     * @param name the name of the in-memory database, the run index is appended
+     */
+    public BenchmarkRun(Properties properties, String name, int index) {
+        this.properties = properties;
+        this.originalProperties.putAll(properties);
+        this.originalRunLifecycle = Main.runLifecycle;
+
+        inMemoryDatabase = properties.getProperty("jdbc-url").startsWith("jdbc:h2:mem:");
+        if (inMemoryDatabase) {
+            properties.setProperty("jdbc-url", "jdbc:h2:mem:" + name + "-" + index + ";DB_CLOSE_DELAY=-1");
+            properties.setProperty("schema-reset", "none");
+        } else {
+            properties.setProperty("schema-reset", RunLifecycle.SCHEMA_RESET_DROP_CREATE);
+        }
+        properties.setProperty("queue", properties.getProperty("queue", "activiti-jobs") + "-" + index);
+        Main.runLifecycle = new RunLifecycle(properties);
+    }
+
+    /**
+     * Builds the executor (an async executor engine, or the message executor context) and then the producer, and
+     * deploys the workload.
+     *
+     * @return the producer engine
+     */
+    public ProcessEngine startEngines(boolean messageExecutor) {
+        ProcessEngine producerEngine;
+        if (messageExecutor) {
+            contexts.add(new AnnotationConfigApplicationContext(MyConfigMessageExecutor.class));
+            AnnotationConfigApplicationContext producerContext = new AnnotationConfigApplicationContext(MyConfigMessageProducer.class);
+            contexts.add(producerContext);
+            producerEngine = producerContext.getBean(ProcessEngine.class);
+        } else {
+            processEngines.add(Main.createProcessEngine(true));
+            producerEngine = createProcessEngine(false);
+        }
+        Main.workload.deploy(producerEngine.getRepositoryService());
+        return producerEngine;
+    }
+
+    /**
+     * An engine that is closed with the run, the workload isn't deployed.
+     */
+    public ProcessEngine createProcessEngine(boolean enableAsyncExecutor) {
+        ProcessEngine processEngine = Main.createProcessEngine(enableAsyncExecutor);
+        processEngines.add(processEngine);
+        return processEngine;
+    }
+
+    /**
+     * Starts the process instances with start-process-instance-threads threads (default 10), without waiting.
+     */
+    public void startProcessInstances(final ProcessEngine producerEngine, int nrOfProcessInstances) {
+        starterThreads = Executors.newFixedThreadPool(getInt(properties, "start-process-instance-threads", 10));
+        for (int i = 0; i < nrOfProcessInstances; i++) {
+            starterThreads.submit(new Runnable() {
+                public void run() {
+                    try {
+                        Main.startProcessInstance(producerEngine);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+        }
+        starterThreads.shutdown();
+    }
+
+    /**
+     * Waits for the process instances of the event listener to complete, at most timeoutKey seconds.
+     *
+     * @return false when they didn't complete in time
+     */
+    public boolean awaitCompletion(String timeoutKey, int defaultTimeoutSeconds) throws InterruptedException {
+        boolean completed = Main.eventListener.awaitCompletion(TimeUnit.SECONDS.toMillis(getInt(properties, timeoutKey, defaultTimeoutSeconds)));
+        if (starterThreads != null) {
+            starterThreads.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        return completed;
+    }
+
+    public void close() throws Exception {
+        if (starterThreads != null) {
+            starterThreads.shutdownNow();
+        }
+        for (AnnotationConfigApplicationContext context : contexts) {
+            context.close();
+        }
+        for (ProcessEngine processEngine : processEngines) {
+            processEngine.close();
+            DataSource dataSource = ((ProcessEngineConfigurationImpl) processEngine.getProcessEngineConfiguration()).getDataSource();
+            if (dataSource instanceof HikariDataSource) {
+                ((HikariDataSource) dataSource).close();
+            }
+        }
+        if (inMemoryDatabase) {
+            Connection connection = DriverManager.getConnection(properties.getProperty("jdbc-url"),
+                    properties.getProperty("jdbc-username"), properties.getProperty("jdbc-password"));
+            Statement statement = connection.createStatement();
+            statement.execute("SHUTDOWN");
+            connection.close();
+        }
+
+        properties.clear();
+        properties.putAll(originalProperties);
+        Main.runLifecycle = originalRunLifecycle;
+    }
+
+    public static int getInt(Properties properties, String key, int defaultValue) {
+        String value = properties.getProperty(key);
+        if (value != null && !"".equals(value)) {
+            return Integer.valueOf(value);
+        }
+        return defaultValue;
+    }
+
+    public static long getLong(Properties properties, String key, long defaultValue) {
+        String value = properties.getProperty(key);
+        if (value != null && !"".equals(value)) {
+            return Long.valueOf(value);
+        }
+        return defaultValue;
+    }
+
+}
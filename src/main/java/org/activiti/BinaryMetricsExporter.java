@@ -0,0 +1,54 @@
+package org.activiti;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Compact binary metrics file:
+ *
+ * header : int magic ('AMET'), int version, int nr of metrics, the metric names (writeUTF)
+ * sample : long timestamp (epoch millis), one long per metric
+ *
+ * Read it back with DataInputStream in the same order.
+ */
+public class BinaryMetricsExporter implements MetricsExporter {
+
+    public static final int MAGIC = 0x414d4554;
+    public static final int VERSION = 1;
+
+    private final File file;
+    private DataOutputStream out;
+
+    public BinaryMetricsExporter(File file) {
+        this.file = file;
+    }
+
+    public void open(String[] names) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(names.length);
+        for (String name : names) {
+            out.writeUTF(name);
+        }
+    }
+
+    public void export(long timestamp, long[] values) throws IOException {
+        out.writeLong(timestamp);
+        for (long value : values) {
+            out.writeLong(value);
+        }
+    }
+
+    public void close() throws IOException {
+        out.close();
+    }
+
+    public String toString() {
+        return "binary " + file;
+    }
+
+}
@@ -0,0 +1,121 @@
+package org.activiti;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.activiti.engine.ProcessEngine;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how fast process instances can be started, for every batch size in bulk-start-batch-sizes (eg. 1,10,100,1000).
+ *
+ * Every batch size gets a fresh producer engine (no async executor) on a clean database, which starts
+ * nr-process-instances instances of the workload with start-process-instance-threads threads. A batch size of 1
+ * uses RuntimeService.startProcessInstanceByKey, larger batch sizes the {@link BulkStartProcessInstancesCmd}.
+ * The results go to bulk-start-results.csv.
+ */
+public class BulkStartBenchmark {
+
+    private final Properties properties;
+
+    public BulkStartBenchmark(Properties properties) {
+        this.properties = properties;
+    }
+
+    public void run() throws Exception {
+        String batchSizes = properties.getProperty("bulk-start-batch-sizes", "1,10,100,1000");
+        int nrOfProcessInstances = BenchmarkRun.getInt(properties, "nr-process-instances", 10000);
+
+        List<BulkStartResult> results = new ArrayList<BulkStartResult>();
+        for (String batchSize : batchSizes.split(",")) {
+            System.out.println();
+            System.out.println("Starting " + nrOfProcessInstances + " process instances in batches of " + batchSize.trim());
+            BulkStartResult result = runBatchSize(results.size(), Integer.valueOf(batchSize.trim()), nrOfProcessInstances);
+            System.out.println(result);
+            results.add(result);
+        }
+
+        BenchmarkResults.print("Bulk start results", results, null);
+        writeCsv(results, new File("bulk-start-results.csv"));
+        System.out.println("Bulk start results written to bulk-start-results.csv");
+    }
+
+    protected BulkStartResult runBatchSize(int index, final int batchSize, int nrOfProcessInstances) throws Exception {
+        BenchmarkRun run = new BenchmarkRun(properties, "bulk-start", index);
+        try {
+            Main.eventListener = new BenchmarkEventListener(0);
+
+            final ProcessEngine processEngine = run.createProcessEngine(false);
+            Main.workload.deploy(processEngine.getRepositoryService());
+
+            final Histogram batchLatency = new ConcurrentHistogram(3);
+            ExecutorService starterThreads = Executors.newFixedThreadPool(BenchmarkRun.getInt(properties, "start-process-instance-threads", 10));
+            long start = System.nanoTime();
+            for (int started = 0; started < nrOfProcessInstances; started += batchSize) {
+                final int count = Math.min(batchSize, nrOfProcessInstances - started);
+                starterThreads.submit(new Runnable() {
+                    public void run() {
+                        long batchStart = System.nanoTime();
+                        try {
+                            Main.startProcessInstances(processEngine, count);
+                        } catch (Exception e) {
+                            e.printStackTrace();
+                        }
+                        batchLatency.recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - batchStart));
+                    }
+                });
+            }
+            starterThreads.shutdown();
+            starterThreads.awaitTermination(1, TimeUnit.HOURS);
+            long durationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            BulkStartResult result = new BulkStartResult();
+            result.batchSize = batchSize;
+            result.startedProcessInstances = processEngine.getRuntimeService().createProcessInstanceQuery().count();
+            result.createdJobs = processEngine.getManagementService().createJobQuery().count()
+                    + processEngine.getManagementService().createTimerJobQuery().count();
+            result.durationMs = durationMs;
+            result.processInstancesPerSecond = 1000.0 * result.startedProcessInstances / Math.max(durationMs, 1L);
+            Histogram latency = batchLatency.copy();
+            result.p50BatchLatencyMs = latency.getValueAtPercentile(50.0) / 1000.0;
+            result.p99BatchLatencyMs = latency.getValueAtPercentile(99.0) / 1000.0;
+            return result;
+        } finally {
+            run.close();
+        }
+    }
+
+    protected void writeCsv(List<BulkStartResult> results, File file) throws IOException {
+        String header = "batchSize;startedProcessInstances;createdJobs;durationMs;processInstancesPerSecond;p50BatchLatencyMs;p99BatchLatencyMs";
+        BenchmarkResults.writeCsv(file, header, results, new BenchmarkResults.CsvRow<BulkStartResult>() {
+            public Object[] getValues(BulkStartResult result) {
+                return new Object[] { result.batchSize, result.startedProcessInstances, result.createdJobs, result.durationMs,
+                        result.processInstancesPerSecond, result.p50BatchLatencyMs, result.p99BatchLatencyMs };
+            }
+        });
+    }
+
+    public static class BulkStartResult {
+
+        public int batchSize;
+        public long startedProcessInstances;
+        public long createdJobs;
+        public long durationMs;
+        public double processInstancesPerSecond;
+        public double p50BatchLatencyMs;
+        public double p99BatchLatencyMs;
+
+        public String toString() {
+            return String.format("batch size %5d : %d process instances (%d jobs) in %d ms, %.1f process instances/s, batch latency p50 %.1f ms / p99 %.1f ms",
+                    batchSize, startedProcessInstances, createdJobs, durationMs, processInstancesPerSecond, p50BatchLatencyMs, p99BatchLatencyMs);
+        }
+    }
+
+}
@@ -0,0 +1,51 @@
+package org.activiti;
+
+import org.activiti.engine.ActivitiObjectNotFoundException;
+import org.activiti.engine.impl.interceptor.Command;
+import org.activiti.engine.impl.interceptor.CommandContext;
+import org.activiti.engine.impl.util.ProcessInstanceHelper;
+import org.activiti.engine.repository.ProcessDefinition;
+import org.activiti.engine.runtime.ProcessInstance;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Starts a batch of process instances in one command, so in one transaction.
+ *
+ * All executions, variables and first async jobs of the batch are flushed together at the end of the command,
+ * using the engine's bulk inserts (one multi-row insert per table for up to bulk-insert-max-statements rows).
+ * When the async executor of the engine is active, the new jobs are handed to it when the transaction commits.
+ * With the message based job manager, they are sent when the transaction commits (one message with job-dispatch=batch).
+ */
+public class BulkStartProcessInstancesCmd implements Command<List<String>> {
+
+    private final String processDefinitionKey;
+    private final List<Map<String, Object>> variables;
+
+    /**
+     * @param variables the variables of every process instance to start
+     */
+    public BulkStartProcessInstancesCmd(String processDefinitionKey, List<Map<String, Object>> variables) {
+        this.processDefinitionKey = processDefinitionKey;
+        this.variables = variables;
+    }
+
+    public List<String> execute(CommandContext commandContext) {
+        ProcessDefinition processDefinition = commandContext.getProcessEngineConfiguration().getDeploymentManager()
+                .findDeployedLatestProcessDefinitionByKey(processDefinitionKey);
+        if (processDefinition == null) {
+            throw new ActivitiObjectNotFoundException("No process definition found for key '" + processDefinitionKey + "'", ProcessDefinition.class);
+        }
+
+        ProcessInstanceHelper processInstanceHelper = commandContext.getProcessEngineConfiguration().getProcessInstanceHelper();
+        List<String> processInstanceIds = new ArrayList<String>(variables.size());
+        for (Map<String, Object> processInstanceVariables : variables) {
+            ProcessInstance processInstance = processInstanceHelper.createAndStartProcessInstance(processDefinition, null, null, processInstanceVariables, null);
+            processInstanceIds.add(processInstance.getId());
+        }
+        return processInstanceIds;
+    }
+
+}
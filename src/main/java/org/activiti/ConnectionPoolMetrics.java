@@ -0,0 +1,101 @@
+package org.activiti;
+
+import com.zaxxer.hikari.metrics.MetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hikari metrics tracker: how long threads wait for a connection, and the pool statistics
+ * (active / idle connections, threads waiting for a connection).
+ */
+public class ConnectionPoolMetrics implements MetricsTrackerFactory {
+
+    private static final List<ConnectionPoolMetrics> allPools = new CopyOnWriteArrayList<ConnectionPoolMetrics>();
+
+    private final Histogram connectionWait = new ConcurrentHistogram(3);
+    private final LongAdder connectionTimeouts = new LongAdder();
+
+    private volatile String poolName;
+    private volatile PoolStats poolStats;
+
+    public MetricsTracker create(String poolName, PoolStats poolStats) {
+        this.poolName = poolName;
+        this.poolStats = poolStats;
+        allPools.add(this);
+        return new MetricsTracker() {
+
+            @Override
+            public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+                connectionWait.recordValue(TimeUnit.NANOSECONDS.toMicros(elapsedAcquiredNanos));
+            }
+
+            @Override
+            public void recordConnectionTimeout() {
+                connectionTimeouts.increment();
+            }
+
+            @Override
+            public void close() {
+                allPools.remove(ConnectionPoolMetrics.this);
+            }
+        };
+    }
+
+    public static List<ConnectionPoolMetrics> getAllPools() {
+        return new ArrayList<ConnectionPoolMetrics>(allPools);
+    }
+
+    public static ConnectionPoolMetrics getPool(String poolName) {
+        for (ConnectionPoolMetrics connectionPoolMetrics : allPools) {
+            if (poolName.equals(connectionPoolMetrics.getPoolName())) {
+                return connectionPoolMetrics;
+            }
+        }
+        return null;
+    }
+
+    public String getPoolName() {
+        return poolName;
+    }
+
+    /**
+     * Snapshot of the connection acquisition times, in microseconds.
+     */
+    public Histogram getConnectionWait() {
+        return connectionWait.copy();
+    }
+
+    public long getConnectionTimeouts() {
+        return connectionTimeouts.sum();
+    }
+
+    public int getActiveConnections() {
+        return poolStats != null ? poolStats.getActiveConnections() : 0;
+    }
+
+    public int getIdleConnections() {
+        return poolStats != null ? poolStats.getIdleConnections() : 0;
+    }
+
+    public int getTotalConnections() {
+        return poolStats != null ? poolStats.getTotalConnections() : 0;
+    }
+
+    public int getPendingThreads() {
+        return poolStats != null ? poolStats.getPendingThreads() : 0;
+    }
+
+    public void reset() {
+        connectionWait.reset();
+        connectionTimeouts.reset();
+    }
+
+}
@@ -0,0 +1,109 @@
+package org.activiti;
+
+import org.HdrHistogram.Histogram;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Runs inside an executor node started by the {@link ExecutorCoordinator}.
+ *
+ * Connects to the coordinator-address once the engine is ready and answers the coordinator commands,
+ * one line each way:
+ *
+ * agent       : READY nodeId
+ * coordinator : REPORT
+ * agent       : RESULT nodeId executedJobs failedJobs optimisticLockFailures totalLatency executionLatency
+ * coordinator : STOP (the node exits)
+ *
+ * The latencies are HdrHistograms in microseconds, compressed and base64 encoded ('-' when nothing was recorded).
+ */
+public class CoordinatorAgent implements Runnable {
+
+    public static final String READY = "READY";
+    public static final String REPORT = "REPORT";
+    public static final String RESULT = "RESULT";
+    public static final String STOP = "STOP";
+    public static final String NO_HISTOGRAM = "-";
+
+    private final String nodeId;
+    private final String host;
+    private final int port;
+
+    public CoordinatorAgent(String nodeId, String coordinatorAddress) {
+        this.nodeId = nodeId;
+        int index = coordinatorAddress.lastIndexOf(':');
+        this.host = coordinatorAddress.substring(0, index);
+        this.port = Integer.valueOf(coordinatorAddress.substring(index + 1));
+    }
+
+    public void start() {
+        Thread thread = new Thread(this, "coordinator-agent");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void run() {
+        try {
+            Socket socket = new Socket(host, port);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+            out.println(READY + " " + nodeId);
+            System.out.println("Node " + nodeId + " connected to coordinator " + host + ":" + port);
+
+            String command;
+            while ((command = in.readLine()) != null) {
+                if (REPORT.equals(command)) {
+                    out.println(createResult());
+                } else if (STOP.equals(command)) {
+                    break;
+                }
+            }
+            socket.close();
+
+        } catch (IOException e) {
+            System.err.println("Lost connection with coordinator : " + e.getMessage());
+        }
+
+        System.out.println("Node " + nodeId + " stopped by coordinator");
+        System.exit(0);
+    }
+
+    protected String createResult() {
+        BenchmarkEventListener eventListener = Main.eventListener;
+        JobLatencyRecorder jobLatencyRecorder = Main.jobLatencyRecorder;
+        return RESULT + " " + nodeId
+                + " " + eventListener.getExecutedJobs()
+                + " " + eventListener.getFailedJobs()
+                + " " + eventListener.getOptimisticLockFailures()
+                + " " + encode(jobLatencyRecorder != null ? jobLatencyRecorder.getTotalHistogram() : null)
+                + " " + encode(jobLatencyRecorder != null ? jobLatencyRecorder.getExecutionHistogram() : null);
+    }
+
+    public static String encode(Histogram histogram) {
+        if (histogram == null || histogram.getTotalCount() == 0) {
+            return NO_HISTOGRAM;
+        }
+        Histogram copy = histogram.copy();
+        ByteBuffer buffer = ByteBuffer.allocate(copy.getNeededByteBufferCapacity());
+        int length = copy.encodeIntoCompressedByteBuffer(buffer);
+        byte[] bytes = new byte[length];
+        buffer.flip();
+        buffer.get(bytes);
+        return Base64.getEncoder().encodeToString(bytes);
+    }
+
+    public static Histogram decode(String encoded) throws Exception {
+        if (NO_HISTOGRAM.equals(encoded)) {
+            return null;
+        }
+        return Histogram.decodeFromCompressedByteBuffer(ByteBuffer.wrap(Base64.getDecoder().decode(encoded)), 0L);
+    }
+
+}
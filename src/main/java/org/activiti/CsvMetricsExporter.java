@@ -0,0 +1,58 @@
+package org.activiti;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes one semicolon separated line per sample: timestamp (epoch millis) followed by the metric values.
+ * The line is built in a reused buffer, so exporting a sample doesn't allocate.
+ */
+public class CsvMetricsExporter implements MetricsExporter {
+
+    private final File file;
+    private final StringBuilder line = new StringBuilder(512);
+    private char[] buffer = new char[512];
+    private Writer writer;
+
+    public CsvMetricsExporter(File file) {
+        this.file = file;
+    }
+
+    public void open(String[] names) throws IOException {
+        writer = new BufferedWriter(new FileWriter(file), 64 * 1024);
+        writer.write("timestamp");
+        for (String name : names) {
+            writer.write(';');
+            writer.write(name);
+        }
+        writer.write('\n');
+        writer.flush();
+    }
+
+    public void export(long timestamp, long[] values) throws IOException {
+        line.setLength(0);
+        line.append(timestamp);
+        for (long value : values) {
+            line.append(';').append(value);
+        }
+        line.append('\n');
+
+        if (buffer.length < line.length()) {
+            buffer = new char[line.length() * 2];
+        }
+        line.getChars(0, line.length(), buffer, 0);
+        writer.write(buffer, 0, line.length());
+    }
+
+    public void close() throws IOException {
+        writer.close();
+    }
+
+    public String toString() {
+        return "csv " + file;
+    }
+
+}
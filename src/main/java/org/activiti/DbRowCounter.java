@@ -0,0 +1,106 @@
+package org.activiti;
+
+import org.activiti.engine.impl.cfg.ProcessEngineConfigurationImpl;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the rows the engine inserts, updates and deletes per entity type, by hooking into the flush of the DbSqlSession
+ * (see {@link BenchmarkDbSqlSessionFactory}). With async history, the historic rows are counted when the writer flushes them.
+ * Rows of transactions that roll back afterwards are counted too. Bulk deletes (one statement for many rows) are not.
+ */
+public class DbRowCounter {
+
+    private final ConcurrentHashMap<String, EntityRows> entityRows = new ConcurrentHashMap<String, EntityRows>();
+
+    public void register(ProcessEngineConfigurationImpl processEngineConfiguration) {
+        BenchmarkDbSqlSessionFactory.register(processEngineConfiguration).setDbRowCounter(this);
+    }
+
+    void countInserts(Class<?> entityClass, int rows) {
+        getEntityRows(entityClass).inserts.add(rows);
+    }
+
+    void countUpdates(Class<?> entityClass, int rows) {
+        getEntityRows(entityClass).updates.add(rows);
+    }
+
+    void countDeletes(Class<?> entityClass, int rows) {
+        getEntityRows(entityClass).deletes.add(rows);
+    }
+
+    public long getInserts() {
+        long inserts = 0L;
+        for (EntityRows rows : entityRows.values()) {
+            inserts += rows.inserts.sum();
+        }
+        return inserts;
+    }
+
+    public long getRowsWritten() {
+        long rowsWritten = 0L;
+        for (EntityRows rows : entityRows.values()) {
+            rowsWritten += rows.inserts.sum() + rows.updates.sum() + rows.deletes.sum();
+        }
+        return rowsWritten;
+    }
+
+    /**
+     * @param entity the entity type as shown in the report, eg. ByteArray
+     */
+    public long getRowsWritten(String entity) {
+        EntityRows rows = entityRows.get(entity);
+        return rows != null ? rows.inserts.sum() + rows.updates.sum() + rows.deletes.sum() : 0L;
+    }
+
+    public void reset() {
+        entityRows.clear();
+    }
+
+    /**
+     * @param nrOfJobs the rows are also shown per job when > 0
+     */
+    public void printReport(PrintStream out, long nrOfJobs) {
+        List<String> entities = new ArrayList<String>(entityRows.keySet());
+        Collections.sort(entities);
+
+        out.println();
+        out.println("DB rows written" + (nrOfJobs > 0 ? " (" + nrOfJobs + " jobs)" : ""));
+        out.println(String.format("%-40s %10s %10s %10s %12s", "entity", "inserts", "updates", "deletes", "rows / job"));
+        for (String entity : entities) {
+            EntityRows rows = entityRows.get(entity);
+            long total = rows.inserts.sum() + rows.updates.sum() + rows.deletes.sum();
+            out.println(String.format("%-40s %10d %10d %10d %12.2f", entity, rows.inserts.sum(), rows.updates.sum(), rows.deletes.sum(),
+                    nrOfJobs > 0 ? (double) total / nrOfJobs : 0.0));
+        }
+        long rowsWritten = getRowsWritten();
+        out.println(String.format("%-40s %10s %10s %10s %12.2f", "<all>", "", "", "", nrOfJobs > 0 ? (double) rowsWritten / nrOfJobs : 0.0));
+        out.println();
+    }
+
+    private EntityRows getEntityRows(Class<?> entityClass) {
+        String entity = entityClass.getSimpleName().replace("EntityImpl", "");
+        EntityRows rows = entityRows.get(entity);
+        if (rows == null) {
+            rows = new EntityRows();
+            EntityRows existing = entityRows.putIfAbsent(entity, rows);
+            if (existing != null) {
+                rows = existing;
+            }
+        }
+        return rows;
+    }
+
+    private static class EntityRows {
+
+        final LongAdder inserts = new LongAdder();
+        final LongAdder updates = new LongAdder();
+        final LongAdder deletes = new LongAdder();
+    }
+
+}
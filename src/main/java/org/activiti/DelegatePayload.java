@@ -0,0 +1,178 @@
+package org.activiti;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.activiti.engine.delegate.DelegateExecution;
+import org.activiti.engine.impl.context.Context;
+
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.CRC32;
+
+/**
+ * The payload and the work of the RandomDelegate service tasks, to make the jobs look like real ones. Every execution
+ * reads the document process variable, changes it and writes it back, the way selected with payload-type:
+ *
+ * none  : no document (default)
+ * java  : a Serializable object, written Java-serialized to the byte array table
+ * json  : a Jackson ObjectNode, written as JSON text by the ObjectMapper of the engine (the objectMapper bean in the
+ *         message modes). Above 4000 characters it goes to the byte array table.
+ * bytes : a byte[], a new random one every execution
+ *
+ * payload-size sets the size of the document in bytes (default 10240, approximately for java and json).
+ * delegate-work adds cpu (hashing) or sleep (waiting on I/O) work of delegate-work-ms to every execution.
+ */
+public class DelegatePayload {
+
+    public static final String PAYLOAD_NONE = "none";
+    public static final String PAYLOAD_JAVA = "java";
+    public static final String PAYLOAD_JSON = "json";
+    public static final String PAYLOAD_BYTES = "bytes";
+
+    public static final String WORK_NONE = "none";
+    public static final String WORK_CPU = "cpu";
+    public static final String WORK_SLEEP = "sleep";
+
+    public static final String VARIABLE_NAME = "document";
+
+    private static final int FIELD_SIZE = 100;
+
+    private static volatile String payloadType = PAYLOAD_NONE;
+    private static volatile int payloadSize = 10240;
+    private static volatile String work = WORK_NONE;
+    private static volatile long workMs;
+
+    public static void configure(Properties properties) {
+        configure(properties.getProperty("payload-type"), BenchmarkRun.getInt(properties, "payload-size", 10240),
+                properties.getProperty("delegate-work"), BenchmarkRun.getInt(properties, "delegate-work-ms", 0));
+    }
+
+    public static void configure(String payloadType, int payloadSize, String work, long workMs) {
+        payloadType = payloadType != null && !"".equals(payloadType) ? payloadType : PAYLOAD_NONE;
+        work = work != null && !"".equals(work) ? work : WORK_NONE;
+        if (!PAYLOAD_NONE.equals(payloadType) && !PAYLOAD_JAVA.equals(payloadType)
+                && !PAYLOAD_JSON.equals(payloadType) && !PAYLOAD_BYTES.equals(payloadType)) {
+            throw new RuntimeException("Unknown payload-type " + payloadType + ", use " + PAYLOAD_NONE + ", " + PAYLOAD_JAVA
+                    + ", " + PAYLOAD_JSON + " or " + PAYLOAD_BYTES);
+        }
+        if (!WORK_NONE.equals(work) && !WORK_CPU.equals(work) && !WORK_SLEEP.equals(work)) {
+            throw new RuntimeException("Unknown delegate-work " + work + ", use " + WORK_NONE + ", " + WORK_CPU + " or " + WORK_SLEEP);
+        }
+        DelegatePayload.payloadType = payloadType;
+        DelegatePayload.payloadSize = Math.max(payloadSize, 1);
+        DelegatePayload.work = work;
+        DelegatePayload.workMs = Math.max(workMs, 0L);
+    }
+
+    public static boolean isEnabled() {
+        return !PAYLOAD_NONE.equals(payloadType) || !WORK_NONE.equals(work);
+    }
+
+    public static String getDescription() {
+        return (PAYLOAD_NONE.equals(payloadType) ? "no payload" : payloadType + " payload of " + payloadSize + " bytes")
+                + (WORK_NONE.equals(work) ? "" : ", " + work + " work of " + workMs + " ms");
+    }
+
+    public static void execute(DelegateExecution delegateExecution) {
+        String payloadType = DelegatePayload.payloadType;
+        if (PAYLOAD_JAVA.equals(payloadType)) {
+            Document document = (Document) delegateExecution.getVariable(VARIABLE_NAME);
+            if (document == null) {
+                document = new Document(payloadSize);
+            } else {
+                // A new object, so the write doesn't depend on serializable-track-deserialized-objects
+                document = document.update();
+            }
+            delegateExecution.setVariable(VARIABLE_NAME, document);
+
+        } else if (PAYLOAD_JSON.equals(payloadType)) {
+            ObjectNode document = (ObjectNode) delegateExecution.getVariable(VARIABLE_NAME);
+            if (document == null) {
+                document = Context.getProcessEngineConfiguration().getObjectMapper().createObjectNode();
+                for (int i = 0; i < Math.max(payloadSize / FIELD_SIZE, 1); i++) {
+                    document.put("field" + i, randomText(FIELD_SIZE - 12));
+                }
+                document.put("updates", 0);
+            } else {
+                document.put("updates", document.path("updates").asInt() + 1);
+                document.put("field" + ThreadLocalRandom.current().nextInt(Math.max(payloadSize / FIELD_SIZE, 1)), randomText(FIELD_SIZE - 12));
+            }
+            delegateExecution.setVariable(VARIABLE_NAME, document);
+
+        } else if (PAYLOAD_BYTES.equals(payloadType)) {
+            delegateExecution.getVariable(VARIABLE_NAME);
+            byte[] document = new byte[payloadSize];
+            ThreadLocalRandom.current().nextBytes(document);
+            delegateExecution.setVariable(VARIABLE_NAME, document);
+        }
+
+        if (WORK_CPU.equals(work)) {
+            burnCpu(workMs);
+        } else if (WORK_SLEEP.equals(work) && workMs > 0L) {
+            try {
+                Thread.sleep(workMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static long burnCpu(long ms) {
+        byte[] buffer = new byte[4096];
+        ThreadLocalRandom.current().nextBytes(buffer);
+        CRC32 crc = new CRC32();
+        long end = System.nanoTime() + ms * 1000000L;
+        do {
+            crc.update(buffer, 0, buffer.length);
+            buffer[(int) (crc.getValue() & 4095)]++;
+        } while (System.nanoTime() < end);
+        return crc.getValue();
+    }
+
+    private static String randomText(int length) {
+        Random random = ThreadLocalRandom.current();
+        char[] text = new char[length];
+        for (int i = 0; i < length; i++) {
+            text[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(text);
+    }
+
+    /**
+     * The java payload, fields of about 100 bytes each when serialized.
+     */
+    public static class Document implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Map<String, String> fields;
+        private final int updates;
+
+        Document(int size) {
+            this.fields = new LinkedHashMap<String, String>();
+            for (int i = 0; i < Math.max(size / FIELD_SIZE, 1); i++) {
+                fields.put("field" + i, randomText(FIELD_SIZE - 12));
+            }
+            this.updates = 0;
+        }
+
+        private Document(Map<String, String> fields, int updates) {
+            this.fields = fields;
+            this.updates = updates;
+        }
+
+        Document update() {
+            Map<String, String> updatedFields = new LinkedHashMap<String, String>(fields);
+            updatedFields.put("field" + ThreadLocalRandom.current().nextInt(Math.max(fields.size(), 1)), randomText(FIELD_SIZE - 12));
+            return new Document(updatedFields, updates + 1);
+        }
+
+        public int getUpdates() {
+            return updates;
+        }
+    }
+
+}
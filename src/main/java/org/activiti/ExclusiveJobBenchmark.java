@@ -0,0 +1,127 @@
+package org.activiti;
+
+import org.HdrHistogram.Histogram;
+import org.activiti.engine.ProcessEngine;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Compares the exclusive jobs without and with the {@link ExclusiveJobScheduler} (mode=exclusive), with the async
+ * executor or the message executor (exclusive-executor=message-executor) in this JVM. Both runs get a fresh producer
+ * and executor on a clean database, start nr-process-instances instances of a workload with exclusive jobs and wait
+ * for them to complete. Use a generated workload (eg. workload=fan-out): workload-exclusive=true (default) makes all
+ * its jobs exclusive, the async-process is deployed as it is and has non-exclusive jobs. The process instance lock
+ * conflicts, optimistic locking failures and retries of both runs go to exclusive-results.csv. Before them, the run
+ * without the scheduler is done benchmark-warmup-runs (default 1) times to warm up the JVM, those results are discarded.
+ */
+public class ExclusiveJobBenchmark {
+
+    private final Properties properties;
+    private final boolean messageExecutor;
+
+    public ExclusiveJobBenchmark(Properties properties) {
+        this.properties = properties;
+        this.messageExecutor = "message-executor".equals(properties.getProperty("exclusive-executor"));
+    }
+
+    public void run() throws Exception {
+        System.out.println("Comparing exclusive jobs without and with the exclusive job scheduler"
+                + (messageExecutor ? " (message executor)" : " (async executor)") + ", workload " + Main.workload.getShape());
+
+        int warmupRuns = BenchmarkRun.getInt(properties, "benchmark-warmup-runs", 1);
+        for (int i = 0; i < warmupRuns; i++) {
+            System.out.println();
+            System.out.println("Warm-up run " + (i + 1) + "/" + warmupRuns + " : without the exclusive job scheduler, result discarded");
+            runPoint(i, false);
+        }
+
+        List<ExclusiveResult> results = new ArrayList<ExclusiveResult>();
+        for (boolean scheduler : new boolean[] { false, true }) {
+            System.out.println();
+            System.out.println("Exclusive run " + (scheduler ? "2/2 : with" : "1/2 : without") + " the exclusive job scheduler");
+            ExclusiveResult result = runPoint(warmupRuns + results.size(), scheduler);
+            System.out.println(result);
+            results.add(result);
+        }
+
+        ExclusiveResult without = results.get(0);
+        ExclusiveResult with = results.get(1);
+        BenchmarkResults.print("Exclusive results", results, null);
+        System.out.println(String.format("Exclusive job scheduler : lock conflicts %d -> %d, retries %d -> %d, throughput %+.1f%%, p99 job latency %+.1f%%",
+                without.lockConflicts, with.lockConflicts, without.retries, with.retries,
+                100.0 * (with.jobsPerSecond / without.jobsPerSecond - 1.0), 100.0 * (with.p99LatencyMs / without.p99LatencyMs - 1.0)));
+        writeCsv(results, new File("exclusive-results.csv"));
+        System.out.println("Exclusive results written to exclusive-results.csv");
+    }
+
+    protected ExclusiveResult runPoint(int index, boolean scheduler) throws Exception {
+        BenchmarkRun run = new BenchmarkRun(properties, "exclusive", index);
+        try {
+            int nrOfProcessInstances = Integer.valueOf(properties.getProperty("nr-process-instances", "1000"));
+            Main.eventListener = new BenchmarkEventListener(nrOfProcessInstances);
+            Main.jobLatencyRecorder = new JobLatencyRecorder();
+            Main.exclusiveJobScheduler = scheduler ? Main.createExclusiveJobScheduler() : null;
+
+            ProcessEngine producerEngine = run.startEngines(messageExecutor);
+            run.startProcessInstances(producerEngine, nrOfProcessInstances);
+
+            if (!run.awaitCompletion("exclusive-timeout-seconds", 1800)) {
+                System.out.println("Run " + (scheduler ? "with" : "without") + " scheduler didn't complete in time, "
+                        + Main.eventListener.getCompletedProcessInstances() + " process instances completed");
+            }
+
+            ExclusiveResult result = new ExclusiveResult();
+            result.scheduler = scheduler;
+            result.executedJobs = Main.eventListener.getExecutedJobs();
+            long duration = Main.eventListener.getLastCompletionTime() - Main.eventListener.getFirstEventTime();
+            result.jobsPerSecond = 1000.0 * result.executedJobs / Math.max(duration, 1L);
+            Histogram latency = Main.jobLatencyRecorder.getTotalHistogram().getTotalCount() > 0
+                    ? Main.jobLatencyRecorder.getTotalHistogram().copy() : Main.jobLatencyRecorder.getExecutionHistogram().copy();
+            result.p99LatencyMs = latency.getValueAtPercentile(99.0) / 1000.0;
+            result.lockConflicts = Main.jobLatencyRecorder.getLockConflicts();
+            result.optimisticLockFailures = Main.jobLatencyRecorder.getOptimisticLockFailures();
+            result.retries = Main.jobLatencyRecorder.getRetries();
+            if (Main.exclusiveJobScheduler != null) {
+                Main.exclusiveJobScheduler.printReport(System.out);
+                result.queuedJobs = Main.exclusiveJobScheduler.getQueuedJobs();
+                Main.exclusiveJobScheduler = null;
+            }
+            return result;
+        } finally {
+            run.close();
+        }
+    }
+
+    protected void writeCsv(List<ExclusiveResult> results, File file) throws IOException {
+        String header = "scheduler;executedJobs;jobsPerSecond;p99LatencyMs;lockConflicts;optimisticLockFailures;retries;queuedJobs";
+        BenchmarkResults.writeCsv(file, header, results, new BenchmarkResults.CsvRow<ExclusiveResult>() {
+            public Object[] getValues(ExclusiveResult result) {
+                return new Object[] { result.scheduler, result.executedJobs, result.jobsPerSecond, result.p99LatencyMs,
+                        result.lockConflicts, result.optimisticLockFailures, result.retries, result.queuedJobs };
+            }
+        });
+    }
+
+    public static class ExclusiveResult {
+
+        public boolean scheduler;
+        public long executedJobs;
+        public double jobsPerSecond;
+        public double p99LatencyMs;
+        public long lockConflicts;
+        public long optimisticLockFailures;
+        public long retries;
+        public long queuedJobs;
+
+        public String toString() {
+            return String.format("%-17s : %d jobs, %.1f jobs/s, p99 job latency %.1f ms, %d lock conflicts, %d optimistic locking failures, %d retries, %d jobs queued in this JVM",
+                    scheduler ? "with scheduler" : "without scheduler", executedJobs, jobsPerSecond, p99LatencyMs,
+                    lockConflicts, optimisticLockFailures, retries, queuedJobs);
+        }
+    }
+
+}
@@ -0,0 +1,181 @@
+package org.activiti;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.activiti.engine.impl.asyncexecutor.ExecuteAsyncRunnable;
+import org.activiti.engine.impl.asyncexecutor.ExecuteAsyncRunnableFactory;
+import org.activiti.engine.impl.cfg.ProcessEngineConfigurationImpl;
+import org.activiti.engine.runtime.Job;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs the exclusive jobs of a process instance one after another within this JVM (exclusive-job-scheduler=true),
+ * so they don't fail on the process instance lock of each other: a job that can't lock its process instance is
+ * unacquired and picked up again later, which costs a commit, a new job row (or message) and the acquisition delay.
+ *
+ * A thread that gets an exclusive job while another job of the same process instance runs in this JVM queues it
+ * behind that job and returns: the running thread executes the queued jobs of its process instance before it is
+ * released. Jobs of different process instances and non exclusive jobs run in parallel as before. The running
+ * process instances are kept in exclusive-job-scheduler-stripes (default 64) maps, each with its own lock.
+ * The process instance lock in the database stays, it keeps the executors of other JVMs out.
+ *
+ * In the message executor the job messages carry the process instance of exclusive jobs in the
+ * {@link #EXCLUSIVE_GROUP_PROPERTY} (see {@link BatchingMessageBasedJobManager}). A queued job message is
+ * acknowledged when its listener returns, before the job is executed, so a failed queued job isn't redelivered: the
+ * message executor refuses to start the scheduler with jms-acknowledge=transacted or client.
+ */
+public class ExclusiveJobScheduler {
+
+    private static Logger logger = LoggerFactory.getLogger(ExclusiveJobScheduler.class);
+
+    /** String property of job messages, the process instance of an exclusive job */
+    public static final String EXCLUSIVE_GROUP_PROPERTY = "exclusiveGroup";
+
+    private final Stripe[] stripes;
+
+    private final LongAdder exclusiveJobs = new LongAdder();
+    private final LongAdder queuedJobs = new LongAdder();
+    private final LongAccumulator longestQueue = new LongAccumulator(Math::max, 0L);
+    private final Histogram queueWait = new ConcurrentHistogram(3);
+
+    public ExclusiveJobScheduler(int nrOfStripes) {
+        this.stripes = new Stripe[Math.max(nrOfStripes, 1)];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * @param executeAsyncRunnableFactory the factory to wrap, or null for the engine's ExecuteAsyncRunnable
+     */
+    public ExecuteAsyncRunnableFactory wrap(final ExecuteAsyncRunnableFactory executeAsyncRunnableFactory) {
+        return new ExecuteAsyncRunnableFactory() {
+            public Runnable createExecuteAsyncRunnable(final Job job, ProcessEngineConfigurationImpl processEngineConfiguration) {
+                final Runnable runnable = executeAsyncRunnableFactory != null
+                        ? executeAsyncRunnableFactory.createExecuteAsyncRunnable(job, processEngineConfiguration)
+                        : new ExecuteAsyncRunnable(job, processEngineConfiguration);
+                if (!job.isExclusive() || job.getProcessInstanceId() == null) {
+                    return runnable;
+                }
+                return new Runnable() {
+                    public void run() {
+                        execute(job.getProcessInstanceId(), runnable);
+                    }
+                };
+            }
+        };
+    }
+
+    public MessageListener wrap(final MessageListener messageListener) {
+        return new MessageListener() {
+            public void onMessage(final Message message) {
+                String exclusiveGroup = null;
+                try {
+                    exclusiveGroup = message.getStringProperty(EXCLUSIVE_GROUP_PROPERTY);
+                } catch (JMSException e) {
+                    logger.warn("Could not read the exclusive group of a job message", e);
+                }
+                if (exclusiveGroup == null) {
+                    messageListener.onMessage(message);
+                    return;
+                }
+                execute(exclusiveGroup, new Runnable() {
+                    public void run() {
+                        messageListener.onMessage(message);
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Runs the job on the current thread, or queues it when a job of the same process instance runs.
+     */
+    public void execute(String processInstanceId, Runnable jobRunnable) {
+        exclusiveJobs.increment();
+        Stripe stripe = stripes[(processInstanceId.hashCode() & 0x7fffffff) % stripes.length];
+        synchronized (stripe) {
+            ArrayDeque<QueuedJob> queue = stripe.runningProcessInstances.get(processInstanceId);
+            if (queue != null) {
+                queue.add(new QueuedJob(jobRunnable));
+                queuedJobs.increment();
+                longestQueue.accumulate(queue.size());
+                return;
+            }
+            stripe.runningProcessInstances.put(processInstanceId, new ArrayDeque<QueuedJob>());
+        }
+
+        Runnable next = jobRunnable;
+        while (next != null) {
+            try {
+                next.run();
+            } catch (RuntimeException e) {
+                // The queued jobs of the process instance must still run
+                logger.error("Error while executing exclusive job of process instance " + processInstanceId, e);
+            }
+            synchronized (stripe) {
+                QueuedJob queuedJob = stripe.runningProcessInstances.get(processInstanceId).poll();
+                if (queuedJob == null) {
+                    stripe.runningProcessInstances.remove(processInstanceId);
+                    next = null;
+                } else {
+                    queueWait.recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - queuedJob.queuedAt));
+                    next = queuedJob.runnable;
+                }
+            }
+        }
+    }
+
+    public long getExclusiveJobs() {
+        return exclusiveJobs.sum();
+    }
+
+    public long getQueuedJobs() {
+        return queuedJobs.sum();
+    }
+
+    public void reset() {
+        exclusiveJobs.reset();
+        queuedJobs.reset();
+        longestQueue.reset();
+        queueWait.reset();
+    }
+
+    public void printReport(PrintStream out) {
+        Histogram wait = queueWait.copy();
+        out.println();
+        out.println(String.format("Exclusive job scheduler (%d stripes) : %d exclusive jobs, %d queued behind a job of the same process instance (longest queue %d)",
+                stripes.length, exclusiveJobs.sum(), queuedJobs.sum(), longestQueue.get()));
+        out.println(String.format("Wait behind the same process instance (ms) : p50=%.3f p90=%.3f p99=%.3f max=%.3f",
+                wait.getValueAtPercentile(50.0) / 1000.0, wait.getValueAtPercentile(90.0) / 1000.0,
+                wait.getValueAtPercentile(99.0) / 1000.0, wait.getMaxValue() / 1000.0));
+    }
+
+    private static class Stripe {
+
+        final Map<String, ArrayDeque<QueuedJob>> runningProcessInstances = new HashMap<String, ArrayDeque<QueuedJob>>();
+    }
+
+    private static class QueuedJob {
+
+        final Runnable runnable;
+        final long queuedAt = System.nanoTime();
+
+        QueuedJob(Runnable runnable) {
+            this.runnable = runnable;
+        }
+    }
+
+}
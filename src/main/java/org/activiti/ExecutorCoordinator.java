@@ -0,0 +1,303 @@
+package org.activiti;
+
+import org.HdrHistogram.Histogram;
+import org.activiti.engine.ProcessEngine;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how the executors scale horizontally: for every node count of coordinator-nodes (eg. 1,2,4), that many
+ * executor JVMs are started on this machine (mode coordinator-executor-mode, executor or message-executor),
+ * all on the database (and broker) of the coordinator.
+ *
+ * Once all nodes reported ready through their {@link CoordinatorAgent}, the coordinator starts nr-process-instances
+ * instances, waits until they are all finished and collects the job counts, lock failures and latency histograms
+ * of every node. Per run the per node numbers and the imbalance between the nodes are printed, at the end a scaling
+ * report over all runs. The output of the nodes goes to node-[nodes]-[node id].log.
+ */
+public class ExecutorCoordinator {
+
+    private final Properties properties;
+    private final String executorMode;
+
+    public ExecutorCoordinator(Properties properties) {
+        this.properties = properties;
+        this.executorMode = properties.getProperty("coordinator-executor-mode", "executor");
+    }
+
+    public void run() throws Exception {
+        List<Integer> nodeCounts = new ArrayList<Integer>();
+        for (String nodeCount : properties.getProperty("coordinator-nodes", "1,2,4").split(",")) {
+            nodeCounts.add(Integer.valueOf(nodeCount.trim()));
+        }
+
+        ProcessEngine processEngine;
+        if ("message-executor".equals(executorMode)) {
+            processEngine = new AnnotationConfigApplicationContext(MyConfigMessageProducer.class).getBean(ProcessEngine.class);
+        } else {
+            processEngine = Main.createProcessEngine(false);
+        }
+        Main.workload.deploy(processEngine.getRepositoryService());
+
+        ServerSocket serverSocket = new ServerSocket(BenchmarkRun.getInt(properties, "coordinator-port", 0));
+        System.out.println("Coordinator listening on port " + serverSocket.getLocalPort() + ", runs with " + nodeCounts + " " + executorMode + " nodes");
+
+        List<RunResult> runResults = new ArrayList<RunResult>();
+        try {
+            for (int nodeCount : nodeCounts) {
+                RunResult runResult = runNodes(nodeCount, serverSocket, processEngine);
+                runResult.print();
+                runResults.add(runResult);
+            }
+        } finally {
+            serverSocket.close();
+        }
+
+        printScalingReport(runResults);
+    }
+
+    protected RunResult runNodes(int nodeCount, ServerSocket serverSocket, ProcessEngine processEngine) throws Exception {
+        System.out.println();
+        System.out.println("Starting " + nodeCount + " " + executorMode + " node(s)");
+
+        List<Process> processes = new ArrayList<Process>();
+        List<NodeConnection> nodeConnections = new ArrayList<NodeConnection>();
+        RunResult runResult = new RunResult(nodeCount);
+        try {
+            for (int i = 1; i <= nodeCount; i++) {
+                processes.add(startNode(nodeCount, i, serverSocket.getLocalPort()));
+            }
+
+            serverSocket.setSoTimeout((int) TimeUnit.SECONDS.toMillis(BenchmarkRun.getInt(properties, "coordinator-start-timeout-seconds", 120)));
+            for (int i = 0; i < nodeCount; i++) {
+                NodeConnection nodeConnection = new NodeConnection(serverSocket.accept());
+                nodeConnections.add(nodeConnection);
+                System.out.println(nodeConnection.in.readLine());
+            }
+
+            // All nodes are polling (or listening) now, the run starts with the first process instance
+            int nrOfProcessInstances = BenchmarkRun.getInt(properties, "nr-process-instances", 1000);
+            long start = System.currentTimeMillis();
+            startProcessInstances(processEngine, nrOfProcessInstances);
+
+            long timeout = start + TimeUnit.SECONDS.toMillis(BenchmarkRun.getInt(properties, "coordinator-run-timeout-seconds", 3600));
+            long pollInterval = BenchmarkRun.getInt(properties, "completion-poll-interval", 250);
+            // The instances of the previous run are all finished, so done when none are left (works for every history level)
+            while (processEngine.getRuntimeService().createProcessInstanceQuery().count() > 0) {
+                if (System.currentTimeMillis() > timeout) {
+                    throw new RuntimeException("Process instances not finished after coordinator-run-timeout-seconds");
+                }
+                Thread.sleep(pollInterval);
+            }
+            runResult.seconds = (System.currentTimeMillis() - start) / 1000.0;
+
+            for (NodeConnection nodeConnection : nodeConnections) {
+                nodeConnection.out.println(CoordinatorAgent.REPORT);
+                runResult.addNode(NodeResult.parse(nodeConnection.in.readLine()));
+            }
+
+        } finally {
+            for (NodeConnection nodeConnection : nodeConnections) {
+                try {
+                    nodeConnection.out.println(CoordinatorAgent.STOP);
+                    nodeConnection.socket.close();
+                } catch (IOException e) {
+                    // node already gone
+                }
+            }
+            for (Process process : processes) {
+                if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                    process.destroyForcibly();
+                }
+            }
+        }
+        return runResult;
+    }
+
+    protected Process startNode(int nodeCount, int nodeId, int coordinatorPort) throws IOException {
+        List<String> command = new ArrayList<String>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        // Same heap and JVM flags as the coordinator
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Main.class.getName());
+
+        command.add("mode=" + executorMode);
+        command.add("node-id=" + nodeId);
+        command.add("coordinator-address=localhost:" + coordinatorPort);
+        command.add("nr-process-instances=0");
+        command.add("expected-process-instances=0");
+        command.add("display-stats=false");
+        command.add("metrics-exporters=");
+        command.add("h2-tcp-port=");
+        for (String key : new String[] { "jdbc-url", "jdbc-driver", "jdbc-username", "jdbc-password", "queue" }) {
+            command.add(key + "=" + properties.getProperty(key, ""));
+        }
+        String brokerConnector = properties.getProperty("broker-connector");
+        if (brokerConnector != null && !"".equals(brokerConnector)) {
+            command.add("broker-url=" + brokerConnector);
+        }
+
+        File logFile = new File("node-" + nodeCount + "-" + nodeId + ".log");
+        return new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(logFile).start();
+    }
+
+    protected void startProcessInstances(final ProcessEngine processEngine, int nrOfProcessInstances) throws InterruptedException {
+        ExecutorService executorService = Executors.newFixedThreadPool(BenchmarkRun.getInt(properties, "start-process-instance-threads", 10));
+        for (int i = 0; i < nrOfProcessInstances; i++) {
+            executorService.submit(new Runnable() {
+                public void run() {
+                    Main.startProcessInstance(processEngine);
+                }
+            });
+        }
+        executorService.shutdown();
+        executorService.awaitTermination(1, TimeUnit.HOURS);
+    }
+
+    protected void printScalingReport(List<RunResult> runResults) {
+        System.out.println();
+        System.out.println("Scaling report (" + executorMode + ")");
+        System.out.println(String.format("%6s %12s %9s %11s %10s %14s %16s %14s",
+                "nodes", "jobs/s", "speedup", "efficiency", "imbalance", "lock failures", "p99 exec (ms)", "p99 total (ms)"));
+        double baseline = 0.0;
+        int baselineNodes = 0;
+        for (RunResult runResult : runResults) {
+            if (baseline == 0.0) {
+                baseline = runResult.getJobsPerSecond();
+                baselineNodes = runResult.nodeCount;
+            }
+            double speedup = runResult.getJobsPerSecond() / baseline;
+            double efficiency = speedup / ((double) runResult.nodeCount / baselineNodes);
+            System.out.println(String.format("%6d %12.1f %9.2f %10.0f%% %10.2f %14d %16.3f %14.3f",
+                    runResult.nodeCount, runResult.getJobsPerSecond(), speedup, 100.0 * efficiency, runResult.getImbalance(),
+                    runResult.getOptimisticLockFailures(), getP99(runResult.executionLatency), getP99(runResult.totalLatency)));
+        }
+        System.out.println();
+    }
+
+    private static double getP99(Histogram histogram) {
+        return histogram.getTotalCount() > 0 ? histogram.getValueAtPercentile(99.0) / 1000.0 : 0.0;
+    }
+
+    protected static class NodeConnection {
+
+        final Socket socket;
+        final BufferedReader in;
+        final PrintWriter out;
+
+        NodeConnection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            this.out = new PrintWriter(socket.getOutputStream(), true);
+        }
+    }
+
+    public static class NodeResult {
+
+        String nodeId;
+        long executedJobs;
+        long failedJobs;
+        long optimisticLockFailures;
+        Histogram totalLatency;
+        Histogram executionLatency;
+
+        static NodeResult parse(String line) throws Exception {
+            String[] parts = line.split(" ");
+            if (parts.length != 7 || !CoordinatorAgent.RESULT.equals(parts[0])) {
+                throw new RuntimeException("Unexpected node result " + line);
+            }
+            NodeResult nodeResult = new NodeResult();
+            nodeResult.nodeId = parts[1];
+            nodeResult.executedJobs = Long.valueOf(parts[2]);
+            nodeResult.failedJobs = Long.valueOf(parts[3]);
+            nodeResult.optimisticLockFailures = Long.valueOf(parts[4]);
+            nodeResult.totalLatency = CoordinatorAgent.decode(parts[5]);
+            nodeResult.executionLatency = CoordinatorAgent.decode(parts[6]);
+            return nodeResult;
+        }
+    }
+
+    public static class RunResult {
+
+        final int nodeCount;
+        final List<NodeResult> nodes = new ArrayList<NodeResult>();
+        final Histogram totalLatency = new Histogram(3);
+        final Histogram executionLatency = new Histogram(3);
+        double seconds;
+
+        RunResult(int nodeCount) {
+            this.nodeCount = nodeCount;
+        }
+
+        void addNode(NodeResult nodeResult) {
+            nodes.add(nodeResult);
+            if (nodeResult.totalLatency != null) {
+                totalLatency.add(nodeResult.totalLatency);
+            }
+            if (nodeResult.executionLatency != null) {
+                executionLatency.add(nodeResult.executionLatency);
+            }
+        }
+
+        long getExecutedJobs() {
+            long executedJobs = 0L;
+            for (NodeResult node : nodes) {
+                executedJobs += node.executedJobs;
+            }
+            return executedJobs;
+        }
+
+        long getOptimisticLockFailures() {
+            long optimisticLockFailures = 0L;
+            for (NodeResult node : nodes) {
+                optimisticLockFailures += node.optimisticLockFailures;
+            }
+            return optimisticLockFailures;
+        }
+
+        double getJobsPerSecond() {
+            return getExecutedJobs() / seconds;
+        }
+
+        /**
+         * @return jobs of the busiest node / jobs of the least busy node, 1.0 is a perfect balance
+         */
+        double getImbalance() {
+            long min = Long.MAX_VALUE;
+            long max = 0L;
+            for (NodeResult node : nodes) {
+                min = Math.min(min, node.executedJobs);
+                max = Math.max(max, node.executedJobs);
+            }
+            return min > 0 ? (double) max / min : Double.POSITIVE_INFINITY;
+        }
+
+        void print() {
+            System.out.println(String.format("%d node(s) : %d jobs in %.1f s = %.1f jobs / second, imbalance (max / min jobs per node) %.2f",
+                    nodeCount, getExecutedJobs(), seconds, getJobsPerSecond(), getImbalance()));
+            for (NodeResult node : nodes) {
+                System.out.println(String.format("  node %-4s %8d jobs (%5.1f%%) %10.1f jobs / second, %d failed, %d optimistic lock failures, p99 execution %.3f ms",
+                        node.nodeId, node.executedJobs, 100.0 * node.executedJobs / Math.max(getExecutedJobs(), 1L), node.executedJobs / seconds,
+                        node.failedJobs, node.optimisticLockFailures, node.executionLatency != null ? getP99(node.executionLatency) : 0.0));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,310 @@
+package org.activiti;
+
+import org.HdrHistogram.Histogram;
+import org.activiti.engine.impl.asyncexecutor.DefaultAsyncJobExecutor;
+import org.springframework.jms.listener.DefaultMessageListenerContainer;
+
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adapts the nr of job threads of the async executors (core and max pool size) and the JMS concurrent-consumers of
+ * the message executors while the benchmark runs (pool-controller=true). Every pool-controller-interval ms it looks at
+ *
+ * - the backlog: jobs waiting in the executor queue, or in the JMS queue when the broker runs in this JVM
+ * - the p99 queue wait and execution time of the jobs of the last interval (when job latencies are recorded)
+ * - the threads waiting for a connection of the connection pool of the executor, and the p99 connection wait of the
+ *   last interval
+ *
+ * Threads waiting for a connection, or an execution p99 above pool-controller-latency-factor times the lowest one
+ * seen so far together with a connection wait p99 above pool-controller-connection-wait-ms (default 5), mean the
+ * database is saturated and more threads only add contention: the size drops by a quarter. A slower execution alone
+ * (eg. a longer delegate) isn't a reason to shrink.
+ * Otherwise a backlog larger than the size, or a queue wait p99 above pool-controller-queue-wait-ms, adds
+ * pool-controller-step threads (doubles the size when the backlog is more than twice the size), and a pool that was
+ * less than half busy for pool-controller-idle-intervals intervals in a row gives back one step.
+ * The size stays between pool-controller-min-threads and pool-controller-max-threads (default connections-max).
+ */
+public class ExecutorPoolController {
+
+    // Fewer jobs in an interval don't give a meaningful p99
+    private static final int MIN_SAMPLES = 20;
+
+    private final long interval;
+    private final int minThreads;
+    private final int maxThreads;
+    private final int step;
+    private final double latencyFactor;
+    private final long queueWaitTarget; // micros
+    private final long connectionWaitTarget; // micros
+    private final int idleIntervals;
+
+    private final List<Target> targets = new CopyOnWriteArrayList<Target>();
+    private ScheduledExecutorService scheduler;
+
+    private Histogram previousQueueWait;
+    private Histogram previousExecution;
+    private long lowestExecutionP99 = Long.MAX_VALUE;
+
+    public ExecutorPoolController(Properties properties) {
+        this.interval = BenchmarkRun.getLong(properties, "pool-controller-interval", 1000L);
+        this.minThreads = BenchmarkRun.getInt(properties, "pool-controller-min-threads", 2);
+        this.maxThreads = BenchmarkRun.getInt(properties, "pool-controller-max-threads", BenchmarkRun.getInt(properties, "connections-max", 100));
+        this.step = BenchmarkRun.getInt(properties, "pool-controller-step", 2);
+        this.latencyFactor = Double.valueOf(properties.getProperty("pool-controller-latency-factor", "4.0"));
+        this.queueWaitTarget = TimeUnit.MILLISECONDS.toMicros(BenchmarkRun.getLong(properties, "pool-controller-queue-wait-ms", 100L));
+        this.connectionWaitTarget = TimeUnit.MILLISECONDS.toMicros(BenchmarkRun.getLong(properties, "pool-controller-connection-wait-ms", 5L));
+        this.idleIntervals = BenchmarkRun.getInt(properties, "pool-controller-idle-intervals", 5);
+    }
+
+    public void addAsyncExecutor(DefaultAsyncJobExecutor asyncExecutor, String poolName) {
+        addTarget(new AsyncExecutorTarget(asyncExecutor, poolName));
+    }
+
+    public void addMessageListenerContainer(DefaultMessageListenerContainer messageListenerContainer, String poolName, String queue) {
+        addTarget(new MessageListenerContainerTarget(messageListenerContainer, poolName, queue));
+    }
+
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    public double getAverageSize() {
+        double average = 0.0;
+        for (Target target : targets) {
+            average += target.getAverageSize();
+        }
+        return targets.isEmpty() ? 0.0 : average / targets.size();
+    }
+
+    public void printReport(PrintStream out) {
+        out.println();
+        out.println("Pool controller (every " + interval + " ms, " + minThreads + " - " + maxThreads + " threads)");
+        for (Target target : targets) {
+            out.println(String.format("%-20s : size %d (min %d, max %d, average %.1f), %d increases, %d decreases",
+                    target.name, target.getSize(), target.lowestSize, target.highestSize, target.getAverageSize(),
+                    target.increases, target.decreases));
+        }
+    }
+
+    private synchronized void addTarget(Target target) {
+        targets.add(target);
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "activiti-pool-controller");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            scheduler.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    try {
+                        adjust();
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            }, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    protected void adjust() {
+        Histogram queueWait = null;
+        Histogram execution = null;
+        if (Main.jobLatencyRecorder != null) {
+            queueWait = getInterval(Main.jobLatencyRecorder.getQueueWaitHistogram().copy(), previousQueueWait);
+            previousQueueWait = Main.jobLatencyRecorder.getQueueWaitHistogram().copy();
+            execution = getInterval(Main.jobLatencyRecorder.getExecutionHistogram().copy(), previousExecution);
+            previousExecution = Main.jobLatencyRecorder.getExecutionHistogram().copy();
+        }
+
+        long queueWaitP99 = queueWait != null && queueWait.getTotalCount() >= MIN_SAMPLES ? queueWait.getValueAtPercentile(99.0) : 0L;
+        long executionP99 = execution != null && execution.getTotalCount() >= MIN_SAMPLES ? execution.getValueAtPercentile(99.0) : 0L;
+        if (executionP99 > 0L) {
+            lowestExecutionP99 = Math.min(lowestExecutionP99, executionP99);
+        }
+        // Little's law: the nr of threads that were busy executing jobs on average
+        double busyThreads = execution != null ? execution.getTotalCount() * execution.getMean() / TimeUnit.MILLISECONDS.toMicros(interval) : -1.0;
+
+        for (Target target : targets) {
+            int size = target.getSize();
+            if (size == 0) {
+                continue; // not started yet
+            }
+            long backlog = target.getBacklog();
+            ConnectionPoolMetrics pool = ConnectionPoolMetrics.getPool(target.poolName);
+            int pendingConnections = pool != null ? pool.getPendingThreads() : 0;
+            long connectionWaitP99 = 0L;
+            if (pool != null) {
+                Histogram connectionWait = getInterval(pool.getConnectionWait(), target.previousConnectionWait);
+                target.previousConnectionWait = pool.getConnectionWait();
+                connectionWaitP99 = connectionWait.getTotalCount() > 0 ? connectionWait.getValueAtPercentile(99.0) : 0L;
+            }
+
+            int newSize = size;
+            String reason = null;
+            boolean idle = false;
+            if (pendingConnections > 0
+                    || (executionP99 > 0L && executionP99 > latencyFactor * lowestExecutionP99 && connectionWaitP99 > connectionWaitTarget)) {
+                newSize = size - Math.max(size / 4, 1);
+                reason = "database saturated";
+            } else if (backlog > size || queueWaitP99 > queueWaitTarget) {
+                newSize = backlog > 2L * size ? size * 2 : size + step;
+                reason = "backlog";
+            } else if (backlog == 0 && busyThreads >= 0.0 && busyThreads < size / 2.0) {
+                idle = true;
+                if (target.idleIntervals + 1 >= idleIntervals) {
+                    newSize = size - step;
+                    reason = "idle";
+                }
+            }
+            target.idleIntervals = idle && newSize == size ? target.idleIntervals + 1 : 0;
+            newSize = Math.max(minThreads, Math.min(maxThreads, newSize));
+
+            target.recordSize(size);
+            if (newSize != size) {
+                System.out.println(String.format("Pool controller : %s %d -> %d (%s : backlog %d, queue wait p99 %.1f ms, execution p99 %.1f ms, %d threads waiting for a connection, connection wait p99 %.1f ms)",
+                        target.name, size, newSize, reason, backlog, queueWaitP99 / 1000.0, executionP99 / 1000.0, pendingConnections, connectionWaitP99 / 1000.0));
+                target.setSize(newSize);
+                if (newSize > size) {
+                    target.increases++;
+                } else {
+                    target.decreases++;
+                }
+            }
+        }
+    }
+
+    private static Histogram getInterval(Histogram current, Histogram previous) {
+        if (previous == null || previous.getTotalCount() > current.getTotalCount()) {
+            return current; // first interval, or the recorder was reset
+        }
+        try {
+            current.subtract(previous);
+        } catch (IllegalArgumentException e) {
+            return current;
+        }
+        return current;
+    }
+
+    private abstract static class Target {
+
+        final String name;
+        final String poolName;
+        int lowestSize = Integer.MAX_VALUE;
+        int highestSize;
+        long sizeSum;
+        long samples;
+        int increases;
+        int decreases;
+        int idleIntervals;
+        Histogram previousConnectionWait;
+
+        Target(String name, String poolName) {
+            this.name = name;
+            this.poolName = poolName;
+        }
+
+        abstract int getSize();
+
+        abstract void setSize(int size);
+
+        /**
+         * @return the nr of jobs waiting for a thread, 0 when unknown
+         */
+        abstract long getBacklog();
+
+        void recordSize(int size) {
+            lowestSize = Math.min(lowestSize, size);
+            highestSize = Math.max(highestSize, size);
+            sizeSum += size;
+            samples++;
+        }
+
+        double getAverageSize() {
+            return samples > 0 ? (double) sizeSum / samples : getSize();
+        }
+    }
+
+    private static class AsyncExecutorTarget extends Target {
+
+        private final DefaultAsyncJobExecutor asyncExecutor;
+
+        AsyncExecutorTarget(DefaultAsyncJobExecutor asyncExecutor, String poolName) {
+            super(poolName + " threads", poolName);
+            this.asyncExecutor = asyncExecutor;
+        }
+
+        private ThreadPoolExecutor getThreadPoolExecutor() {
+            ExecutorService executorService = asyncExecutor.getExecutorService();
+            return executorService instanceof ThreadPoolExecutor ? (ThreadPoolExecutor) executorService : null;
+        }
+
+        int getSize() {
+            ThreadPoolExecutor threadPoolExecutor = getThreadPoolExecutor();
+            return threadPoolExecutor != null ? threadPoolExecutor.getMaximumPoolSize() : 0;
+        }
+
+        void setSize(int size) {
+            // The queue is bounded, so threads above the core size would only be started once it is full
+            ThreadPoolExecutor threadPoolExecutor = getThreadPoolExecutor();
+            if (size > threadPoolExecutor.getMaximumPoolSize()) {
+                threadPoolExecutor.setMaximumPoolSize(size);
+                threadPoolExecutor.setCorePoolSize(size);
+            } else {
+                threadPoolExecutor.setCorePoolSize(size);
+                threadPoolExecutor.setMaximumPoolSize(size);
+            }
+        }
+
+        long getBacklog() {
+            ThreadPoolExecutor threadPoolExecutor = getThreadPoolExecutor();
+            return threadPoolExecutor != null ? threadPoolExecutor.getQueue().size() : 0L;
+        }
+    }
+
+    private static class MessageListenerContainerTarget extends Target {
+
+        private final DefaultMessageListenerContainer messageListenerContainer;
+        private final String queue;
+
+        MessageListenerContainerTarget(DefaultMessageListenerContainer messageListenerContainer, String poolName, String queue) {
+            super(poolName + " consumers", poolName);
+            this.messageListenerContainer = messageListenerContainer;
+            this.queue = queue;
+        }
+
+        int getSize() {
+            return messageListenerContainer.getConcurrentConsumers();
+        }
+
+        void setSize(int size) {
+            // Takes effect at runtime, but not at once: no consumer is started here, the container schedules one more
+            // when a consumer receives a message and none is idle (up to the new size), so the consumers grow as
+            // messages arrive. Surplus consumers stop after their current receive.
+            // Raising the concurrent consumers raises the max too, the max can't go below the concurrent consumers.
+            messageListenerContainer.setConcurrentConsumers(size);
+            messageListenerContainer.setMaxConcurrentConsumers(size);
+        }
+
+        long getBacklog() {
+            try {
+                return Math.max(LocalEnvironment.getQueueSize(queue), 0L);
+            } catch (Exception e) {
+                return 0L;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,122 @@
+package org.activiti;
+
+import org.activiti.engine.ProcessEngine;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Runs the workload once for every history level in history-levels (default none,activity,audit,full,audit-async),
+ * each time on a clean database with an executor and a producer engine in this JVM, and compares the jobs/second
+ * with the DB rows written per job. A level with the -async suffix uses the {@link AsyncHistoryWriter}, its rows
+ * are counted after the writer flushed what was still buffered at the end of the run, next to the lookups of rows
+ * that were still buffered (the updates the async history lost).
+ * The results go to history-results.csv. The first level is run benchmark-warmup-runs (default 1) times before the
+ * measured runs to warm up the JVM, those results are discarded.
+ */
+public class HistoryLevelBenchmark {
+
+    private final Properties properties;
+
+    public HistoryLevelBenchmark(Properties properties) {
+        this.properties = properties;
+    }
+
+    public void run() throws Exception {
+        String historyLevels = properties.getProperty("history-levels", "none,activity,audit,full,audit-async");
+
+        String firstHistoryLevel = historyLevels.split(",")[0].trim();
+        int warmupRuns = BenchmarkRun.getInt(properties, "benchmark-warmup-runs", 1);
+        for (int i = 0; i < warmupRuns; i++) {
+            System.out.println();
+            System.out.println("Warm-up run " + (i + 1) + "/" + warmupRuns + " : history level " + firstHistoryLevel + ", result discarded");
+            runHistoryLevel(i, firstHistoryLevel);
+        }
+
+        List<HistoryResult> results = new ArrayList<HistoryResult>();
+        for (String historyLevel : historyLevels.split(",")) {
+            System.out.println();
+            System.out.println("History level " + historyLevel.trim());
+            HistoryResult result = runHistoryLevel(warmupRuns + results.size(), historyLevel.trim());
+            System.out.println(result);
+            results.add(result);
+        }
+
+        System.out.println();
+        System.out.println("History level results");
+        HistoryResult baseline = results.get(0);
+        for (HistoryResult result : results) {
+            System.out.println(result + String.format(", throughput %+.1f%%, DB rows per job %+.1f%% vs %s",
+                    100.0 * (result.jobsPerSecond / baseline.jobsPerSecond - 1.0),
+                    100.0 * (result.rowsPerJob / baseline.rowsPerJob - 1.0), baseline.historyLevel));
+        }
+        writeCsv(results, new File("history-results.csv"));
+        System.out.println("History level results written to history-results.csv");
+    }
+
+    protected HistoryResult runHistoryLevel(int index, String historyLevel) throws Exception {
+        BenchmarkRun run = new BenchmarkRun(properties, "history", index);
+        try {
+            boolean async = historyLevel.endsWith("-async");
+            properties.setProperty("history-level", async ? historyLevel.substring(0, historyLevel.length() - "-async".length()) : historyLevel);
+            properties.setProperty("history-mode", async ? "async" : "sync");
+
+            int nrOfProcessInstances = BenchmarkRun.getInt(properties, "nr-process-instances", 1000);
+            Main.eventListener = new BenchmarkEventListener(nrOfProcessInstances);
+            Main.dbRowCounter.reset();
+
+            ProcessEngine producerEngine = run.startEngines(false);
+
+            run.startProcessInstances(producerEngine, nrOfProcessInstances);
+
+            if (!run.awaitCompletion("history-timeout-seconds", 600)) {
+                System.out.println("History level " + historyLevel + " didn't complete in time, "
+                        + Main.eventListener.getCompletedProcessInstances() + " process instances completed");
+            }
+
+            HistoryResult result = new HistoryResult();
+            result.historyLevel = historyLevel;
+            result.executedJobs = Main.eventListener.getExecutedJobs();
+            long duration = Main.eventListener.getLastCompletionTime() - Main.eventListener.getFirstEventTime();
+            result.jobsPerSecond = 1000.0 * result.executedJobs / Math.max(duration, 1L);
+            result.missedLookups = Main.getAsyncHistoryMissedLookups();
+            result.historyFlushMs = Main.stopAsyncHistoryWriters();
+            result.rowsPerJob = (double) Main.dbRowCounter.getRowsWritten() / Math.max(result.executedJobs, 1L);
+            result.insertsPerJob = (double) Main.dbRowCounter.getInserts() / Math.max(result.executedJobs, 1L);
+            Main.dbRowCounter.printReport(System.out, result.executedJobs);
+            return result;
+        } finally {
+            run.close();
+        }
+    }
+
+    protected void writeCsv(List<HistoryResult> results, File file) throws IOException {
+        String header = "historyLevel;executedJobs;jobsPerSecond;rowsPerJob;insertsPerJob;missedLookups;historyFlushMs";
+        BenchmarkResults.writeCsv(file, header, results, new BenchmarkResults.CsvRow<HistoryResult>() {
+            public Object[] getValues(HistoryResult result) {
+                return new Object[] { result.historyLevel, result.executedJobs, result.jobsPerSecond, result.rowsPerJob,
+                        result.insertsPerJob, result.missedLookups, result.historyFlushMs };
+            }
+        });
+    }
+
+    public static class HistoryResult {
+
+        public String historyLevel;
+        public long executedJobs;
+        public double jobsPerSecond;
+        public double rowsPerJob;
+        public double insertsPerJob;
+        public long missedLookups;
+        public long historyFlushMs;
+
+        public String toString() {
+            return String.format("%-14s : %d jobs, %.1f jobs/s, %.2f DB rows written per job (%.2f inserts, %d lookups of buffered rows missed), history flushed %d ms after the run",
+                    historyLevel, executedJobs, jobsPerSecond, rowsPerJob, insertsPerJob, missedLookups, historyFlushMs);
+        }
+    }
+
+}
@@ -0,0 +1,420 @@
+package org.activiti;
+
+import org.HdrHistogram.Histogram;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the measured window of a run with Java Flight Recorder (profile=true) and summarizes the JVM side of it in
+ * the report, to tell engine overhead apart from JVM overhead:
+ *
+ * GC          : the collections, the total of their pauses and the pause percentiles
+ * safepoints  : the time all threads were stopped, and the part of it spent waiting for them to stop (time to safepoint)
+ * contention  : the blocked monitor enters and the parks on a lock or semaphore of at least
+ *               profile-contention-threshold-ms (default 1) per thread group, the executor threads marked with *.
+ *               Other parks (an idle thread waiting for work on a condition, a latch or a future) are left out.
+ * allocation  : the sampled allocation per class (Java 16+), the allocation per job comes from {@link AllocationMetrics}
+ *
+ * The window starts after the warm-up, when the process instance starts begin (or when an executor node is ready)
+ * and ends when all process instances are done. The recording is kept in profile-file (default profile.jfr) for JMC
+ * or the jfr tool. Needs a JVM with Flight Recorder (Java 11+, 8u262+). The project is compiled for Java 8, so the
+ * jdk.jfr API is used through reflection (see {@link Jfr}), profile=true is ignored on a JVM without it.
+ */
+public class JfrProfiler {
+
+    private static final String[] EXECUTOR_THREADS = new String[] {
+            "async-job-executor", "async-job-vthread", "messageListenerContainer", "jms-consumer", "ActiveMQ Session Task"
+    };
+
+    private final File file;
+    private final long contentionThreshold;
+
+    private final Jfr jfr;
+    private Object recording;
+    private long startedAt;
+    private long duration;
+
+    private long collections;
+    private long collectionPauses; // nanos
+    private final Histogram pauses = new Histogram(3);
+    private long safepoints;
+    private long safepointTime; // nanos
+    private long timeToSafepoint; // nanos
+    private final Histogram safepointPauses = new Histogram(3);
+    private final Map<String, Contention> contentionPerThreadGroup = new HashMap<String, Contention>();
+    private final Map<String, Contention> contentionPerClass = new HashMap<String, Contention>();
+    private final Map<String, Long> allocationPerClass = new HashMap<String, Long>();
+    private long sampledAllocation;
+
+    public JfrProfiler(Properties properties) {
+        this.file = new File(properties.getProperty("profile-file", "profile.jfr"));
+        String threshold = properties.getProperty("profile-contention-threshold-ms");
+        this.contentionThreshold = threshold != null && !"".equals(threshold) ? Long.valueOf(threshold) : 1L;
+        try {
+            this.jfr = new Jfr();
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException("Flight Recorder not available on Java " + System.getProperty("java.version"), e);
+        }
+    }
+
+    /**
+     * @return whether this JVM has the Flight Recorder API
+     */
+    public static boolean isSupported() {
+        try {
+            new Jfr();
+            return true;
+        } catch (ReflectiveOperationException e) {
+            return false;
+        }
+    }
+
+    public synchronized void start() {
+        recording = jfr.newInstance(jfr.newRecording);
+        jfr.invoke(jfr.setName, recording, "activiti-benchmark");
+        jfr.invoke(jfr.enable, recording, "jdk.GarbageCollection");
+        jfr.invoke(jfr.enable, recording, "jdk.GCPhasePause");
+        enable("jdk.SafepointBegin", Duration.ZERO, false);
+        enable("jdk.SafepointEnd", Duration.ZERO, false);
+        enable("jdk.SafepointStateSynchronization", Duration.ZERO, false);
+        enable("jdk.JavaMonitorEnter", Duration.ofMillis(contentionThreshold), true);
+        enable("jdk.ThreadPark", Duration.ofMillis(contentionThreshold), true);
+        jfr.invoke(jfr.enable, recording, "jdk.ObjectAllocationSample"); // ignored before Java 16
+        jfr.invoke(jfr.start, recording);
+        startedAt = System.currentTimeMillis();
+        System.out.println("JFR recording started, contention threshold " + contentionThreshold + " ms");
+    }
+
+    private void enable(String eventName, Duration threshold, boolean stackTrace) {
+        Object eventSettings = jfr.invoke(jfr.withThreshold, jfr.invoke(jfr.enable, recording, eventName), threshold);
+        if (stackTrace) {
+            jfr.invoke(jfr.withStackTrace, eventSettings);
+        }
+    }
+
+    /**
+     * Stops the recording, writes it to the profile-file and reads the summary from it.
+     */
+    public synchronized void stop() throws IOException {
+        if (recording == null) {
+            return;
+        }
+        jfr.invoke(jfr.stop, recording);
+        duration = System.currentTimeMillis() - startedAt;
+        jfr.invoke(jfr.dump, recording, file.toPath());
+        jfr.invoke(jfr.close, recording);
+        recording = null;
+        System.out.println("JFR recording of " + duration + " ms written to " + file.getAbsolutePath());
+        summarize();
+    }
+
+    private void summarize() throws IOException {
+        Map<Long, Instant> safepointBegins = new HashMap<Long, Instant>();
+        Map<Long, Instant> safepointEnds = new HashMap<Long, Instant>();
+        Object recordingFile = jfr.newInstance(jfr.newRecordingFile, file.toPath());
+        try {
+            while ((Boolean) jfr.invoke(jfr.hasMoreEvents, recordingFile)) {
+                Object event = jfr.invoke(jfr.readEvent, recordingFile);
+                String name = (String) jfr.invoke(jfr.getName, jfr.invoke(jfr.getEventType, event));
+                if ("jdk.GarbageCollection".equals(name)) {
+                    collections++;
+                    collectionPauses += ((Duration) jfr.invoke(jfr.getDurationField, event, "sumOfPauses")).toNanos();
+
+                } else if ("jdk.GCPhasePause".equals(name)) {
+                    pauses.recordValue(toMicros((Duration) jfr.invoke(jfr.getDuration, event)));
+
+                } else if ("jdk.SafepointBegin".equals(name)) {
+                    safepointBegins.put((Long) jfr.invoke(jfr.getLong, event, "safepointId"), (Instant) jfr.invoke(jfr.getStartTime, event));
+
+                } else if ("jdk.SafepointEnd".equals(name)) {
+                    safepointEnds.put((Long) jfr.invoke(jfr.getLong, event, "safepointId"), (Instant) jfr.invoke(jfr.getEndTime, event));
+
+                } else if ("jdk.SafepointStateSynchronization".equals(name)) {
+                    timeToSafepoint += ((Duration) jfr.invoke(jfr.getDuration, event)).toNanos();
+
+                } else if ("jdk.JavaMonitorEnter".equals(name)) {
+                    addContention(event, getClassName(event, "monitorClass"), true);
+
+                } else if ("jdk.ThreadPark".equals(name)) {
+                    String parkedClass = getClassName(event, "parkedClass");
+                    if (parkedClass != null && isLock(parkedClass)) {
+                        addContention(event, parkedClass, false);
+                    }
+
+                } else if ("jdk.ObjectAllocationSample".equals(name)) {
+                    long weight = (Long) jfr.invoke(jfr.getLong, event, "weight");
+                    String objectClass = getClassName(event, "objectClass");
+                    String className = objectClass != null ? objectClass : "?";
+                    Long allocation = allocationPerClass.get(className);
+                    allocationPerClass.put(className, allocation != null ? allocation + weight : weight);
+                    sampledAllocation += weight;
+                }
+            }
+        } finally {
+            jfr.invoke(jfr.closeRecordingFile, recordingFile);
+        }
+
+        for (Map.Entry<Long, Instant> safepointBegin : safepointBegins.entrySet()) {
+            Instant end = safepointEnds.get(safepointBegin.getKey());
+            if (end != null) {
+                Duration safepoint = Duration.between(safepointBegin.getValue(), end);
+                safepoints++;
+                safepointTime += safepoint.toNanos();
+                safepointPauses.recordValue(toMicros(safepoint));
+            }
+        }
+    }
+
+    private void addContention(Object event, String className, boolean monitor) {
+        Object thread = jfr.invoke(jfr.getThread, event);
+        String threadGroup = getThreadGroup(thread != null ? (String) jfr.invoke(jfr.getJavaName, thread) : null);
+        long nanos = ((Duration) jfr.invoke(jfr.getDuration, event)).toNanos();
+        getContention(contentionPerThreadGroup, threadGroup).add(monitor, nanos);
+        getContention(contentionPerClass, className != null ? className : "?").add(monitor, nanos);
+    }
+
+    /**
+     * @return the name of the class field of the event, or null
+     */
+    private String getClassName(Object event, String field) {
+        Object recordedClass = jfr.invoke(jfr.getClass, event, field);
+        return recordedClass != null ? (String) jfr.invoke(jfr.getClassName, recordedClass) : null;
+    }
+
+    private static Contention getContention(Map<String, Contention> contentions, String key) {
+        Contention contention = contentions.get(key);
+        if (contention == null) {
+            contention = new Contention(key);
+            contentions.put(key, contention);
+        }
+        return contention;
+    }
+
+    /**
+     * The thread name without its number, eg. activiti-async-job-executor-thread
+     */
+    static String getThreadGroup(String threadName) {
+        if (threadName == null) {
+            return "?";
+        }
+        int end = threadName.length();
+        while (end > 0 && (Character.isDigit(threadName.charAt(end - 1)) || threadName.charAt(end - 1) == '-'
+                || threadName.charAt(end - 1) == '#' || threadName.charAt(end - 1) == ' ')) {
+            end--;
+        }
+        return end > 0 ? threadName.substring(0, end) : threadName;
+    }
+
+    static boolean isLock(String parkedClass) {
+        return !parkedClass.endsWith("ConditionObject") && (parkedClass.contains("Lock") || parkedClass.contains("Semaphore"));
+    }
+
+    static boolean isExecutorThread(String threadGroup) {
+        for (String executorThread : EXECUTOR_THREADS) {
+            if (threadGroup.contains(executorThread)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public long getGcPauseTime() {
+        return TimeUnit.NANOSECONDS.toMillis(collectionPauses);
+    }
+
+    public long getSafepointTime() {
+        return TimeUnit.NANOSECONDS.toMillis(safepointTime);
+    }
+
+    /**
+     * @param nrOfJobs the jobs executed in the window
+     */
+    public void printReport(PrintStream out, long nrOfJobs) {
+        long window = Math.max(duration, 1L);
+        out.println();
+        out.println("JFR profile of the measured window (" + duration + " ms, " + file.getName() + ")");
+        out.println(String.format("GC          : %d collections, %d ms paused (%.2f%% of the window)%s", collections, getGcPauseTime(),
+                100.0 * getGcPauseTime() / window, nrOfJobs > 0 ? String.format(", %.3f ms per job", (double) collectionPauses / 1000000.0 / nrOfJobs) : ""));
+        out.println(String.format("GC pauses (ms)  : p50=%.3f p90=%.3f p99=%.3f max=%.3f", pauses.getValueAtPercentile(50.0) / 1000.0,
+                pauses.getValueAtPercentile(90.0) / 1000.0, pauses.getValueAtPercentile(99.0) / 1000.0, pauses.getMaxValue() / 1000.0));
+        out.println(String.format("Safepoints  : %d, %d ms stopped (%.2f%% of the window), %d ms of it time to safepoint, p99 %.3f ms max %.3f ms",
+                safepoints, getSafepointTime(), 100.0 * getSafepointTime() / window, TimeUnit.NANOSECONDS.toMillis(timeToSafepoint),
+                safepointPauses.getValueAtPercentile(99.0) / 1000.0, safepointPauses.getMaxValue() / 1000.0));
+
+        List<Contention> threadGroups = sortByTime(contentionPerThreadGroup);
+        long executorBlocked = 0L;
+        for (Contention contention : threadGroups) {
+            if (isExecutorThread(contention.name)) {
+                executorBlocked += contention.monitorTime + contention.parkTime;
+            }
+        }
+        out.println(String.format("Contention  : %d ms blocked on executor threads (events of %d ms or more)",
+                TimeUnit.NANOSECONDS.toMillis(executorBlocked), contentionThreshold));
+        out.println(String.format("  %-50s %14s %10s %14s %10s", "thread group (* = executor)", "monitor enters", "ms", "lock parks", "ms"));
+        for (Contention contention : threadGroups.subList(0, Math.min(threadGroups.size(), 10))) {
+            out.println(String.format("  %-50s %14d %10d %14d %10d", (isExecutorThread(contention.name) ? "* " : "  ") + contention.name,
+                    contention.monitorEnters, TimeUnit.NANOSECONDS.toMillis(contention.monitorTime),
+                    contention.parks, TimeUnit.NANOSECONDS.toMillis(contention.parkTime)));
+        }
+        List<Contention> classes = sortByTime(contentionPerClass);
+        for (Contention contention : classes.subList(0, Math.min(classes.size(), 5))) {
+            out.println(String.format("  on %-47s %14d %10d %14d %10d", contention.name,
+                    contention.monitorEnters, TimeUnit.NANOSECONDS.toMillis(contention.monitorTime),
+                    contention.parks, TimeUnit.NANOSECONDS.toMillis(contention.parkTime)));
+        }
+
+        if (sampledAllocation > 0L) {
+            out.println(String.format("Allocation  : %.1f MB sampled%s", sampledAllocation / (1024.0 * 1024.0),
+                    nrOfJobs > 0 ? String.format(", %.1f KB per job", sampledAllocation / 1024.0 / nrOfJobs) : ""));
+            List<Map.Entry<String, Long>> allocations = new ArrayList<Map.Entry<String, Long>>(allocationPerClass.entrySet());
+            Collections.sort(allocations, new Comparator<Map.Entry<String, Long>>() {
+                public int compare(Map.Entry<String, Long> entry1, Map.Entry<String, Long> entry2) {
+                    return entry2.getValue().compareTo(entry1.getValue());
+                }
+            });
+            for (Map.Entry<String, Long> allocation : allocations.subList(0, Math.min(allocations.size(), 5))) {
+                out.println(String.format("  %-50s %10.1f MB %5.1f%%", allocation.getKey(), allocation.getValue() / (1024.0 * 1024.0),
+                        100.0 * allocation.getValue() / sampledAllocation));
+            }
+        }
+    }
+
+    private static List<Contention> sortByTime(Map<String, Contention> contentions) {
+        List<Contention> sorted = new ArrayList<Contention>(contentions.values());
+        Collections.sort(sorted, new Comparator<Contention>() {
+            public int compare(Contention contention1, Contention contention2) {
+                return Long.compare(contention2.monitorTime + contention2.parkTime, contention1.monitorTime + contention1.parkTime);
+            }
+        });
+        return sorted;
+    }
+
+    private static long toMicros(Duration duration) {
+        return Math.max(TimeUnit.NANOSECONDS.toMicros(duration.toNanos()), 0L);
+    }
+
+    /**
+     * The methods of the jdk.jfr API that are used, looked up once. Through the public API classes: the objects
+     * returned are often of non public implementation classes.
+     */
+    private static class Jfr {
+
+        final Constructor<?> newRecording;
+        final Method setName;
+        final Method enable;
+        final Method start;
+        final Method stop;
+        final Method dump;
+        final Method close;
+        final Method withThreshold;
+        final Method withStackTrace;
+
+        final Constructor<?> newRecordingFile;
+        final Method hasMoreEvents;
+        final Method readEvent;
+        final Method closeRecordingFile;
+        final Method getEventType;
+        final Method getName;
+        final Method getDuration;
+        final Method getDurationField;
+        final Method getLong;
+        final Method getStartTime;
+        final Method getEndTime;
+        final Method getClass;
+        final Method getThread;
+        final Method getJavaName;
+        final Method getClassName;
+
+        Jfr() throws ReflectiveOperationException {
+            Class<?> recording = Class.forName("jdk.jfr.Recording");
+            Class<?> eventSettings = Class.forName("jdk.jfr.EventSettings");
+            Class<?> recordingFile = Class.forName("jdk.jfr.consumer.RecordingFile");
+            Class<?> recordedEvent = Class.forName("jdk.jfr.consumer.RecordedEvent");
+            newRecording = recording.getConstructor();
+            setName = recording.getMethod("setName", String.class);
+            enable = recording.getMethod("enable", String.class);
+            start = recording.getMethod("start");
+            stop = recording.getMethod("stop");
+            dump = recording.getMethod("dump", Path.class);
+            close = recording.getMethod("close");
+            withThreshold = eventSettings.getMethod("withThreshold", Duration.class);
+            withStackTrace = eventSettings.getMethod("withStackTrace");
+
+            newRecordingFile = recordingFile.getConstructor(Path.class);
+            hasMoreEvents = recordingFile.getMethod("hasMoreEvents");
+            readEvent = recordingFile.getMethod("readEvent");
+            closeRecordingFile = recordingFile.getMethod("close");
+            getEventType = recordedEvent.getMethod("getEventType");
+            getName = Class.forName("jdk.jfr.EventType").getMethod("getName");
+            getDuration = recordedEvent.getMethod("getDuration");
+            getDurationField = recordedEvent.getMethod("getDuration", String.class);
+            getLong = recordedEvent.getMethod("getLong", String.class);
+            getStartTime = recordedEvent.getMethod("getStartTime");
+            getEndTime = recordedEvent.getMethod("getEndTime");
+            getClass = recordedEvent.getMethod("getClass", String.class);
+            getThread = recordedEvent.getMethod("getThread");
+            getJavaName = Class.forName("jdk.jfr.consumer.RecordedThread").getMethod("getJavaName");
+            getClassName = Class.forName("jdk.jfr.consumer.RecordedClass").getMethod("getName");
+        }
+
+        Object newInstance(Constructor<?> constructor, Object... arguments) {
+            try {
+                return constructor.newInstance(arguments);
+            } catch (InvocationTargetException e) {
+                throw new RuntimeException("JFR call failed", e.getCause());
+            } catch (ReflectiveOperationException e) {
+                throw new RuntimeException("JFR call failed", e);
+            }
+        }
+
+        Object invoke(Method method, Object target, Object... arguments) {
+            try {
+                return method.invoke(target, arguments);
+            } catch (InvocationTargetException e) {
+                throw new RuntimeException("JFR " + method.getName() + " failed", e.getCause());
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException("JFR " + method.getName() + " failed", e);
+            }
+        }
+    }
+
+    private static class Contention {
+
+        final String name;
+        long monitorEnters;
+        long monitorTime; // nanos
+        long parks;
+        long parkTime; // nanos
+
+        Contention(String name) {
+            this.name = name;
+        }
+
+        void add(boolean monitor, long nanos) {
+            if (monitor) {
+                monitorEnters++;
+                monitorTime += nanos;
+            } else {
+                parks++;
+                parkTime += nanos;
+            }
+        }
+    }
+
+}
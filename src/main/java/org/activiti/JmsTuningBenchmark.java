@@ -0,0 +1,133 @@
+package org.activiti;
+
+import org.HdrHistogram.Histogram;
+import org.activiti.engine.ProcessEngine;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Compares JMS consumer settings of the message executor (mode=jms-tuning), with the embedded broker of
+ * {@link LocalEnvironment}. Every name of jms-profiles is a run, with the properties jms-profile.&lt;name&gt;.&lt;key&gt;
+ * on top of the config, eg.
+ *
+ * jms-profiles=dmlc-auto,simple-auto
+ * jms-profile.dmlc-auto.jms-listener-container=default
+ * jms-profile.simple-auto.jms-listener-container=simple
+ *
+ * See {@link MyConfigMessageExecutor} for the jms-* keys. Each run gets a fresh message executor and producer on a
+ * clean database and its own queue (see {@link BenchmarkRun}), starts nr-process-instances instances and waits for them to complete.
+ * The results go to jms-results.csv.
+ */
+public class JmsTuningBenchmark {
+
+    private static final String PROFILE_PREFIX = "jms-profile.";
+
+    private final Properties properties;
+
+    public JmsTuningBenchmark(Properties properties) {
+        this.properties = properties;
+    }
+
+    public void run() throws Exception {
+        List<String> profiles = new ArrayList<String>();
+        for (String profile : properties.getProperty("jms-profiles", "default").split(",")) {
+            profiles.add(profile.trim());
+        }
+        System.out.println("Comparing " + profiles.size() + " JMS consumer profiles : " + profiles);
+
+        List<JmsResult> results = new ArrayList<JmsResult>();
+        for (int i = 0; i < profiles.size(); i++) {
+            System.out.println();
+            System.out.println("JMS run " + (i + 1) + "/" + profiles.size() + " : " + profiles.get(i));
+            JmsResult result = runProfile(i, profiles.get(i));
+            System.out.println(result);
+            results.add(result);
+        }
+
+        JmsResult best = null;
+        for (JmsResult result : results) {
+            if (best == null || result.jobsPerSecond > best.jobsPerSecond) {
+                best = result;
+            }
+        }
+        BenchmarkResults.print("JMS results", results, best);
+        writeCsv(results, best, new File("jms-results.csv"));
+        System.out.println("JMS results written to jms-results.csv");
+    }
+
+    protected JmsResult runProfile(int index, String profile) throws Exception {
+        Properties profileProperties = new Properties();
+        profileProperties.putAll(properties);
+        BenchmarkRun run = new BenchmarkRun(properties, "jms", index);
+        try {
+            String profilePrefix = PROFILE_PREFIX + profile + ".";
+            StringBuilder settings = new StringBuilder();
+            for (Map.Entry<Object, Object> entry : profileProperties.entrySet()) {
+                String key = (String) entry.getKey();
+                if (key.startsWith(profilePrefix)) {
+                    properties.setProperty(key.substring(profilePrefix.length()), (String) entry.getValue());
+                    settings.append(settings.length() > 0 ? ", " : "").append(key.substring(profilePrefix.length())).append("=").append(entry.getValue());
+                }
+            }
+
+            int nrOfProcessInstances = Integer.valueOf(properties.getProperty("nr-process-instances", "1000"));
+            Main.eventListener = new BenchmarkEventListener(nrOfProcessInstances);
+            Main.jobLatencyRecorder = new JobLatencyRecorder();
+
+            ProcessEngine producerEngine = run.startEngines(true);
+            run.startProcessInstances(producerEngine, nrOfProcessInstances);
+
+            if (!run.awaitCompletion("jms-timeout-seconds", 1800)) {
+                System.out.println("Run " + profile + " didn't complete in time, "
+                        + Main.eventListener.getCompletedProcessInstances() + " process instances completed");
+            }
+
+            JmsResult result = new JmsResult();
+            result.profile = profile;
+            result.settings = settings.toString();
+            result.executedJobs = Main.eventListener.getExecutedJobs();
+            long duration = Main.eventListener.getLastCompletionTime() - Main.eventListener.getFirstEventTime();
+            result.jobsPerSecond = 1000.0 * result.executedJobs / Math.max(duration, 1L);
+            Histogram latency = Main.jobLatencyRecorder.getTotalHistogram().getTotalCount() > 0
+                    ? Main.jobLatencyRecorder.getTotalHistogram().copy() : Main.jobLatencyRecorder.getExecutionHistogram().copy();
+            result.p99LatencyMs = latency.getValueAtPercentile(99.0) / 1000.0;
+            result.p99QueueWaitMs = Main.jobLatencyRecorder.getQueueWaitHistogram().copy().getValueAtPercentile(99.0) / 1000.0;
+            result.leftInQueue = Math.max(LocalEnvironment.getQueueSize(properties.getProperty("queue")), 0L);
+            return result;
+        } finally {
+            run.close();
+        }
+    }
+
+    protected void writeCsv(List<JmsResult> results, final JmsResult best, File file) throws IOException {
+        String header = "profile;settings;executedJobs;jobsPerSecond;p99LatencyMs;p99QueueWaitMs;leftInQueue;best";
+        BenchmarkResults.writeCsv(file, header, results, new BenchmarkResults.CsvRow<JmsResult>() {
+            public Object[] getValues(JmsResult result) {
+                return new Object[] { result.profile, result.settings, result.executedJobs, result.jobsPerSecond,
+                        result.p99LatencyMs, result.p99QueueWaitMs, result.leftInQueue, result == best };
+            }
+        });
+    }
+
+    public static class JmsResult {
+
+        public String profile;
+        public String settings;
+        public long executedJobs;
+        public double jobsPerSecond;
+        public double p99LatencyMs;
+        public double p99QueueWaitMs;
+        public long leftInQueue;
+
+        public String toString() {
+            return String.format("%-16s : %d jobs, %.1f jobs/s, p99 job latency %.1f ms, p99 queue wait %.1f ms, %d messages left in the queue (%s)",
+                    profile, executedJobs, jobsPerSecond, p99LatencyMs, p99QueueWaitMs, leftInQueue, settings);
+        }
+    }
+
+}
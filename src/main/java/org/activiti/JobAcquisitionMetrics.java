@@ -0,0 +1,259 @@
+package org.activiti;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.activiti.engine.ActivitiOptimisticLockingException;
+import org.activiti.engine.delegate.event.ActivitiEntityEvent;
+import org.activiti.engine.delegate.event.ActivitiEvent;
+import org.activiti.engine.delegate.event.ActivitiEventListener;
+import org.activiti.engine.delegate.event.ActivitiEventType;
+import org.activiti.engine.impl.asyncexecutor.AsyncExecutor;
+import org.activiti.engine.impl.asyncexecutor.AcquiredJobEntities;
+import org.activiti.engine.impl.asyncexecutor.AcquiredTimerJobEntities;
+import org.activiti.engine.impl.asyncexecutor.ExecuteAsyncRunnable;
+import org.activiti.engine.impl.asyncexecutor.ExecuteAsyncRunnableFactory;
+import org.activiti.engine.impl.cfg.ProcessEngineConfigurationImpl;
+import org.activiti.engine.impl.cmd.AcquireJobsCmd;
+import org.activiti.engine.impl.cmd.AcquireTimerJobsCmd;
+import org.activiti.engine.impl.interceptor.AbstractCommandInterceptor;
+import org.activiti.engine.impl.interceptor.Command;
+import org.activiti.engine.impl.interceptor.CommandConfig;
+import org.activiti.engine.impl.interceptor.CommandInterceptor;
+import org.activiti.engine.impl.persistence.entity.JobEntity;
+import org.activiti.engine.runtime.Job;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Times the job acquisition queries of the async executor (AcquireJobsCmd and AcquireTimerJobsCmd, including
+ * their commit) and counts the jobs they lock: jobs per query, queries that found nothing and acquisitions that lost
+ * the lock to another executor. Jobs acquired by the async job query are followed until they start executing,
+ * which gives the acquire -> execute delay (time waiting in the executor queue). A job that doesn't start executing
+ * here is dropped when it is deleted (unacquired by a full executor queue, it is inserted again as a new job) or when
+ * its lock expired (it can be acquired by another executor then).
+ */
+public class JobAcquisitionMetrics {
+
+    private final Acquisition asyncJobs = new Acquisition("async jobs");
+    private final Acquisition timerJobs = new Acquisition("timer jobs");
+    private final Histogram acquireToExecute = new ConcurrentHistogram(3);
+    private final ConcurrentHashMap<String, Long> acquiredAt = new ConcurrentHashMap<String, Long>();
+
+    public void register(ProcessEngineConfigurationImpl processEngineConfiguration) {
+        List<CommandInterceptor> interceptors = processEngineConfiguration.getCustomPreCommandInterceptors();
+        if (interceptors == null) {
+            interceptors = new ArrayList<CommandInterceptor>();
+            processEngineConfiguration.setCustomPreCommandInterceptors(interceptors);
+        }
+        // An interceptor per engine, the chain is linked through the interceptors themselves
+        interceptors.add(new AcquisitionInterceptor(processEngineConfiguration));
+
+        BenchmarkEventListener.register(processEngineConfiguration, new ActivitiEventListener() {
+            public void onEvent(ActivitiEvent event) {
+                Object entity = ((ActivitiEntityEvent) event).getEntity();
+                if (entity instanceof JobEntity) {
+                    acquiredAt.remove(((JobEntity) entity).getId());
+                }
+            }
+
+            public boolean isFailOnException() {
+                return false;
+            }
+        }, ActivitiEventType.ENTITY_DELETED);
+    }
+
+    /**
+     * @param executeAsyncRunnableFactory the factory to wrap, or null for the engine's ExecuteAsyncRunnable
+     */
+    public ExecuteAsyncRunnableFactory wrap(final ExecuteAsyncRunnableFactory executeAsyncRunnableFactory) {
+        return new ExecuteAsyncRunnableFactory() {
+            public Runnable createExecuteAsyncRunnable(final Job job, ProcessEngineConfigurationImpl processEngineConfiguration) {
+                final Runnable runnable = executeAsyncRunnableFactory != null
+                        ? executeAsyncRunnableFactory.createExecuteAsyncRunnable(job, processEngineConfiguration)
+                        : new ExecuteAsyncRunnable(job, processEngineConfiguration);
+                return new Runnable() {
+                    public void run() {
+                        Long jobAcquiredAt = acquiredAt.remove(job.getId());
+                        if (jobAcquiredAt != null) {
+                            acquireToExecute.recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - jobAcquiredAt));
+                        }
+                        runnable.run();
+                    }
+                };
+            }
+        };
+    }
+
+    public boolean hasQueries() {
+        return asyncJobs.queries.sum() + timerJobs.queries.sum() > 0;
+    }
+
+    /**
+     * @return the nr of async job acquisition queries
+     */
+    public long getQueries() {
+        return asyncJobs.queries.sum();
+    }
+
+    public double getJobsPerQuery() {
+        return asyncJobs.getJobsPerQuery();
+    }
+
+    public double getEmptyQueryRatio() {
+        return asyncJobs.getEmptyQueryRatio();
+    }
+
+    /**
+     * Snapshot of the async job acquisition query times, in microseconds.
+     */
+    public Histogram getQueryLatency() {
+        return asyncJobs.queryLatency.copy();
+    }
+
+    /**
+     * Snapshot of the acquire -> execute delays, in microseconds.
+     */
+    public Histogram getAcquireToExecute() {
+        return acquireToExecute.copy();
+    }
+
+    public void reset() {
+        asyncJobs.reset();
+        timerJobs.reset();
+        acquireToExecute.reset();
+        acquiredAt.clear();
+    }
+
+    public void printReport(PrintStream out) {
+        out.println();
+        out.println("Job acquisition");
+        out.println(String.format("%-12s %10s %10s %12s %8s %15s %10s %10s %10s",
+                "", "queries", "queries/s", "jobs/query", "empty", "lock conflicts", "p50 (ms)", "p99 (ms)", "max (ms)"));
+        for (Acquisition acquisition : new Acquisition[] { asyncJobs, timerJobs }) {
+            Histogram queryLatency = acquisition.queryLatency.copy();
+            out.println(String.format("%-12s %10d %10.1f %12.2f %7.1f%% %15d %10.3f %10.3f %10.3f",
+                    acquisition.label, acquisition.queries.sum(), acquisition.getQueriesPerSecond(), acquisition.getJobsPerQuery(),
+                    100.0 * acquisition.getEmptyQueryRatio(), acquisition.lockConflicts.sum(),
+                    queryLatency.getValueAtPercentile(50.0) / 1000.0, queryLatency.getValueAtPercentile(99.0) / 1000.0,
+                    queryLatency.getMaxValue() / 1000.0));
+        }
+        Histogram delay = acquireToExecute.copy();
+        out.println(String.format("Acquire -> execute delay (ms) : %d jobs, p50=%.3f p90=%.3f p99=%.3f max=%.3f",
+                delay.getTotalCount(), delay.getValueAtPercentile(50.0) / 1000.0, delay.getValueAtPercentile(90.0) / 1000.0,
+                delay.getValueAtPercentile(99.0) / 1000.0, delay.getMaxValue() / 1000.0));
+        out.println();
+    }
+
+    private class AcquisitionInterceptor extends AbstractCommandInterceptor {
+
+        private final ProcessEngineConfigurationImpl processEngineConfiguration;
+
+        AcquisitionInterceptor(ProcessEngineConfigurationImpl processEngineConfiguration) {
+            this.processEngineConfiguration = processEngineConfiguration;
+        }
+
+        public <T> T execute(CommandConfig config, Command<T> command) {
+            Acquisition acquisition = command instanceof AcquireJobsCmd ? asyncJobs : (command instanceof AcquireTimerJobsCmd ? timerJobs : null);
+            if (acquisition == null) {
+                return next.execute(config, command);
+            }
+
+            long start = System.nanoTime();
+            T result;
+            try {
+                result = next.execute(config, command);
+            } catch (ActivitiOptimisticLockingException e) {
+                // Another executor locked one of the jobs first, the whole acquisition is rolled back
+                acquisition.lockConflicts.increment();
+                throw e;
+            }
+            long end = System.nanoTime();
+
+            int acquiredJobs = 0;
+            if (result instanceof AcquiredJobEntities) {
+                acquiredJobs = ((AcquiredJobEntities) result).size();
+                for (JobEntity job : ((AcquiredJobEntities) result).getJobs()) {
+                    acquiredAt.put(job.getId(), end);
+                }
+                removeExpiredLocks(end);
+            } else if (result instanceof AcquiredTimerJobEntities) {
+                acquiredJobs = ((AcquiredTimerJobEntities) result).size();
+            }
+            acquisition.record(TimeUnit.NANOSECONDS.toMicros(end - start), acquiredJobs);
+            return result;
+        }
+
+        private void removeExpiredLocks(long now) {
+            AsyncExecutor asyncExecutor = processEngineConfiguration.getAsyncExecutor();
+            if (asyncExecutor == null) {
+                return;
+            }
+            long expiredBefore = now - TimeUnit.MILLISECONDS.toNanos(asyncExecutor.getAsyncJobLockTimeInMillis());
+            Iterator<Long> iterator = acquiredAt.values().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next() < expiredBefore) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    private static class Acquisition {
+
+        final String label;
+        final Histogram queryLatency = new ConcurrentHistogram(3);
+        final LongAdder queries = new LongAdder();
+        final LongAdder emptyQueries = new LongAdder();
+        final LongAdder acquiredJobs = new LongAdder();
+        final LongAdder lockConflicts = new LongAdder();
+        volatile long firstQueryAt;
+        volatile long lastQueryAt;
+
+        Acquisition(String label) {
+            this.label = label;
+        }
+
+        void record(long latency, int jobs) {
+            queryLatency.recordValue(latency);
+            queries.increment();
+            acquiredJobs.add(jobs);
+            if (jobs == 0) {
+                emptyQueries.increment();
+            }
+            lastQueryAt = System.nanoTime();
+            if (firstQueryAt == 0L) {
+                firstQueryAt = lastQueryAt;
+            }
+        }
+
+        double getJobsPerQuery() {
+            return queries.sum() > 0 ? (double) acquiredJobs.sum() / queries.sum() : 0.0;
+        }
+
+        double getEmptyQueryRatio() {
+            return queries.sum() > 0 ? (double) emptyQueries.sum() / queries.sum() : 0.0;
+        }
+
+        double getQueriesPerSecond() {
+            long elapsed = lastQueryAt - firstQueryAt;
+            return elapsed > 0L ? queries.sum() * 1000000000.0 / elapsed : 0.0;
+        }
+
+        void reset() {
+            queryLatency.reset();
+            queries.reset();
+            emptyQueries.reset();
+            acquiredJobs.reset();
+            lockConflicts.reset();
+            firstQueryAt = 0L;
+            lastQueryAt = 0L;
+        }
+    }
+
+}
@@ -0,0 +1,547 @@
+package org.activiti;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.activiti.bpmn.model.FlowElement;
+import org.activiti.engine.ActivitiOptimisticLockingException;
+import org.activiti.engine.delegate.event.ActivitiActivityEvent;
+import org.activiti.engine.delegate.event.ActivitiEntityEvent;
+import org.activiti.engine.delegate.event.ActivitiEvent;
+import org.activiti.engine.delegate.event.ActivitiEventListener;
+import org.activiti.engine.delegate.event.ActivitiEventType;
+import org.activiti.engine.delegate.event.ActivitiExceptionEvent;
+import org.activiti.engine.impl.asyncexecutor.ExecuteAsyncRunnable;
+import org.activiti.engine.impl.asyncexecutor.ExecuteAsyncRunnableFactory;
+import org.activiti.engine.impl.cfg.ProcessEngineConfigurationImpl;
+import org.activiti.engine.impl.cfg.TransactionListener;
+import org.activiti.engine.impl.cfg.TransactionState;
+import org.activiti.engine.impl.context.Context;
+import org.activiti.engine.impl.interceptor.CommandContext;
+import org.activiti.engine.impl.persistence.entity.DeadLetterJobEntity;
+import org.activiti.engine.impl.persistence.entity.ExecutionEntity;
+import org.activiti.engine.impl.persistence.entity.JobEntity;
+import org.activiti.engine.runtime.Job;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures the lifecycle of every async job executed in this JVM, per activity:
+ *
+ * created -> enqueued (acquired and handed to the thread pool, or sent as JMS message) -> execution start -> commit
+ *
+ * All values are recorded in microseconds. The creation time is only known for jobs created in this JVM, and only
+ * kept when this JVM executes jobs too (see {@link #register(ProcessEngineConfigurationImpl, boolean)}) and the
+ * creating transaction committed. For the other jobs only the enqueued -> commit phases are recorded.
+ *
+ * Job attempts that don't commit are counted per activity too: optimistic locking failures, other failures,
+ * the retries and dead letter jobs they result in, the time spent in the rolled back attempts and the exclusive
+ * jobs that couldn't be locked because another job of the same process instance was running.
+ */
+public class JobLatencyRecorder implements ActivitiEventListener, ExecuteAsyncRunnableFactory {
+
+    public static final ActivitiEventType[] EVENT_TYPES = new ActivitiEventType[] {
+            ActivitiEventType.ENTITY_CREATED,
+            ActivitiEventType.ACTIVITY_STARTED,
+            ActivitiEventType.JOB_EXECUTION_SUCCESS,
+            ActivitiEventType.JOB_EXECUTION_FAILURE,
+            ActivitiEventType.JOB_RETRIES_DECREMENTED
+    };
+
+    private static final int SIGNIFICANT_DIGITS = 3;
+    private static final double[] PERCENTILES = new double[] { 50.0, 90.0, 99.0, 99.9 };
+
+    private final ConcurrentHashMap<String, CreatedJob> createdJobs = new ConcurrentHashMap<String, CreatedJob>();
+    private final ConcurrentHashMap<String, ActivityLatency> activityLatencies = new ConcurrentHashMap<String, ActivityLatency>();
+    private final ActivityLatency allJobs = new ActivityLatency("all", "<all jobs>");
+
+    private final ThreadLocal<JobSample> currentSample = new ThreadLocal<JobSample>();
+    private volatile boolean executingJobs;
+
+    /**
+     * @param executor whether the engine executes jobs, the creation times are only kept then (a producer alone
+     *                 would keep the creation time of every job it creates)
+     */
+    public void register(ProcessEngineConfigurationImpl processEngineConfiguration, boolean executor) {
+        if (executor) {
+            executingJobs = true;
+        }
+        BenchmarkEventListener.register(processEngineConfiguration, this, EVENT_TYPES);
+    }
+
+    public Runnable createExecuteAsyncRunnable(final Job job, ProcessEngineConfigurationImpl processEngineConfiguration) {
+        final long enqueuedAt = System.nanoTime();
+        final ExecuteAsyncRunnable executeAsyncRunnable = new ExecuteAsyncRunnable(job, processEngineConfiguration);
+        return new Runnable() {
+            public void run() {
+                execute(job.getId(), job.isExclusive(), enqueuedAt, executeAsyncRunnable);
+            }
+        };
+    }
+
+    /**
+     * Runs the job on the current thread and records its latencies when the job transaction committed.
+     *
+     * @param enqueuedAt {@link System#nanoTime()} based time at which the job was handed over for execution
+     */
+    public void execute(String jobId, long enqueuedAt, Runnable jobRunnable) {
+        execute(jobId, null, enqueuedAt, jobRunnable);
+    }
+
+    protected void execute(String jobId, Boolean exclusive, long enqueuedAt, Runnable jobRunnable) {
+        CreatedJob createdJob = createdJobs.remove(jobId);
+        JobSample jobSample = new JobSample(createdJob != null ? createdJob.createdAt : null, enqueuedAt, System.nanoTime());
+        jobSample.exclusive = exclusive;
+        currentSample.set(jobSample);
+        try {
+            jobRunnable.run();
+        } finally {
+            currentSample.remove();
+        }
+        long endedAt = System.nanoTime();
+
+        // Jobs that failed before (or without) starting an activity are attributed to the activity they were created for
+        if (jobSample.activityId == null && createdJob != null) {
+            jobSample.activityId = createdJob.activityId;
+            jobSample.activityName = createdJob.activityName;
+        }
+        if (jobSample.exclusive == null && createdJob != null) {
+            jobSample.exclusive = createdJob.exclusive;
+        }
+        ActivityLatency activityLatency = jobSample.activityId != null ? getActivityLatency(jobSample.activityId, jobSample.activityName) : null;
+        if (activityLatency != null && jobSample.exclusive != null) {
+            activityLatency.exclusive = jobSample.exclusive;
+        }
+
+        if (jobSample.committedAt > 0L) {
+            record(allJobs, jobSample);
+            if (activityLatency != null) {
+                record(activityLatency, jobSample);
+            }
+        } else if (jobSample.failed) {
+            recordFailure(allJobs, jobSample, endedAt);
+            if (activityLatency != null) {
+                recordFailure(activityLatency, jobSample, endedAt);
+            }
+        } else {
+            // Not executed: the exclusive lock on the process instance was held by another job (the job is unacquired
+            // and picked up again later) or the job was already gone. Keep the creation time for the next attempt.
+            if (createdJob != null) {
+                createdJobs.put(jobId, createdJob);
+            }
+            allJobs.lockConflicts.increment();
+            if (activityLatency != null) {
+                activityLatency.lockConflicts.increment();
+            }
+        }
+    }
+
+    public void onEvent(ActivitiEvent event) {
+        switch (event.getType()) {
+            case ENTITY_CREATED:
+                Object entity = ((ActivitiEntityEvent) event).getEntity();
+                if (entity instanceof JobEntity && executingJobs) {
+                    final JobEntity jobEntity = (JobEntity) entity;
+                    final CreatedJob createdJob = createCreatedJob(jobEntity);
+                    // A rolled back job insert is never executed, its creation time would stay in the map
+                    if (Context.getTransactionContext() != null) {
+                        Context.getTransactionContext().addTransactionListener(TransactionState.COMMITTED, new TransactionListener() {
+                            public void execute(CommandContext commandContext) {
+                                createdJobs.put(jobEntity.getId(), createdJob);
+                            }
+                        });
+                    } else {
+                        createdJobs.put(jobEntity.getId(), createdJob);
+                    }
+                }
+                break;
+            case ACTIVITY_STARTED:
+                JobSample sample = currentSample.get();
+                if (sample != null && sample.activityId == null) {
+                    ActivitiActivityEvent activityEvent = (ActivitiActivityEvent) event;
+                    sample.activityId = activityEvent.getActivityId();
+                    sample.activityName = activityEvent.getActivityName();
+                }
+                break;
+            case JOB_EXECUTION_SUCCESS:
+                final JobSample committedSample = currentSample.get();
+                if (committedSample != null && Context.getTransactionContext() != null) {
+                    Context.getTransactionContext().addTransactionListener(TransactionState.COMMITTED, new TransactionListener() {
+                        public void execute(CommandContext commandContext) {
+                            committedSample.committedAt = System.nanoTime();
+                        }
+                    });
+                }
+                break;
+            case JOB_EXECUTION_FAILURE:
+                // Dispatched by the failed job handling on the thread that ran the job, after the retry command
+                JobSample failedSample = currentSample.get();
+                if (failedSample != null) {
+                    failedSample.failed = true;
+                    failedSample.optimisticLockFailure = event instanceof ActivitiExceptionEvent
+                            && ((ActivitiExceptionEvent) event).getCause() instanceof ActivitiOptimisticLockingException;
+                    Object failedJob = ((ActivitiEntityEvent) event).getEntity();
+                    if (failedSample.exclusive == null && failedJob instanceof Job) {
+                        failedSample.exclusive = ((Job) failedJob).isExclusive();
+                    }
+                }
+                break;
+            case JOB_RETRIES_DECREMENTED:
+                // The entity is the new timer job (retried later) or the dead letter job (no retries left)
+                JobSample retriedSample = currentSample.get();
+                if (retriedSample != null) {
+                    if (((ActivitiEntityEvent) event).getEntity() instanceof DeadLetterJobEntity) {
+                        retriedSample.deadLettered = true;
+                    } else {
+                        retriedSample.retried = true;
+                    }
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Resolves the activity of a new job from the execution in the entity cache of the creating command,
+     * without going to the database: jobs created by the timer job mover (retries) have no activity.
+     */
+    private CreatedJob createCreatedJob(JobEntity jobEntity) {
+        CreatedJob createdJob = new CreatedJob(System.nanoTime(), jobEntity.isExclusive());
+        CommandContext commandContext = Context.getCommandContext();
+        if (commandContext != null && jobEntity.getExecutionId() != null) {
+            ExecutionEntity execution = commandContext.getEntityCache().findInCache(ExecutionEntity.class, jobEntity.getExecutionId());
+            FlowElement flowElement = execution != null ? execution.getCurrentFlowElement() : null;
+            if (flowElement != null) {
+                createdJob.activityId = flowElement.getId();
+                createdJob.activityName = flowElement.getName();
+            }
+        }
+        return createdJob;
+    }
+
+    public boolean isFailOnException() {
+        return false;
+    }
+
+    public boolean hasSamples() {
+        return allJobs.execution.getTotalCount() > 0;
+    }
+
+    public Histogram getTotalHistogram() {
+        return allJobs.total;
+    }
+
+    public Histogram getExecutionHistogram() {
+        return allJobs.execution;
+    }
+
+    public Histogram getQueueWaitHistogram() {
+        return allJobs.queueWait;
+    }
+
+    public long getOptimisticLockFailures() {
+        return allJobs.optimisticLockFailures.sum();
+    }
+
+    public long getDeadLetterJobs() {
+        return allJobs.deadLetters.sum();
+    }
+
+    public long getRetries() {
+        return allJobs.retries.sum();
+    }
+
+    /**
+     * @return the job attempts that didn't run because the process instance was locked by another job
+     */
+    public long getLockConflicts() {
+        return allJobs.lockConflicts.sum();
+    }
+
+    public boolean hasConflicts() {
+        return allJobs.getFailedAttempts() + allJobs.lockConflicts.sum() > 0;
+    }
+
+    /**
+     * Drops everything recorded so far, eg. at the end of a warm up phase.
+     */
+    public void reset() {
+        activityLatencies.clear();
+        for (String phase : ActivityLatency.PHASES) {
+            allJobs.getHistogram(phase).reset();
+        }
+        allJobs.resetConflicts();
+    }
+
+    public void printReport(PrintStream out) {
+        out.println();
+        out.println("Job latencies in ms (created -> enqueued -> started -> committed)");
+        out.println(String.format("%-48s %-18s %8s %10s %10s %10s %10s %10s",
+                "activity", "phase", "count", "p50", "p90", "p99", "p99.9", "max"));
+        for (ActivityLatency activityLatency : getSortedLatencies()) {
+            for (String phase : ActivityLatency.PHASES) {
+                Histogram histogram = activityLatency.getHistogram(phase);
+                if (histogram.getTotalCount() == 0) {
+                    continue;
+                }
+                StringBuilder line = new StringBuilder(String.format("%-48s %-18s %8d", activityLatency.label, phase, histogram.getTotalCount()));
+                for (double percentile : PERCENTILES) {
+                    line.append(String.format(" %10.3f", toMillis(histogram.getValueAtPercentile(percentile))));
+                }
+                line.append(String.format(" %10.3f", toMillis(histogram.getMaxValue())));
+                out.println(line);
+            }
+        }
+        out.println();
+    }
+
+    /**
+     * Per activity: attempts that committed, failed on an optimistic lock, failed otherwise, retries scheduled,
+     * jobs moved to the dead letter table, exclusive jobs not executed because the process instance was locked,
+     * the time spent in rolled back attempts and the share of attempts that didn't commit.
+     */
+    public void printConflictReport(PrintStream out) {
+        List<ActivityLatency> latencies = getSortedLatencies();
+        ActivityLatency exclusiveJobs = new ActivityLatency("exclusive", "<exclusive jobs>");
+        ActivityLatency nonExclusiveJobs = new ActivityLatency("non-exclusive", "<non-exclusive jobs>");
+        exclusiveJobs.exclusive = true;
+        nonExclusiveJobs.exclusive = false;
+        for (ActivityLatency activityLatency : latencies) {
+            if (activityLatency.exclusive != null) {
+                (activityLatency.exclusive ? exclusiveJobs : nonExclusiveJobs).addConflicts(activityLatency);
+            }
+        }
+
+        out.println();
+        out.println("Job conflicts (attempts that didn't commit)");
+        out.println(String.format("%-48s %-9s %9s %9s %9s %9s %9s %9s %12s %9s",
+                "activity", "exclusive", "committed", "optLock", "otherFail", "retries", "deadLetr", "notLocked", "rollbackMs", "wasted%"));
+        for (ActivityLatency activityLatency : latencies) {
+            if (activityLatency == allJobs) {
+                printConflicts(out, exclusiveJobs);
+                printConflicts(out, nonExclusiveJobs);
+            }
+            printConflicts(out, activityLatency);
+        }
+        out.println();
+    }
+
+    public void exportConflictCsv(File file) throws IOException {
+        PrintWriter printWriter = new PrintWriter(new FileWriter(file));
+        try {
+            printWriter.println("activityId;activity;exclusive;committed;optimisticLockFailures;otherFailures;retries;deadLetterJobs;notLocked;rollbackMs");
+            for (ActivityLatency activityLatency : getSortedLatencies()) {
+                printWriter.println(activityLatency.activityId + ";" + activityLatency.label + ";" + formatExclusive(activityLatency)
+                        + ";" + activityLatency.execution.getTotalCount()
+                        + ";" + activityLatency.optimisticLockFailures.sum()
+                        + ";" + activityLatency.otherFailures.sum()
+                        + ";" + activityLatency.retries.sum()
+                        + ";" + activityLatency.deadLetters.sum()
+                        + ";" + activityLatency.lockConflicts.sum()
+                        + ";" + toMillis(activityLatency.rollbackTime.sum()));
+            }
+        } finally {
+            printWriter.close();
+        }
+    }
+
+    private void printConflicts(PrintStream out, ActivityLatency activityLatency) {
+        long committed = activityLatency.execution.getTotalCount();
+        long notCommitted = activityLatency.getFailedAttempts() + activityLatency.lockConflicts.sum();
+        if (committed + notCommitted == 0) {
+            return;
+        }
+        out.println(String.format("%-48s %-9s %9d %9d %9d %9d %9d %9d %12.3f %9.2f",
+                activityLatency.label, formatExclusive(activityLatency), committed,
+                activityLatency.optimisticLockFailures.sum(), activityLatency.otherFailures.sum(),
+                activityLatency.retries.sum(), activityLatency.deadLetters.sum(), activityLatency.lockConflicts.sum(),
+                toMillis(activityLatency.rollbackTime.sum()), 100.0 * notCommitted / (committed + notCommitted)));
+    }
+
+    private static String formatExclusive(ActivityLatency activityLatency) {
+        return activityLatency.exclusive == null ? "" : activityLatency.exclusive ? "yes" : "no";
+    }
+
+    public void exportCsv(File file) throws IOException {
+        PrintWriter printWriter = new PrintWriter(new FileWriter(file));
+        try {
+            printWriter.println("activityId;activity;phase;count;p50Ms;p90Ms;p99Ms;p999Ms;maxMs");
+            for (ActivityLatency activityLatency : getSortedLatencies()) {
+                for (String phase : ActivityLatency.PHASES) {
+                    Histogram histogram = activityLatency.getHistogram(phase);
+                    StringBuilder line = new StringBuilder();
+                    line.append(activityLatency.activityId).append(';')
+                            .append(activityLatency.label).append(';')
+                            .append(phase).append(';')
+                            .append(histogram.getTotalCount());
+                    for (double percentile : PERCENTILES) {
+                        line.append(';').append(toMillis(histogram.getValueAtPercentile(percentile)));
+                    }
+                    line.append(';').append(toMillis(histogram.getMaxValue()));
+                    printWriter.println(line);
+                }
+            }
+        } finally {
+            printWriter.close();
+        }
+    }
+
+    private List<ActivityLatency> getSortedLatencies() {
+        List<ActivityLatency> latencies = new ArrayList<ActivityLatency>(activityLatencies.values());
+        Collections.sort(latencies, new Comparator<ActivityLatency>() {
+            public int compare(ActivityLatency a, ActivityLatency b) {
+                return a.label.compareTo(b.label);
+            }
+        });
+        latencies.add(allJobs);
+        return latencies;
+    }
+
+    private ActivityLatency getActivityLatency(String activityId, String activityName) {
+        ActivityLatency activityLatency = activityLatencies.get(activityId);
+        if (activityLatency == null) {
+            String label = activityName != null ? activityName + " (" + activityId + ")" : activityId;
+            activityLatency = new ActivityLatency(activityId, label);
+            ActivityLatency existing = activityLatencies.putIfAbsent(activityId, activityLatency);
+            if (existing != null) {
+                activityLatency = existing;
+            }
+        }
+        return activityLatency;
+    }
+
+    private void record(ActivityLatency activityLatency, JobSample jobSample) {
+        if (jobSample.createdAt != null) {
+            activityLatency.acquisition.recordValue(toMicros(jobSample.enqueuedAt - jobSample.createdAt));
+            activityLatency.total.recordValue(toMicros(jobSample.committedAt - jobSample.createdAt));
+        }
+        activityLatency.queueWait.recordValue(toMicros(jobSample.startedAt - jobSample.enqueuedAt));
+        activityLatency.execution.recordValue(toMicros(jobSample.committedAt - jobSample.startedAt));
+    }
+
+    private void recordFailure(ActivityLatency activityLatency, JobSample jobSample, long endedAt) {
+        (jobSample.optimisticLockFailure ? activityLatency.optimisticLockFailures : activityLatency.otherFailures).increment();
+        if (jobSample.deadLettered) {
+            activityLatency.deadLetters.increment();
+        } else if (jobSample.retried) {
+            activityLatency.retries.increment();
+        }
+        activityLatency.rollbackTime.add(toMicros(endedAt - jobSample.startedAt));
+    }
+
+    private static long toMicros(long nanos) {
+        return Math.max(TimeUnit.NANOSECONDS.toMicros(nanos), 0L);
+    }
+
+    private static double toMillis(long micros) {
+        return micros / 1000.0;
+    }
+
+    private static class JobSample {
+
+        final Long createdAt;
+        final long enqueuedAt;
+        final long startedAt;
+        volatile long committedAt;
+        String activityId;
+        String activityName;
+        Boolean exclusive;
+        boolean failed;
+        boolean optimisticLockFailure;
+        boolean retried;
+        boolean deadLettered;
+
+        JobSample(Long createdAt, long enqueuedAt, long startedAt) {
+            this.createdAt = createdAt;
+            this.enqueuedAt = enqueuedAt;
+            this.startedAt = startedAt;
+        }
+    }
+
+    private static class CreatedJob {
+
+        final long createdAt;
+        final boolean exclusive;
+        String activityId;
+        String activityName;
+
+        CreatedJob(long createdAt, boolean exclusive) {
+            this.createdAt = createdAt;
+            this.exclusive = exclusive;
+        }
+    }
+
+    private static class ActivityLatency {
+
+        static final String PHASE_ACQUISITION = "created-enqueued";
+        static final String PHASE_QUEUE_WAIT = "enqueued-started";
+        static final String PHASE_EXECUTION = "started-committed";
+        static final String PHASE_TOTAL = "created-committed";
+        static final String[] PHASES = new String[] { PHASE_ACQUISITION, PHASE_QUEUE_WAIT, PHASE_EXECUTION, PHASE_TOTAL };
+
+        final String activityId;
+        final String label;
+        final Histogram acquisition = new ConcurrentHistogram(SIGNIFICANT_DIGITS);
+        final Histogram queueWait = new ConcurrentHistogram(SIGNIFICANT_DIGITS);
+        final Histogram execution = new ConcurrentHistogram(SIGNIFICANT_DIGITS);
+        final Histogram total = new ConcurrentHistogram(SIGNIFICANT_DIGITS);
+        final LongAdder optimisticLockFailures = new LongAdder();
+        final LongAdder otherFailures = new LongAdder();
+        final LongAdder retries = new LongAdder();
+        final LongAdder deadLetters = new LongAdder();
+        final LongAdder lockConflicts = new LongAdder();
+        final LongAdder rollbackTime = new LongAdder(); // micros
+        volatile Boolean exclusive;
+
+        ActivityLatency(String activityId, String label) {
+            this.activityId = activityId;
+            this.label = label;
+        }
+
+        Histogram getHistogram(String phase) {
+            if (PHASE_ACQUISITION.equals(phase)) {
+                return acquisition;
+            } else if (PHASE_QUEUE_WAIT.equals(phase)) {
+                return queueWait;
+            } else if (PHASE_EXECUTION.equals(phase)) {
+                return execution;
+            }
+            return total;
+        }
+
+        long getFailedAttempts() {
+            return optimisticLockFailures.sum() + otherFailures.sum();
+        }
+
+        void addConflicts(ActivityLatency other) {
+            execution.add(other.execution.copy());
+            optimisticLockFailures.add(other.optimisticLockFailures.sum());
+            otherFailures.add(other.otherFailures.sum());
+            retries.add(other.retries.sum());
+            deadLetters.add(other.deadLetters.sum());
+            lockConflicts.add(other.lockConflicts.sum());
+            rollbackTime.add(other.rollbackTime.sum());
+        }
+
+        void resetConflicts() {
+            optimisticLockFailures.reset();
+            otherFailures.reset();
+            retries.reset();
+            deadLetters.reset();
+            lockConflicts.reset();
+            rollbackTime.reset();
+        }
+    }
+
+}
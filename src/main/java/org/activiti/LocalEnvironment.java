@@ -0,0 +1,81 @@
+package org.activiti;
+
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.broker.region.Destination;
+import org.apache.activemq.command.ActiveMQQueue;
+import org.h2.tools.Server;
+
+import java.util.Properties;
+
+/**
+ * Sets up the infrastructure for the local modes inside the current JVM:
+ * an embedded H2 database and, for the message based mode, an embedded ActiveMQ broker.
+ */
+public class LocalEnvironment {
+
+    public static final String DEFAULT_JDBC_URL = "jdbc:h2:mem:activiti;DB_CLOSE_DELAY=-1";
+    public static final String DEFAULT_BROKER_NAME = "activiti";
+
+    private static BrokerService brokerService;
+    private static Server h2TcpServer;
+
+    public static void start(Properties properties, boolean startBroker) throws Exception {
+
+        // With h2-tcp-port, other JVMs (eg. the executor nodes of the coordinator mode) can use the in-memory database too
+        String h2TcpPort = properties.getProperty("h2-tcp-port");
+        if (h2TcpPort != null && !"".equals(h2TcpPort)) {
+            h2TcpServer = Server.createTcpServer("-tcpPort", h2TcpPort, "-tcpDaemon").start();
+            setDefault(properties, "jdbc-url", "jdbc:h2:tcp://localhost:" + h2TcpPort + "/mem:activiti;DB_CLOSE_DELAY=-1");
+            System.out.println("H2 TCP server started on port " + h2TcpPort);
+        }
+
+        // Explicit settings in config.properties win, eg. a file based H2 url like jdbc:h2:./activiti
+        setDefault(properties, "jdbc-url", DEFAULT_JDBC_URL);
+        setDefault(properties, "jdbc-driver", "org.h2.Driver");
+        setDefault(properties, "jdbc-username", "sa");
+        setDefault(properties, "jdbc-password", "");
+        setDefault(properties, "schema-update", "true");
+        setDefault(properties, "queue", "activiti-jobs");
+        setDefault(properties, "broker-url", "vm://" + DEFAULT_BROKER_NAME + "?create=false");
+
+        System.out.println("Embedded H2 database at " + properties.getProperty("jdbc-url"));
+
+        if (startBroker) {
+            brokerService = new BrokerService();
+            brokerService.setBrokerName(DEFAULT_BROKER_NAME);
+            brokerService.setPersistent(false);
+            brokerService.setUseJmx(false);
+            brokerService.setUseShutdownHook(true);
+            String brokerConnector = properties.getProperty("broker-connector");
+            if (brokerConnector != null && !"".equals(brokerConnector)) {
+                // Reachable from other JVMs, eg. tcp://localhost:61616
+                brokerService.addConnector(brokerConnector);
+            }
+            brokerService.start();
+            brokerService.waitUntilStarted();
+            System.out.println("Embedded ActiveMQ broker started at " + properties.getProperty("broker-url"));
+        }
+    }
+
+    public static BrokerService getBrokerService() {
+        return brokerService;
+    }
+
+    /**
+     * @return the nr of messages waiting in the queue of the embedded broker, -1 without embedded broker
+     */
+    public static long getQueueSize(String queueName) throws Exception {
+        if (brokerService == null) {
+            return -1L;
+        }
+        Destination destination = brokerService.getDestination(new ActiveMQQueue(queueName));
+        return destination != null ? destination.getDestinationStatistics().getMessages().getCount() : 0L;
+    }
+
+    private static void setDefault(Properties properties, String key, String value) {
+        if (properties.getProperty(key) == null) {
+            properties.setProperty(key, value);
+        }
+    }
+
+}
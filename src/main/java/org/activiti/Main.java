@@ -1,12 +1,15 @@
 package org.activiti;
 
 import com.zaxxer.hikari.HikariDataSource;
+import org.activiti.engine.ManagementService;
 import org.activiti.engine.ProcessEngine;
 import org.activiti.engine.ProcessEngineConfiguration;
-import org.activiti.engine.RepositoryService;
+import org.activiti.engine.impl.asyncexecutor.DefaultAsyncJobExecutor;
+import org.activiti.engine.impl.asyncexecutor.ExecuteAsyncRunnableFactory;
 import org.activiti.engine.impl.cfg.ProcessEngineConfigurationImpl;
 import org.activiti.engine.impl.cfg.StandaloneProcessEngineConfiguration;
 import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.jms.listener.DefaultMessageListenerContainer;
 
 import javax.sql.DataSource;
 import java.io.*;
@@ -14,6 +17,7 @@ import java.net.URL;
 import java.util.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
 
 public class Main {
 
@@ -21,183 +25,613 @@ public class Main {
     private static final String MODE_EXECUTOR = "executor";
     private static final String MODE_MESSAGE_EXECUTOR = "message-executor";
     private static final String MODE_MESSAGE_PRODUCER = "message-producer";
+    private static final String MODE_LOCAL = "local";
+    private static final String MODE_LOCAL_MESSAGE = "local-message";
+    private static final String MODE_SWEEP = "sweep";
+    private static final String MODE_BULK_START = "bulk-start";
+    private static final String MODE_VARIABLE_WRITE = "variable-write";
+    private static final String MODE_PAYLOAD = "payload";
+    private static final String MODE_HISTORY = "history";
+    private static final String MODE_AUTOSCALE = "autoscale";
+    private static final String MODE_TIMER = "timer";
+    private static final String MODE_JMS_TUNING = "jms-tuning";
+    private static final String MODE_EXCLUSIVE = "exclusive";
+    private static final String MODE_BACKPRESSURE = "backpressure";
+    private static final String MODE_COORDINATOR = "coordinator";
+    private static final String MODE_VTHREAD_EXECUTOR = "vthread-executor";
+    private static final String MODE_VTHREAD_MESSAGE_EXECUTOR = "vthread-message-executor";
 
     public static Properties properties;
+    public static BenchmarkEventListener eventListener;
+    public static JobLatencyRecorder jobLatencyRecorder;
+    public static DbRowCounter dbRowCounter;
+    public static AllocationMetrics allocationMetrics;
+    public static JfrProfiler profiler;
+    public static JobAcquisitionMetrics jobAcquisitionMetrics;
+    public static TimerMetrics timerMetrics;
+    public static ExclusiveJobScheduler exclusiveJobScheduler;
+    public static StartupMetrics startupMetrics;
+    public static BackPressure backPressure;
+    public static RunLifecycle runLifecycle;
+    public static ExecutorPoolController poolController;
+    public static boolean virtualThreads;
+    public static WorkloadModel workload;
 
     private static String mode;
     private static boolean displayStats;
     private static int numberOfProcessInstances = -1;
     private static int delayBetweenProcessInstanceStart = -1;
+    private static int startBatchSize = 1;
 
     private static final Random random = new Random();
 
+    private static OpenLoopLoadGenerator openLoopLoadGenerator;
+    private static ProcessEngine localExecutorEngine;
+    private static MetricsSampler metricsSampler;
+
+    private static final List<DefaultAsyncJobExecutor> asyncExecutors = new ArrayList<DefaultAsyncJobExecutor>();
+    private static final List<AnnotationConfigApplicationContext> applicationContexts = new ArrayList<AnnotationConfigApplicationContext>();
+    private static final List<AsyncHistoryWriter> asyncHistoryWriters = new ArrayList<AsyncHistoryWriter>();
+
     public static void main(String[] args) throws Exception {
 
-        loadProperties();
+        loadProperties(args);
 
         mode = getStringProperty("mode");
         displayStats = getBooleanProperty("display-stats");
         numberOfProcessInstances = getintProperty("nr-process-instances");
         delayBetweenProcessInstanceStart = getintProperty("delay-between-process-instance-start");
+        startBatchSize = Math.max(getintProperty("start-batch-size"), 1);
+        if (startBatchSize > 1 && "open-loop".equals(getStringProperty("start-mode"))) {
+            // The load profile schedules single starts, a batch would start start-batch-size instances per intended start
+            throw new RuntimeException("start-batch-size " + startBatchSize + " can't be combined with start-mode=open-loop, use start-batch-size=1");
+        }
 
         System.out.println("Mode = " + mode);
+        workload = new WorkloadModel(properties);
+        runLifecycle = new RunLifecycle(properties);
+
+        // The vthread modes are the executor modes, with jobs executed on virtual threads
+        virtualThreads = getBooleanProperty("virtual-threads");
+        if (MODE_VTHREAD_EXECUTOR.equals(mode)) {
+            virtualThreads = true;
+            mode = MODE_EXECUTOR;
+        } else if (MODE_VTHREAD_MESSAGE_EXECUTOR.equals(mode)) {
+            virtualThreads = true;
+            mode = MODE_MESSAGE_EXECUTOR;
+        }
+        if (virtualThreads) {
+            System.out.println("Virtual threads enabled, max " + getVirtualThreadMaxConcurrency() + " concurrent jobs");
+        }
         System.out.println(displayStats ? "Displaying stats" : "<Stat display disabled>");
-        if (numberOfProcessInstances > 0) {
+        if (numberOfProcessInstances > 0 && "open-loop".equals(getStringProperty("start-mode"))) {
+            System.out.println("Starting " + numberOfProcessInstances + " process instances, open loop");
+        } else if (numberOfProcessInstances > 0) {
             System.out.println("Starting " + numberOfProcessInstances + " process instances, one instance every " + delayBetweenProcessInstanceStart + " ms");
         }
 
-        boolean enableAsyncExecutor = getintProperty("async-executor-max-nr-threads") > 0;
+        int expectedProcessInstances = getintProperty("expected-process-instances");
+        eventListener = new BenchmarkEventListener(expectedProcessInstances);
+        if (!"false".equals(getStringProperty("record-job-latency"))) {
+            jobLatencyRecorder = new JobLatencyRecorder();
+        }
+        if (!"false".equals(getStringProperty("record-job-acquisition"))) {
+            jobAcquisitionMetrics = new JobAcquisitionMetrics();
+        }
+        if (getBooleanProperty("record-timer-lateness") || MODE_TIMER.equals(mode)) {
+            timerMetrics = new TimerMetrics();
+        }
+        if (getBooleanProperty("count-db-rows") || MODE_VARIABLE_WRITE.equals(mode) || MODE_HISTORY.equals(mode) || MODE_PAYLOAD.equals(mode)) {
+            dbRowCounter = new DbRowCounter();
+        }
+        if (getBooleanProperty("profile")) {
+            if (JfrProfiler.isSupported()) {
+                profiler = new JfrProfiler(properties);
+            } else {
+                System.out.println("Flight Recorder not available on Java " + System.getProperty("java.version") + ", profile=true ignored");
+            }
+        }
+        if (getBooleanProperty("record-allocation") || MODE_PAYLOAD.equals(mode) || profiler != null) {
+            allocationMetrics = new AllocationMetrics();
+        }
+        if (getBooleanProperty("pool-controller")) {
+            poolController = new ExecutorPoolController(properties);
+        }
+        if (getBooleanProperty("exclusive-job-scheduler")) {
+            exclusiveJobScheduler = createExclusiveJobScheduler();
+        }
+        startupMetrics = new StartupMetrics();
+        if (getBooleanProperty("backpressure")) {
+            // What this JVM can see of the executors: its own executor engine, the embedded broker or the database
+            backPressure = new BackPressure(properties, MODE_LOCAL.equals(mode) ? BackPressure.BACKLOG_PENDING_JOBS
+                    : (MODE_LOCAL_MESSAGE.equals(mode) ? BackPressure.BACKLOG_JMS_QUEUE : BackPressure.BACKLOG_DB));
+        }
+        RandomDelegate.configure(getStringProperty("variable-write"), getintProperty("variable-write-count"));
+        DelegatePayload.configure(properties);
+        if (DelegatePayload.isEnabled()) {
+            System.out.println("Delegate : " + DelegatePayload.getDescription());
+        }
+
+        if (MODE_LOCAL.equals(mode) || MODE_LOCAL_MESSAGE.equals(mode)) {
+            LocalEnvironment.start(properties, MODE_LOCAL_MESSAGE.equals(mode));
+        }
+
+        if (MODE_VARIABLE_WRITE.equals(mode)) {
+            new VariableWriteBenchmark(properties).run();
+            System.exit(0);
+        }
+
+        if (MODE_PAYLOAD.equals(mode)) {
+            new PayloadBenchmark(properties).run();
+            System.exit(0);
+        }
+
+        if (MODE_AUTOSCALE.equals(mode)) {
+            LocalEnvironment.start(properties, MODE_MESSAGE_EXECUTOR.equals(getStringProperty("autoscale-executor")));
+            new PoolControllerBenchmark(properties).run();
+            System.exit(0);
+        }
+
+        if (MODE_HISTORY.equals(mode)) {
+            new HistoryLevelBenchmark(properties).run();
+            System.exit(0);
+        }
+
+        if (MODE_TIMER.equals(mode)) {
+            new TimerBenchmark(properties).run();
+            System.exit(0);
+        }
+
+        if (MODE_BACKPRESSURE.equals(mode)) {
+            LocalEnvironment.start(properties, MODE_MESSAGE_EXECUTOR.equals(getStringProperty("backpressure-executor")));
+            new BackPressureBenchmark(properties).run();
+            System.exit(0);
+        }
+
+        if (MODE_EXCLUSIVE.equals(mode)) {
+            LocalEnvironment.start(properties, MODE_MESSAGE_EXECUTOR.equals(getStringProperty("exclusive-executor")));
+            new ExclusiveJobBenchmark(properties).run();
+            System.exit(0);
+        }
+
+        if (MODE_JMS_TUNING.equals(mode)) {
+            LocalEnvironment.start(properties, true);
+            new JmsTuningBenchmark(properties).run();
+            System.exit(0);
+        }
+
+        if (MODE_BULK_START.equals(mode)) {
+            new BulkStartBenchmark(properties).run();
+            System.exit(0);
+        }
+
+        if (MODE_SWEEP.equals(mode)) {
+            LocalEnvironment.start(properties, MODE_MESSAGE_EXECUTOR.equals(getStringProperty("sweep-executor")));
+            new SaturationSweep(properties).run();
+            System.exit(0);
+        }
+
+        if (MODE_COORDINATOR.equals(mode)) {
+            LocalEnvironment.start(properties, MODE_MESSAGE_EXECUTOR.equals(getStringProperty("coordinator-executor-mode")));
+            new ExecutorCoordinator(properties).run();
+            System.exit(0);
+        }
+
+        long engineStart = System.currentTimeMillis();
+        boolean enableAsyncExecutor = getintProperty("async-executor-max-nr-threads") > 0
+                || (virtualThreads && (MODE_EXECUTOR.equals(mode) || MODE_LOCAL.equals(mode)));
+
+        // Completion can only be detected through events when jobs are executed in this JVM
+        boolean executesJobs = true;
 
         ProcessEngine processEngine = null;
         if (MODE_MESSAGE_PRODUCER.equals(mode)) {
 
             System.out.println("Message producer mode enabled");
             AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext(MyConfigMessageProducer.class);
+            applicationContexts.add(context);
             processEngine = context.getBean(ProcessEngine.class);
+            executesJobs = false;
 
         } else if (MODE_MESSAGE_EXECUTOR.equals(mode)) {
 
             System.out.println("Message executor mode enabled");
             AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext(MyConfigMessageExecutor.class);
+            applicationContexts.add(context);
             processEngine = context.getBean(ProcessEngine.class);
 
-        } else {
+        } else if (MODE_LOCAL_MESSAGE.equals(mode)) {
 
-            ProcessEngineConfiguration processEngineConfiguration = new StandaloneProcessEngineConfiguration();
-            processEngineConfiguration.setDataSource(createDateSource());
-            processEngineConfiguration.setDatabaseSchemaUpdate(getStringProperty("schema-update"));
+            // Executor context first, so the schema is created before the producer starts sending messages
+            System.out.println("Local message mode enabled (message executor + message producer in one JVM)");
+            applicationContexts.add(new AnnotationConfigApplicationContext(MyConfigMessageExecutor.class));
+            AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext(MyConfigMessageProducer.class);
+            applicationContexts.add(context);
+            processEngine = context.getBean(ProcessEngine.class);
 
-            ((ProcessEngineConfigurationImpl) processEngineConfiguration).setAsyncExecutorDefaultTimerJobAcquireWaitTime(1000);
-            ((ProcessEngineConfigurationImpl) processEngineConfiguration).setAsyncExecutorDefaultTimerJobAcquireWaitTime(5000);
+        } else if (MODE_LOCAL.equals(mode)) {
 
-            if (enableAsyncExecutor) {
-                System.out.println("Async executor is enabled");
-                processEngineConfiguration.setAsyncExecutorActivate(true);
+            System.out.println("Local mode enabled (executor + producer in one JVM)");
+            if (!enableAsyncExecutor) {
+                throw new RuntimeException("Local mode needs async-executor-max-nr-threads > 0");
+            }
+            localExecutorEngine = createProcessEngine(true);
+            processEngine = createProcessEngine(false);
 
-                int executorMaxPoolSize = getintProperty("async-executor-max-nr-threads");
-                System.out.println("Max nr of threads for async executor thread pool : " + executorMaxPoolSize);
-                ((ProcessEngineConfigurationImpl) processEngineConfiguration).setAsyncExecutorMaxPoolSize(executorMaxPoolSize);
+        } else {
 
-                int executorQueueSize = getintProperty("async-executor-queue-size");
-                System.out.println("Async executor queue size " + executorQueueSize);
-                ((ProcessEngineConfigurationImpl) processEngineConfiguration).setAsyncExecutorThreadPoolQueueSize(executorQueueSize);
-            }
+            processEngine = createProcessEngine(enableAsyncExecutor);
+            executesJobs = enableAsyncExecutor;
 
-            processEngine = processEngineConfiguration.buildProcessEngine();
         }
 
         System.out.println("Process engine ready.");
+        startupMetrics.engineReady(engineStart);
+        runLifecycle.tagDatabase(processEngine);
+        boolean cacheWarmUp = !"false".equals(getStringProperty("cache-warm-up"));
+        if (cacheWarmUp) {
+            startupMetrics.warmCaches(getProcessEngines(processEngine));
+        }
+        startMetrics(processEngine);
+
+        String coordinatorAddress = getStringProperty("coordinator-address");
+        if (coordinatorAddress != null && !"".equals(coordinatorAddress)) {
+            new CoordinatorAgent(properties.getProperty("node-id", "1"), coordinatorAddress).start();
+        }
         boolean startProcessInstances = numberOfProcessInstances > 0;
         if (startProcessInstances) {
             System.out.println("About to start process instances");
-            RepositoryService repositoryService = processEngine.getRepositoryService();
-            repositoryService.createDeployment().addClasspathResource("asyncProcess.bpmn20.xml").deploy();
+            workload.deploy(processEngine.getRepositoryService());
+            if (cacheWarmUp) {
+                // The executor engines of this JVM haven't seen the new deployment
+                startupMetrics.warmCaches(getProcessEngines(processEngine));
+            }
+            runLifecycle.warmUp(processEngine, executesJobs, expectedProcessInstances);
+            startProfiler();
+            if (backPressure != null) {
+                backPressure.start(processEngine);
+            }
             startProcessInstances(processEngine);
+        } else {
+            // An executor node, measured from the moment it is ready
+            startProfiler();
         }
 
-        PrintWriter printWriter = null;
         if (displayStats) {
             System.out.println("<Displaying stats enabled>");
-            File outputFile = new File("output.txt");
-            FileWriter fileWriter = new FileWriter(outputFile);
-            printWriter = new PrintWriter(fileWriter);
-
-            printWriter.println("timeStamp;nrOfProcessInstances;nrOfExecutions;nrOfTasks;nrOfAsyncJobs;nrOfTimerJobs;nrOfDeadLetterJobs;nrFinishedProcessInstances;nrFinishedTasks;nrOfFinishedHistoricActInstances");
         }
 
+        long statsInterval = getlongProperty("stats-interval", 30000L);
+        long completionPollInterval = getlongProperty("completion-poll-interval", 1000L);
+        long lastStatsTime = 0L;
+        long completionTime = 0L;
+
         boolean allDone = false;
         while (!allDone) {
 
-            if (displayStats) {
-
-                long nrOfProcessInstances = processEngine.getRuntimeService().createProcessInstanceQuery().count();
-                long nrOfExecutions = processEngine.getRuntimeService().createExecutionQuery().count();
-                long nrOfTasks = processEngine.getTaskService().createTaskQuery().count();
-                long nrOfAsyncJobs = processEngine.getManagementService().createJobQuery().count();
-                long nrOfTimerJobs = processEngine.getManagementService().createTimerJobQuery().count();
-                long nrDeadLetterJobs = processEngine.getManagementService().createDeadLetterJobQuery().count();
-                long nrCompletedHistoricActivities = processEngine.getHistoryService().createHistoricActivityInstanceQuery().finished().count();
-
-                long nrFinishedProcessInstances = processEngine.getHistoryService().createHistoricProcessInstanceQuery().finished().count();
-                long nrFinishedTasks = processEngine.getHistoryService().createHistoricTaskInstanceQuery().finished().count();
-
-                System.out.println();
-                System.out.println("------------------------------------------------");
-                Date timeStamp = new Date();
-                System.out.println("Timestamp: " + new Date());
-                System.out.println("Nr of process instances = " + nrOfProcessInstances);
-                System.out.println("Nr of executions = " + nrOfExecutions);
-                System.out.println("Nr of tasks = " + nrOfTasks);
-                System.out.println("Nr of async / timer / DL jobs : " + nrOfAsyncJobs + " / " + nrOfTimerJobs + " / " + nrDeadLetterJobs);
-                System.out.println("Nr of finished process instances = " + nrFinishedProcessInstances);
-                System.out.println("Nr of finished tasks = " + nrFinishedTasks);
-                System.out.println("Nr of finished historic activities = " + nrCompletedHistoricActivities);
-                System.out.println("------------------------------------------------");
-                System.out.println();
-
-                if (printWriter != null) {
-                    printWriter.println(timeStamp + ";"
-                            + nrOfProcessInstances + ";"
-                            + nrOfExecutions + ";"
-                            + nrOfTasks + ";"
-                            + nrOfAsyncJobs + ";"
-                            + nrOfTimerJobs + ";"
-                            + nrDeadLetterJobs + ";"
-                            + nrFinishedProcessInstances + ";"
-                            + nrFinishedTasks + ";"
-                            + nrCompletedHistoricActivities);
-                    printWriter.flush();
+            if (expectedProcessInstances <= 0) {
+                Thread.sleep(statsInterval);
+            } else if (executesJobs) {
+                allDone = eventListener.awaitCompletion(statsInterval);
+            } else {
+                // Jobs are executed by other JVMs, a single count query is the cheapest way to see they are done.
+                // expected-process-instances is the total of all producers, so the finished instances are counted
+                // in the history, which every node writes to.
+                Thread.sleep(completionPollInterval);
+                if (!"none".equals(getHistoryLevel())) {
+                    allDone = processEngine.getHistoryService().createHistoricProcessInstanceQuery().finished().count() >= expectedProcessInstances;
+                } else {
+                    // Without history only the runtime is left: the own starts are done and no instance is running anymore
+                    allDone = eventListener.getStartedProcessInstances() >= Math.min(expectedProcessInstances, numberOfProcessInstances)
+                            && processEngine.getRuntimeService().createProcessInstanceQuery().count() == 0;
                 }
+                completionTime = System.currentTimeMillis();
+            }
 
-                int expectedProcessInstances = getintProperty("expected-process-instances");
-                if (nrFinishedProcessInstances == expectedProcessInstances) {
-                    System.out.println("Conditions for stopping are met");
-                    allDone = true;
-                    processEngine.close();
-                }
+            if (displayStats && (allDone || System.currentTimeMillis() - lastStatsTime >= statsInterval)) {
+                printStats(processEngine);
+                lastStatsTime = System.currentTimeMillis();
             }
 
-            if ( numberOfProcessInstances < 0 || (numberOfProcessInstances > 0 && !allDone) ) {
-                Thread.sleep(30000L);
+            if (allDone) {
+                System.out.println("Conditions for stopping are met");
+                if (executesJobs) {
+                    completionTime = eventListener.getLastCompletionTime();
+                }
+                stopAsyncHistoryWriters();
+                if (poolController != null) {
+                    poolController.stop();
+                }
+                if (backPressure != null) {
+                    backPressure.stop();
+                }
+                if (metricsSampler != null) {
+                    metricsSampler.stop();
+                    System.out.println("Metrics written to " + metricsSampler.getExporters());
+                }
+                if (profiler != null) {
+                    profiler.stop();
+                }
+                processEngine.close();
             }
         }
 
         System.out.println("All process instances finished.");
+        System.out.println("History level = " + getHistoryLevel() + (isAsyncHistory() ? " (async)" : ""));
 
-        Date startTime = processEngine.getHistoryService().createHistoricActivityInstanceQuery()
-                .orderByHistoricActivityInstanceStartTime().asc().listPage(0, 1).get(0).getStartTime();
-        Date endTime = processEngine.getHistoryService().createHistoricActivityInstanceQuery()
-                .orderByHistoricActivityInstanceEndTime().desc().listPage(0, 1).get(0).getStartTime();
-        long diff = endTime.getTime() - startTime.getTime();
+        // From the first engine event (start of the first process instance) to the completion of the last one,
+        // so independent of the history level
+        long diff = completionTime - eventListener.getFirstEventTime();
         System.out.println("Time = " + diff + " ms");
         double avg = (double) diff / (double) numberOfProcessInstances;
         System.out.println("Avg time = " + avg + " ms");
         double throughput = 1000.0 / avg;
         System.out.println("Throughput = " + throughput + " process instances / second");
 
-        int nrOfAsyncStepsInProcess = numberOfProcessInstances * 27; // 27 async jobs in process
-        System.out.println("Number of executed async jobs = " + nrOfAsyncStepsInProcess);
-        double jobsThroughput = 1000.0/ ((double) diff / (double) nrOfAsyncStepsInProcess);
-        System.out.println("Throughput = " + jobsThroughput + " jobs / second");
+        if (workload.getJobsPerInstance() > 0) {
+            int nrOfAsyncStepsInProcess = numberOfProcessInstances * workload.getJobsPerInstance();
+            System.out.println("Number of executed async jobs = " + nrOfAsyncStepsInProcess + " (" + workload.getJobsPerInstance() + " per process instance)");
+            double jobsThroughput = 1000.0/ ((double) diff / (double) nrOfAsyncStepsInProcess);
+            System.out.println("Throughput = " + jobsThroughput + " jobs / second");
+        }
+
+        if (eventListener.getCompletedProcessInstances() > 0) {
+            System.out.println("Completed process instances / executed jobs / failed jobs : "
+                    + eventListener.getCompletedProcessInstances() + " / " + eventListener.getExecutedJobs() + " / " + eventListener.getFailedJobs());
+            System.out.println("Throughput (from engine events) = " + (1000.0 * eventListener.getExecutedJobs() / diff) + " jobs / second");
+        }
+        runLifecycle.writeResult(mode, eventListener.getCompletedProcessInstances() > 0 ? eventListener.getCompletedProcessInstances() : numberOfProcessInstances,
+                eventListener.getExecutedJobs() > 0 ? eventListener.getExecutedJobs() : (long) numberOfProcessInstances * Math.max(workload.getJobsPerInstance(), 0), diff);
+
+        if (jobLatencyRecorder != null && (jobLatencyRecorder.hasSamples() || jobLatencyRecorder.hasConflicts())) {
+            jobLatencyRecorder.printConflictReport(System.out);
+            jobLatencyRecorder.exportConflictCsv(new File("job-conflicts.csv"));
+            System.out.println("Job conflicts written to job-conflicts.csv");
+        }
+
+        if (dbRowCounter != null) {
+            System.out.println("Variable write : " + RandomDelegate.getVariableWrite());
+            dbRowCounter.printReport(System.out, eventListener.getExecutedJobs());
+        }
+
+        if (allocationMetrics != null && allocationMetrics.hasSamples()) {
+            allocationMetrics.printReport(System.out, eventListener.getExecutedJobs());
+        }
+
+        if (profiler != null) {
+            profiler.printReport(System.out, eventListener.getExecutedJobs());
+        }
+
+        if (openLoopLoadGenerator != null) {
+            openLoopLoadGenerator.printReport(System.out);
+        }
+
+        if (poolController != null) {
+            poolController.printReport(System.out);
+        }
+
+        if (jobAcquisitionMetrics != null && jobAcquisitionMetrics.hasQueries()) {
+            jobAcquisitionMetrics.printReport(System.out);
+        }
+
+        if (timerMetrics != null && timerMetrics.hasTimers()) {
+            timerMetrics.printReport(System.out);
+        }
+
+        if (exclusiveJobScheduler != null) {
+            exclusiveJobScheduler.printReport(System.out);
+        }
+
+        if (backPressure != null) {
+            backPressure.printReport(System.out);
+        }
+
+        startupMetrics.printReport(System.out);
+
+        if (jobLatencyRecorder != null && jobLatencyRecorder.hasSamples()) {
+            jobLatencyRecorder.printReport(System.out);
+            jobLatencyRecorder.exportCsv(new File("job-latency.csv"));
+            System.out.println("Job latencies written to job-latency.csv");
+        }
 
         System.exit(0);
     }
 
-    private static void loadProperties() throws IOException {
+    private static void printStats(ProcessEngine processEngine) {
+        long nrOfProcessInstances = processEngine.getRuntimeService().createProcessInstanceQuery().count();
+        long nrOfExecutions = processEngine.getRuntimeService().createExecutionQuery().count();
+        long nrOfTasks = processEngine.getTaskService().createTaskQuery().count();
+        long nrOfAsyncJobs = processEngine.getManagementService().createJobQuery().count();
+        long nrOfTimerJobs = processEngine.getManagementService().createTimerJobQuery().count();
+        long nrDeadLetterJobs = processEngine.getManagementService().createDeadLetterJobQuery().count();
+        long nrCompletedHistoricActivities = processEngine.getHistoryService().createHistoricActivityInstanceQuery().finished().count();
+
+        long nrFinishedProcessInstances = processEngine.getHistoryService().createHistoricProcessInstanceQuery().finished().count();
+        long nrFinishedTasks = processEngine.getHistoryService().createHistoricTaskInstanceQuery().finished().count();
+
+        System.out.println();
+        System.out.println("------------------------------------------------");
+        System.out.println("Timestamp: " + new Date());
+        System.out.println("Nr of process instances = " + nrOfProcessInstances);
+        System.out.println("Nr of executions = " + nrOfExecutions);
+        System.out.println("Nr of tasks = " + nrOfTasks);
+        System.out.println("Nr of async / timer / DL jobs : " + nrOfAsyncJobs + " / " + nrOfTimerJobs + " / " + nrDeadLetterJobs);
+        System.out.println("Nr of finished process instances = " + nrFinishedProcessInstances);
+        System.out.println("Nr of finished tasks = " + nrFinishedTasks);
+        System.out.println("Nr of finished historic activities = " + nrCompletedHistoricActivities);
+        System.out.println("Nr of completed process instances / executed jobs (events) = " + eventListener.getCompletedProcessInstances() + " / " + eventListener.getExecutedJobs());
+        System.out.println("------------------------------------------------");
+        System.out.println();
+
+    }
+
+    /**
+     * Samples the executor, connection pool, JMS and completion metrics every metrics-interval ms and streams them to
+     * the metrics-exporters (csv, binary, prometheus). The job tables are counted every metrics-query-interval ms.
+     * By default only enabled together with display-stats, as a csv file.
+     */
+    private static void startMetrics(final ProcessEngine processEngine) throws Exception {
+        String exporters = getStringProperty("metrics-exporters");
+        if (exporters == null) {
+            exporters = displayStats ? "csv" : "";
+        }
+        if ("".equals(exporters.trim())) {
+            return;
+        }
+
+        metricsSampler = new MetricsSampler();
+        String metricsFile = properties.getProperty("metrics-file", "metrics");
+        for (String exporter : exporters.split(",")) {
+            exporter = exporter.trim();
+            if ("csv".equals(exporter)) {
+                metricsSampler.addExporter(new CsvMetricsExporter(new File(metricsFile + ".csv")));
+            } else if ("binary".equals(exporter)) {
+                metricsSampler.addExporter(new BinaryMetricsExporter(new File(metricsFile + ".bin")));
+            } else if ("prometheus".equals(exporter)) {
+                metricsSampler.addExporter(new PrometheusMetricsExporter((int) getlongProperty("metrics-prometheus-port", 9404L)));
+            } else {
+                throw new RuntimeException("Unknown metrics exporter " + exporter);
+            }
+        }
+
+        metricsSampler.addGauge("activiti_process_instances_started_total", new MetricsSampler.Gauge() {
+            public long getValue() {
+                return eventListener.getStartedProcessInstances();
+            }
+        });
+        metricsSampler.addGauge("activiti_process_instances_completed_total", new MetricsSampler.Gauge() {
+            public long getValue() {
+                return eventListener.getCompletedProcessInstances();
+            }
+        });
+        metricsSampler.addGauge("activiti_jobs_executed_total", new MetricsSampler.Gauge() {
+            public long getValue() {
+                return eventListener.getExecutedJobs();
+            }
+        });
+        metricsSampler.addGauge("activiti_jobs_failed_total", new MetricsSampler.Gauge() {
+            public long getValue() {
+                return eventListener.getFailedJobs();
+            }
+        });
+
+        for (final DefaultAsyncJobExecutor asyncExecutor : asyncExecutors) {
+            metricsSampler.addGauge("activiti_async_executor_active_threads", new MetricsSampler.Gauge() {
+                public long getValue() {
+                    ExecutorService executorService = asyncExecutor.getExecutorService();
+                    if (executorService instanceof VirtualThreadExecutorService) {
+                        return ((VirtualThreadExecutorService) executorService).getRunningTasks();
+                    }
+                    return ((ThreadPoolExecutor) executorService).getActiveCount();
+                }
+            });
+            metricsSampler.addGauge("activiti_async_executor_queued_jobs", new MetricsSampler.Gauge() {
+                public long getValue() {
+                    ExecutorService executorService = asyncExecutor.getExecutorService();
+                    if (executorService instanceof VirtualThreadExecutorService) {
+                        return ((VirtualThreadExecutorService) executorService).getWaitingTasks();
+                    }
+                    return ((ThreadPoolExecutor) executorService).getQueue().size();
+                }
+            });
+        }
+
+        for (final ConnectionPoolMetrics pool : ConnectionPoolMetrics.getAllPools()) {
+            String prefix = "activiti_pool_" + pool.getPoolName().replace('-', '_');
+            metricsSampler.addGauge(prefix + "_active_connections", new MetricsSampler.Gauge() {
+                public long getValue() {
+                    return pool.getActiveConnections();
+                }
+            });
+            metricsSampler.addGauge(prefix + "_idle_connections", new MetricsSampler.Gauge() {
+                public long getValue() {
+                    return pool.getIdleConnections();
+                }
+            });
+            metricsSampler.addGauge(prefix + "_pending_threads", new MetricsSampler.Gauge() {
+                public long getValue() {
+                    return pool.getPendingThreads();
+                }
+            });
+            metricsSampler.addGauge(prefix + "_connection_timeouts_total", new MetricsSampler.Gauge() {
+                public long getValue() {
+                    return pool.getConnectionTimeouts();
+                }
+            });
+        }
+
+        for (AnnotationConfigApplicationContext context : applicationContexts) {
+            for (final DefaultMessageListenerContainer messageListenerContainer : context.getBeansOfType(DefaultMessageListenerContainer.class).values()) {
+                metricsSampler.addGauge("activiti_jms_active_consumers", new MetricsSampler.Gauge() {
+                    public long getValue() {
+                        return messageListenerContainer.getActiveConsumerCount();
+                    }
+                });
+            }
+        }
+        if (LocalEnvironment.getBrokerService() != null) {
+            final String queue = getStringProperty("queue");
+            metricsSampler.addGauge("activiti_jms_queue_depth", new MetricsSampler.Gauge() {
+                public long getValue() {
+                    try {
+                        return LocalEnvironment.getQueueSize(queue);
+                    } catch (Exception e) {
+                        return -1L;
+                    }
+                }
+            });
+        }
+
+        final ManagementService managementService = processEngine.getManagementService();
+        metricsSampler.addQueryGauge("activiti_async_jobs", new MetricsSampler.Gauge() {
+            public long getValue() {
+                return managementService.createJobQuery().count();
+            }
+        });
+        metricsSampler.addQueryGauge("activiti_timer_jobs", new MetricsSampler.Gauge() {
+            public long getValue() {
+                return managementService.createTimerJobQuery().count();
+            }
+        });
+        metricsSampler.addQueryGauge("activiti_dead_letter_jobs", new MetricsSampler.Gauge() {
+            public long getValue() {
+                return managementService.createDeadLetterJobQuery().count();
+            }
+        });
+
+        metricsSampler.start(getlongProperty("metrics-interval", 250L), getlongProperty("metrics-query-interval", 5000L));
+        System.out.println("Metrics sampled every " + getlongProperty("metrics-interval", 250L) + " ms to " + metricsSampler.getExporters());
+    }
+
+    private static void loadProperties(String[] args) throws IOException {
         properties = new Properties();
         URL location = Main.class.getProtectionDomain().getCodeSource().getLocation();
         String propertyLocation = location.getPath().replace("asyncexecutor-1.0-SNAPSHOT.jar", "") + "config.properties";
         System.out.println("Reading config from " + propertyLocation);
         FileInputStream fis = new FileInputStream(propertyLocation);
         properties.load(fis);
-        System.out.println(properties);
         fis.close();
+
+        // key=value arguments override config.properties, eg. for the executor nodes started by the coordinator
+        for (String arg : args) {
+            int index = arg.indexOf('=');
+            if (index > 0) {
+                properties.setProperty(arg.substring(0, index), arg.substring(index + 1));
+            }
+        }
+        System.out.println(properties);
     }
 
     private static String getStringProperty(String s) {
         return properties.getProperty(s);
     }
 
+    static ExclusiveJobScheduler createExclusiveJobScheduler() {
+        int stripes = getintProperty("exclusive-job-scheduler-stripes");
+        System.out.println("Exclusive jobs of a process instance run one after another in this JVM");
+        return new ExclusiveJobScheduler(stripes > 0 ? stripes : 64);
+    }
+
     private static boolean getBooleanProperty(String s) {
         String value = properties.getProperty(s);
         if (value != null) {
@@ -214,7 +648,280 @@ public class Main {
         return -1;
     }
 
-    private static DataSource createDateSource() {
+    private static long getlongProperty(String s, long defaultValue) {
+        String value = properties.getProperty(s);
+        if (value != null && !"".equals(value)) {
+            return Long.valueOf(value);
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Nr of jobs that can run at the same time on virtual threads: virtual-thread-max-concurrency, or half of the
+     * connection pool. A job can hold two connections at once (new async jobs are handed over in a nested command
+     * after commit) and the acquisition threads need connections too, so running as many jobs as there are
+     * connections starves the pool.
+     */
+    static int getVirtualThreadMaxConcurrency() {
+        String value = getStringProperty("virtual-thread-max-concurrency");
+        if (value != null && !"".equals(value)) {
+            return Integer.valueOf(value);
+        }
+        String maxPoolSize = getStringProperty("connections-max");
+        if (maxPoolSize != null && !"".equals(maxPoolSize)) {
+            return Math.max(Integer.valueOf(maxPoolSize) / 2, 1);
+        }
+        return 50;
+    }
+
+    /**
+     * Starts the JFR recording of the measured window, when profile=true. The allocation counters start with it.
+     */
+    private static void startProfiler() {
+        if (profiler != null) {
+            allocationMetrics.reset();
+            profiler.start();
+        }
+    }
+
+    /**
+     * @return the given engine and the executor engine of the local modes
+     */
+    private static List<ProcessEngine> getProcessEngines(ProcessEngine processEngine) {
+        List<ProcessEngine> processEngines = new ArrayList<ProcessEngine>();
+        processEngines.add(processEngine);
+        if (localExecutorEngine != null) {
+            processEngines.add(localExecutorEngine);
+        }
+        for (AnnotationConfigApplicationContext context : applicationContexts) {
+            ProcessEngine contextEngine = context.getBean(ProcessEngine.class);
+            if (!processEngines.contains(contextEngine)) {
+                processEngines.add(contextEngine);
+            }
+        }
+        return processEngines;
+    }
+
+    static ProcessEngine createProcessEngine(boolean enableAsyncExecutor) {
+        ProcessEngineConfiguration processEngineConfiguration = new StandaloneProcessEngineConfiguration();
+        processEngineConfiguration.setDataSource(createDateSource(enableAsyncExecutor ? "executor" : "producer"));
+        processEngineConfiguration.setDatabaseSchemaUpdate(runLifecycle != null
+                ? runLifecycle.resetSchema(processEngineConfiguration.getDataSource()) : getStringProperty("schema-update"));
+        configureBulkInsert((ProcessEngineConfigurationImpl) processEngineConfiguration);
+        configureHistory((ProcessEngineConfigurationImpl) processEngineConfiguration);
+        configureVariables((ProcessEngineConfigurationImpl) processEngineConfiguration);
+        eventListener.register((ProcessEngineConfigurationImpl) processEngineConfiguration);
+        if (jobLatencyRecorder != null) {
+            jobLatencyRecorder.register((ProcessEngineConfigurationImpl) processEngineConfiguration, enableAsyncExecutor);
+        }
+        if (dbRowCounter != null) {
+            dbRowCounter.register((ProcessEngineConfigurationImpl) processEngineConfiguration);
+        }
+        if (jobAcquisitionMetrics != null) {
+            jobAcquisitionMetrics.register((ProcessEngineConfigurationImpl) processEngineConfiguration);
+        }
+        if (timerMetrics != null) {
+            timerMetrics.register((ProcessEngineConfigurationImpl) processEngineConfiguration, enableAsyncExecutor);
+        }
+        if (startupMetrics != null) {
+            startupMetrics.register((ProcessEngineConfigurationImpl) processEngineConfiguration);
+        }
+        if (backPressure != null) {
+            backPressure.register((ProcessEngineConfigurationImpl) processEngineConfiguration);
+        }
+        configureJobAcquisition((ProcessEngineConfigurationImpl) processEngineConfiguration, 5000);
+
+        if (enableAsyncExecutor) {
+            System.out.println("Async executor is enabled");
+            processEngineConfiguration.setAsyncExecutorActivate(true);
+            ((ProcessEngineConfigurationImpl) processEngineConfiguration).setAsyncExecutor(
+                    createAsyncExecutor((ProcessEngineConfigurationImpl) processEngineConfiguration));
+        }
+
+        return processEngineConfiguration.buildProcessEngine();
+    }
+
+    /**
+     * With serializable-track-deserialized-objects=false a deserialized Serializable variable is only written back
+     * when it is set again, instead of comparing its bytes at every flush (engine default true).
+     */
+    static void configureVariables(ProcessEngineConfigurationImpl processEngineConfiguration) {
+        String trackDeserializedObjects = getStringProperty("serializable-track-deserialized-objects");
+        if (trackDeserializedObjects != null && !"".equals(trackDeserializedObjects)) {
+            processEngineConfiguration.setSerializableVariableTypeTrackDeserializedObjects(Boolean.valueOf(trackDeserializedObjects));
+        }
+    }
+
+    /**
+     * The engine flushes the inserts of a transaction as multi-row inserts of at most bulk-insert-max-statements rows.
+     */
+    static void configureBulkInsert(ProcessEngineConfigurationImpl processEngineConfiguration) {
+        processEngineConfiguration.setBulkInsertEnabled(!"false".equals(getStringProperty("bulk-insert-enabled")));
+        int maxStatementsInBulkInsert = getintProperty("bulk-insert-max-statements");
+        if (maxStatementsInBulkInsert > 0) {
+            processEngineConfiguration.setMaxNrOfStatementsInBulkInsert(maxStatementsInBulkInsert);
+        }
+    }
+
+    /**
+     * Job acquisition of the async executor, engine defaults unless set:
+     * async-executor-max-async-jobs-per-acquisition / async-executor-max-timer-jobs-per-acquisition (jobs locked per query, 1),
+     * async-executor-async-job-acquire-wait-time / async-executor-timer-job-acquire-wait-time (ms to wait after a query that
+     * found fewer jobs than the max, 10000 / defaultTimerJobAcquireWaitTime), async-executor-queue-full-wait-time (ms to wait
+     * when the executor queue is full, 0), async-executor-async-job-lock-time / async-executor-timer-lock-time (ms a job stays
+     * locked by this executor, 300000), async-executor-lock-owner (a random UUID) and async-job-retry-wait-time (seconds
+     * before a failed job is retried, 10).
+     */
+    static void configureJobAcquisition(ProcessEngineConfigurationImpl processEngineConfiguration, int defaultTimerJobAcquireWaitTime) {
+        processEngineConfiguration.setAsyncExecutorMaxAsyncJobsDuePerAcquisition((int) getlongProperty("async-executor-max-async-jobs-per-acquisition",
+                processEngineConfiguration.getAsyncExecutorMaxAsyncJobsDuePerAcquisition()));
+        processEngineConfiguration.setAsyncExecutorMaxTimerJobsPerAcquisition((int) getlongProperty("async-executor-max-timer-jobs-per-acquisition",
+                processEngineConfiguration.getAsyncExecutorMaxTimerJobsPerAcquisition()));
+        processEngineConfiguration.setAsyncExecutorDefaultAsyncJobAcquireWaitTime((int) getlongProperty("async-executor-async-job-acquire-wait-time",
+                processEngineConfiguration.getAsyncExecutorDefaultAsyncJobAcquireWaitTime()));
+        processEngineConfiguration.setAsyncExecutorDefaultTimerJobAcquireWaitTime((int) getlongProperty("async-executor-timer-job-acquire-wait-time",
+                defaultTimerJobAcquireWaitTime));
+        processEngineConfiguration.setAsyncExecutorDefaultQueueSizeFullWaitTime((int) getlongProperty("async-executor-queue-full-wait-time",
+                processEngineConfiguration.getAsyncExecutorDefaultQueueSizeFullWaitTime()));
+        processEngineConfiguration.setAsyncExecutorAsyncJobLockTimeInMillis((int) getlongProperty("async-executor-async-job-lock-time",
+                processEngineConfiguration.getAsyncExecutorAsyncJobLockTimeInMillis()));
+        processEngineConfiguration.setAsyncExecutorTimerLockTimeInMillis((int) getlongProperty("async-executor-timer-lock-time",
+                processEngineConfiguration.getAsyncExecutorTimerLockTimeInMillis()));
+        String lockOwner = getStringProperty("async-executor-lock-owner");
+        if (lockOwner != null && !"".equals(lockOwner)) {
+            processEngineConfiguration.setAsyncExecutorLockOwner(lockOwner);
+        }
+        int retryWaitTime = (int) getlongProperty("async-job-retry-wait-time", -1L);
+        if (retryWaitTime >= 0) {
+            processEngineConfiguration.setAsyncFailedJobWaitTime(retryWaitTime);
+            processEngineConfiguration.setDefaultFailedJobWaitTime(retryWaitTime);
+        }
+    }
+
+    /**
+     * history-level (none, activity, audit or full, default audit) is the history level of the engine.
+     * With history-mode=async, the historic entities are written by an {@link AsyncHistoryWriter} instead of in the transactions.
+     */
+    static void configureHistory(ProcessEngineConfigurationImpl processEngineConfiguration) {
+        processEngineConfiguration.setHistory(getHistoryLevel());
+        if (isAsyncHistory()) {
+            AsyncHistoryWriter asyncHistoryWriter = new AsyncHistoryWriter((int) getlongProperty("async-history-batch-size", 500L),
+                    getlongProperty("async-history-flush-interval", 100L));
+            asyncHistoryWriter.register(processEngineConfiguration);
+            synchronized (asyncHistoryWriters) {
+                asyncHistoryWriters.add(asyncHistoryWriter);
+            }
+        }
+    }
+
+    static String getHistoryLevel() {
+        String historyLevel = getStringProperty("history-level");
+        return historyLevel != null && !"".equals(historyLevel) ? historyLevel : "audit";
+    }
+
+    static boolean isAsyncHistory() {
+        return "async".equals(getStringProperty("history-mode"));
+    }
+
+    /**
+     * @return the lookups of historic rows that were still buffered by the async history writers, their updates are lost
+     */
+    static long getAsyncHistoryMissedLookups() {
+        long missedLookups = 0L;
+        synchronized (asyncHistoryWriters) {
+            for (AsyncHistoryWriter asyncHistoryWriter : asyncHistoryWriters) {
+                missedLookups += asyncHistoryWriter.getMissedLookups();
+            }
+        }
+        return missedLookups;
+    }
+
+    /**
+     * Writes the history still buffered by the async history writers and stops them.
+     *
+     * @return the time it took in ms
+     */
+    static long stopAsyncHistoryWriters() throws InterruptedException {
+        long start = System.currentTimeMillis();
+        synchronized (asyncHistoryWriters) {
+            for (AsyncHistoryWriter asyncHistoryWriter : asyncHistoryWriters) {
+                asyncHistoryWriter.stop();
+                asyncHistoryWriter.printReport(System.out);
+            }
+            asyncHistoryWriters.clear();
+        }
+        long duration = System.currentTimeMillis() - start;
+        if (isAsyncHistory()) {
+            System.out.println("Async history flushed in " + duration + " ms after the last process instance completed");
+        }
+        return duration;
+    }
+
+    private static DefaultAsyncJobExecutor createAsyncExecutor(ProcessEngineConfigurationImpl processEngineConfiguration) {
+        // When an async executor is set, the engine doesn't copy the asyncExecutor* settings from the configuration
+        DefaultAsyncJobExecutor asyncExecutor = new DefaultAsyncJobExecutor();
+        asyncExecutor.setMaxAsyncJobsDuePerAcquisition(processEngineConfiguration.getAsyncExecutorMaxAsyncJobsDuePerAcquisition());
+        asyncExecutor.setMaxTimerJobsPerAcquisition(processEngineConfiguration.getAsyncExecutorMaxTimerJobsPerAcquisition());
+        asyncExecutor.setDefaultAsyncJobAcquireWaitTimeInMillis(processEngineConfiguration.getAsyncExecutorDefaultAsyncJobAcquireWaitTime());
+        asyncExecutor.setDefaultTimerJobAcquireWaitTimeInMillis(processEngineConfiguration.getAsyncExecutorDefaultTimerJobAcquireWaitTime());
+        asyncExecutor.setDefaultQueueSizeFullWaitTimeInMillis(processEngineConfiguration.getAsyncExecutorDefaultQueueSizeFullWaitTime());
+        asyncExecutor.setAsyncJobLockTimeInMillis(processEngineConfiguration.getAsyncExecutorAsyncJobLockTimeInMillis());
+        asyncExecutor.setTimerLockTimeInMillis(processEngineConfiguration.getAsyncExecutorTimerLockTimeInMillis());
+        if (processEngineConfiguration.getAsyncExecutorLockOwner() != null) {
+            asyncExecutor.setLockOwner(processEngineConfiguration.getAsyncExecutorLockOwner());
+        }
+        System.out.println("Async executor acquires " + asyncExecutor.getMaxAsyncJobsDuePerAcquisition() + " async jobs per query, waiting "
+                + asyncExecutor.getDefaultAsyncJobAcquireWaitTimeInMillis() + " ms when fewer are due");
+
+        if (virtualThreads) {
+            int executorQueueSize = getintProperty("async-executor-queue-size");
+            asyncExecutor.setExecutorService(new VirtualThreadExecutorService("activiti-async-job-vthread-",
+                    getVirtualThreadMaxConcurrency(), executorQueueSize > 0 ? executorQueueSize : 100));
+
+        } else {
+            int executorMaxPoolSize = getintProperty("async-executor-max-nr-threads");
+            System.out.println("Max nr of threads for async executor thread pool : " + executorMaxPoolSize);
+            asyncExecutor.setMaxPoolSize(executorMaxPoolSize);
+
+            // The queue is bounded, threads above the core size (engine default 2) only start once it is full
+            int executorCorePoolSize = getintProperty("async-executor-core-nr-threads");
+            if (executorCorePoolSize > 0) {
+                System.out.println("Core nr of threads for async executor thread pool : " + executorCorePoolSize);
+                asyncExecutor.setCorePoolSize(Math.min(executorCorePoolSize, executorMaxPoolSize));
+            }
+
+            int executorQueueSize = getintProperty("async-executor-queue-size");
+            System.out.println("Async executor queue size " + executorQueueSize);
+            asyncExecutor.setQueueSize(executorQueueSize);
+        }
+
+        ExecuteAsyncRunnableFactory executeAsyncRunnableFactory = jobLatencyRecorder;
+        if (jobAcquisitionMetrics != null) {
+            executeAsyncRunnableFactory = jobAcquisitionMetrics.wrap(executeAsyncRunnableFactory);
+        }
+        if (allocationMetrics != null) {
+            executeAsyncRunnableFactory = allocationMetrics.wrap(executeAsyncRunnableFactory);
+        }
+        if (exclusiveJobScheduler != null) {
+            // Outermost, a queued job is only timed from the moment it runs
+            executeAsyncRunnableFactory = exclusiveJobScheduler.wrap(executeAsyncRunnableFactory);
+        }
+        if (executeAsyncRunnableFactory != null) {
+            asyncExecutor.setExecuteAsyncRunnableFactory(executeAsyncRunnableFactory);
+        }
+
+        if (poolController != null && !virtualThreads) {
+            poolController.addAsyncExecutor(asyncExecutor, "executor");
+        }
+        if (backPressure != null) {
+            backPressure.addAsyncExecutor(asyncExecutor);
+        }
+
+        asyncExecutors.add(asyncExecutor);
+        return asyncExecutor;
+    }
+
+    private static DataSource createDateSource(String poolName) {
 
         String jdbcUrl = getStringProperty("jdbc-url");
         System.out.println("Jdbc url " + jdbcUrl);
@@ -231,6 +938,8 @@ public class Main {
         }
 
         HikariDataSource dataSource = new HikariDataSource();
+        dataSource.setPoolName(poolName);
+        dataSource.setMetricsTrackerFactory(new ConnectionPoolMetrics());
         dataSource.setJdbcUrl(jdbcUrl);
         dataSource.setDriverClassName(jdbcDriver);
         dataSource.setUsername(jdbcUsername);
@@ -258,7 +967,24 @@ public class Main {
         return dataSource;
     }
 
-    private static void startProcessInstances(final ProcessEngine processEngine) {
+    private static void startProcessInstances(ProcessEngine processEngine) {
+        if (startBatchSize > 1) {
+            startProcessInstancesInBatches(localExecutorEngine != null ? localExecutorEngine : processEngine);
+            return;
+        }
+
+        if ("open-loop".equals(getStringProperty("start-mode"))) {
+            OpenLoopLoadGenerator.LoadProfile loadProfile = OpenLoopLoadGenerator.createLoadProfile(properties);
+            System.out.println("Open loop start of process instances, load profile " + loadProfile);
+            openLoopLoadGenerator = new OpenLoopLoadGenerator(numberOfProcessInstances, getintProperty("start-process-instance-threads"), loadProfile, new Runnable() {
+                public void run() {
+                    startProcessInstance(processEngine);
+                }
+            });
+            openLoopLoadGenerator.start();
+            return;
+        }
+
         ExecutorService executorService = Executors.newFixedThreadPool(getintProperty("start-process-instance-threads"));
         for (int i=0; i<numberOfProcessInstances; i++) {
             executorService.submit(new Runnable() {
@@ -269,14 +995,67 @@ public class Main {
                         e.printStackTrace();
                     }
 
-                    Map<String, Object> vars = new HashMap<String, Object>();
-                    vars.put("input1", random.nextInt(1000));
-                    vars.put("input2", random.nextInt(5000));
-                    processEngine.getRuntimeService().startProcessInstanceByKey("AsyncProcess", vars);
+                    startProcessInstance(processEngine);
                 }
             });
         }
 
     }
 
+    /**
+     * Starts the process instances in batches of start-batch-size, each batch in one transaction.
+     * In local mode the batches are started on the executor engine, so the new jobs are handed to its async executor
+     * when the batch commits instead of waiting for the next acquisition.
+     */
+    private static void startProcessInstancesInBatches(final ProcessEngine processEngine) {
+        System.out.println("Starting process instances in batches of " + startBatchSize);
+        ExecutorService executorService = Executors.newFixedThreadPool(getintProperty("start-process-instance-threads"));
+        for (int i = 0; i < numberOfProcessInstances; i += startBatchSize) {
+            final int count = Math.min(startBatchSize, numberOfProcessInstances - i);
+            executorService.submit(new Runnable() {
+                public void run() {
+                    try {
+                        Thread.sleep(delayBetweenProcessInstanceStart);
+                        startProcessInstances(processEngine, count);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+        }
+        executorService.shutdown();
+    }
+
+    static void startProcessInstances(ProcessEngine processEngine, int count) {
+        if (count == 1) {
+            startProcessInstance(processEngine);
+            return;
+        }
+        List<Map<String, Object>> variables = new ArrayList<Map<String, Object>>(count);
+        for (int i = 0; i < count; i++) {
+            variables.add(workload.createVariables(random));
+        }
+        BackPressure startBackPressure = backPressure;
+        long reservation = startBackPressure != null ? startBackPressure.await(count) : 0L;
+        try {
+            processEngine.getManagementService().executeCommand(new BulkStartProcessInstancesCmd(workload.getProcessDefinitionKey(), variables));
+        } finally {
+            if (startBackPressure != null) {
+                startBackPressure.release(reservation);
+            }
+        }
+    }
+
+    static void startProcessInstance(ProcessEngine processEngine) {
+        BackPressure startBackPressure = backPressure;
+        long reservation = startBackPressure != null ? startBackPressure.await(1) : 0L;
+        try {
+            processEngine.getRuntimeService().startProcessInstanceByKey(workload.getProcessDefinitionKey(), workload.createVariables(random));
+        } finally {
+            if (startBackPressure != null) {
+                startBackPressure.release(reservation);
+            }
+        }
+    }
+
 }
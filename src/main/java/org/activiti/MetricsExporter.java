@@ -0,0 +1,22 @@
+package org.activiti;
+
+import java.io.IOException;
+
+/**
+ * Receives every sample taken by the {@link MetricsSampler}.
+ *
+ * The values array is reused for every sample: an exporter that keeps values around has to copy them.
+ */
+public interface MetricsExporter {
+
+    void open(String[] names) throws IOException;
+
+    /**
+     * @param timestamp epoch millis at which the sample was taken
+     * @param values the values, in the order of the names given to {@link #open(String[])}
+     */
+    void export(long timestamp, long[] values) throws IOException;
+
+    void close() throws IOException;
+
+}
@@ -0,0 +1,138 @@
+package org.activiti;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples all gauges at a fixed interval (metrics-interval, eg. 250 ms) and hands them to the exporters.
+ *
+ * Gauges are expected to be cheap (counters, pool statistics). Gauges that need a database query are registered
+ * with {@link #addQueryGauge(String, Gauge)}: they are refreshed on their own thread at the (slower) query interval,
+ * the sampler exports the last value, so a slow query never delays the samples.
+ */
+public class MetricsSampler {
+
+    public interface Gauge {
+
+        long getValue();
+
+    }
+
+    private final List<String> names = new ArrayList<String>();
+    private final List<Gauge> gauges = new ArrayList<Gauge>();
+    private final List<String> queryGaugeNames = new ArrayList<String>();
+    private final List<Gauge> queryGauges = new ArrayList<Gauge>();
+    private final List<MetricsExporter> exporters = new ArrayList<MetricsExporter>();
+
+    private ScheduledExecutorService scheduler;
+    private long[] values;
+    private volatile long[] queryValues;
+    private boolean closed;
+
+    public void addGauge(String name, Gauge gauge) {
+        names.add(name);
+        gauges.add(gauge);
+    }
+
+    public void addQueryGauge(String name, Gauge gauge) {
+        queryGaugeNames.add(name);
+        queryGauges.add(gauge);
+    }
+
+    public void addExporter(MetricsExporter exporter) {
+        exporters.add(exporter);
+    }
+
+    public List<MetricsExporter> getExporters() {
+        return exporters;
+    }
+
+    public synchronized void start(long intervalMillis, long queryIntervalMillis) throws Exception {
+        List<String> allNames = new ArrayList<String>(names);
+        allNames.addAll(queryGaugeNames);
+        values = new long[allNames.size()];
+        queryValues = new long[queryGauges.size()];
+        for (MetricsExporter exporter : exporters) {
+            exporter.open(allNames.toArray(new String[allNames.size()]));
+        }
+
+        scheduler = Executors.newScheduledThreadPool(2, new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "metrics-sampler");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                sample();
+            }
+        }, 0L, intervalMillis, TimeUnit.MILLISECONDS);
+
+        if (!queryGauges.isEmpty() && queryIntervalMillis > 0) {
+            scheduler.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    refreshQueryGauges();
+                }
+            }, 0L, queryIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Takes a last sample and closes the exporters.
+     */
+    public synchronized void stop() throws Exception {
+        if (closed || scheduler == null) {
+            return;
+        }
+        scheduler.shutdownNow();
+        scheduler.awaitTermination(5, TimeUnit.SECONDS);
+        refreshQueryGauges();
+        sample();
+        closed = true;
+        for (MetricsExporter exporter : exporters) {
+            exporter.close();
+        }
+    }
+
+    protected synchronized void sample() {
+        if (closed) {
+            return;
+        }
+        long timestamp = System.currentTimeMillis();
+        for (int i = 0; i < gauges.size(); i++) {
+            values[i] = getValue(gauges.get(i));
+        }
+        long[] currentQueryValues = queryValues;
+        System.arraycopy(currentQueryValues, 0, values, gauges.size(), currentQueryValues.length);
+
+        for (MetricsExporter exporter : exporters) {
+            try {
+                exporter.export(timestamp, values);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    protected void refreshQueryGauges() {
+        long[] newValues = new long[queryGauges.size()];
+        for (int i = 0; i < queryGauges.size(); i++) {
+            newValues[i] = getValue(queryGauges.get(i));
+        }
+        queryValues = newValues;
+    }
+
+    private long getValue(Gauge gauge) {
+        try {
+            return gauge.getValue();
+        } catch (Exception e) {
+            return -1L;
+        }
+    }
+
+}
@@ -16,17 +16,40 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.jdbc.datasource.DataSourceTransactionManager;
 import org.springframework.jms.connection.CachingConnectionFactory;
 import org.springframework.jms.core.JmsTemplate;
+import org.springframework.jms.listener.AbstractMessageListenerContainer;
 import org.springframework.jms.listener.DefaultMessageListenerContainer;
 import org.springframework.jms.listener.MessageListenerContainer;
+import org.springframework.jms.listener.SimpleMessageListenerContainer;
+import org.springframework.scheduling.concurrent.ConcurrentTaskExecutor;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.util.ErrorHandler;
 
 import javax.jms.ConnectionFactory;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.Session;
 import javax.sql.DataSource;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 
+/**
+ * The JMS consumer side is tuned with:
+ *
+ * jms-listener-container : default (DefaultMessageListenerContainer, consumer threads polling with receive)
+ *                          or simple (SimpleMessageListenerContainer, the broker pushes to a MessageListener per session)
+ * jms-acknowledge        : auto (default), client, dups-ok or transacted (a local JMS transaction per message)
+ * jms-prefetch           : messages ActiveMQ pushes to a consumer ahead of the acknowledgements (ActiveMQ default 1000)
+ * jms-max-messages-per-task, jms-cache-level (none, connection, session, consumer or auto) and jms-receive-timeout
+ *                          (ms) : the DefaultMessageListenerContainer settings of the same name. The containers get
+ *                          an uncached connection factory, so the cache level and the prefetch are the container's own.
+ */
 @Configuration
 public class MyConfigMessageExecutor {
 
+  public static final String LISTENER_CONTAINER_DEFAULT = "default";
+  public static final String LISTENER_CONTAINER_SIMPLE = "simple";
+
   private static Logger logger = LoggerFactory.getLogger(MyConfigMessageExecutor.class);
   
   @Bean
@@ -46,6 +69,8 @@ public class MyConfigMessageExecutor {
     }
 
     HikariDataSource dataSource = new HikariDataSource();
+    dataSource.setPoolName("message-executor");
+    dataSource.setMetricsTrackerFactory(new ConnectionPoolMetrics());
     dataSource.setJdbcUrl(jdbcUrl);
     dataSource.setDriverClassName(jdbcDriver);
     dataSource.setUsername(jdbcUsername);
@@ -86,8 +111,31 @@ public class MyConfigMessageExecutor {
     configuration.setIdGenerator(new StrongUuidGenerator());
     configuration.setDataSource(dataSource());
     configuration.setTransactionManager(transactionManager());
-    configuration.setDatabaseSchemaUpdate(getStringProperty("schema-update"));
-    configuration.setAsyncExecutorDefaultTimerJobAcquireWaitTime(3000);
+    configuration.setDatabaseSchemaUpdate(Main.runLifecycle != null ? Main.runLifecycle.resetSchema(dataSource()) : getStringProperty("schema-update"));
+    Main.configureBulkInsert(configuration);
+    Main.configureHistory(configuration);
+    Main.configureVariables(configuration);
+    configuration.setObjectMapper(objectMapper());
+    Main.eventListener.register(configuration);
+    if (Main.jobLatencyRecorder != null) {
+      Main.jobLatencyRecorder.register(configuration, true);
+    }
+    if (Main.dbRowCounter != null) {
+      Main.dbRowCounter.register(configuration);
+    }
+    if (Main.jobAcquisitionMetrics != null) {
+      Main.jobAcquisitionMetrics.register(configuration);
+    }
+    if (Main.timerMetrics != null) {
+      Main.timerMetrics.register(configuration, true);
+    }
+    if (Main.startupMetrics != null) {
+      Main.startupMetrics.register(configuration);
+    }
+    if (Main.backPressure != null) {
+      Main.backPressure.register(configuration);
+    }
+    Main.configureJobAcquisition(configuration, 3000);
     configuration.setAsyncExecutorMessageQueueMode(true);
     configuration.setAsyncExecutorActivate(true);
 
@@ -105,17 +153,37 @@ public class MyConfigMessageExecutor {
   
   @Bean
   public MessageBasedJobManager jobManager() {
-    MessageBasedJobManager jobManager = new MessageBasedJobManager(null);
+    String jobDispatch = getJobDispatch();
+    System.out.println("Job dispatch : " + jobDispatch);
+    // Also for single messages, they carry the process instance of exclusive jobs for the ExclusiveJobScheduler
+    MessageBasedJobManager jobManager = new BatchingMessageBasedJobManager(null, jobDispatch);
     jobManager.setJmsTemplate(jmsTemplate());
     return jobManager;
   }
 
+  /**
+   * The connection factory of the listener container. Not a CachingConnectionFactory: the container caches its own
+   * consumers (jms-cache-level), and a consumer it releases when the pool controller lowers the concurrent consumers
+   * is really closed, so ActiveMQ hands its prefetched messages to the other consumers.
+   */
   @Bean
-  public ConnectionFactory connectionFactory() {
+  public ActiveMQConnectionFactory activeMQConnectionFactory() {
     ActiveMQConnectionFactory activeMQConnectionFactory = new ActiveMQConnectionFactory();
     activeMQConnectionFactory.setBrokerURL(getStringProperty("broker-url"));
     activeMQConnectionFactory.setUseAsyncSend(true);
-    return new CachingConnectionFactory(activeMQConnectionFactory);
+    int prefetch = getintProperty("jms-prefetch");
+    if (prefetch >= 0) {
+      activeMQConnectionFactory.getPrefetchPolicy().setQueuePrefetch(prefetch);
+    }
+    return activeMQConnectionFactory;
+  }
+
+  /**
+   * The connection factory of the JmsTemplate, which opens a session per send without it.
+   */
+  @Bean
+  public ConnectionFactory connectionFactory() {
+    return new CachingConnectionFactory(activeMQConnectionFactory());
   }
   
   @Bean
@@ -123,28 +191,129 @@ public class MyConfigMessageExecutor {
       JmsTemplate jmsTemplate = new JmsTemplate();
       jmsTemplate.setDefaultDestination(new ActiveMQQueue(getStringProperty("queue")));
       jmsTemplate.setConnectionFactory(connectionFactory());
+      if (BatchingMessageBasedJobManager.DISPATCH_BATCH_SESSION.equals(getJobDispatch())) {
+        jmsTemplate.setSessionTransacted(true);
+      }
       return jmsTemplate;
   }
   
   @Bean
   public MessageListenerContainer messageListenerContainer() {
-      DefaultMessageListenerContainer messageListenerContainer = new DefaultMessageListenerContainer();
-      messageListenerContainer.setConnectionFactory(connectionFactory());
+      String listenerContainer = getListenerContainer();
+      System.out.println("JMS listener container : " + listenerContainer + ", acknowledge " + getAcknowledge()
+          + (getintProperty("jms-prefetch") >= 0 ? ", prefetch " + getintProperty("jms-prefetch") : ""));
+      AbstractMessageListenerContainer messageListenerContainer;
+      DefaultMessageListenerContainer defaultMessageListenerContainer = null;
+      if (LISTENER_CONTAINER_SIMPLE.equals(listenerContainer)) {
+        SimpleMessageListenerContainer simpleMessageListenerContainer = new SimpleMessageListenerContainer();
+        simpleMessageListenerContainer.setConcurrentConsumers(getintProperty("concurrent-consumers"));
+        if (Main.virtualThreads) {
+          simpleMessageListenerContainer.setTaskExecutor(new ConcurrentTaskExecutor(
+              VirtualThreadExecutorService.newVirtualThreadPerTaskExecutor("activiti-jms-consumer-vthread-")));
+        }
+        messageListenerContainer = simpleMessageListenerContainer;
+
+      } else if (LISTENER_CONTAINER_DEFAULT.equals(listenerContainer)) {
+        defaultMessageListenerContainer = new DefaultMessageListenerContainer();
+        defaultMessageListenerContainer.setConcurrentConsumers(getintProperty("concurrent-consumers"));
+        if (getintProperty("jms-max-messages-per-task") > 0) {
+          defaultMessageListenerContainer.setMaxMessagesPerTask(getintProperty("jms-max-messages-per-task"));
+        }
+        String cacheLevel = getStringProperty("jms-cache-level");
+        if (cacheLevel != null && !"".equals(cacheLevel)) {
+          defaultMessageListenerContainer.setCacheLevelName("CACHE_" + cacheLevel.toUpperCase());
+        }
+        if (getintProperty("jms-receive-timeout") >= 0) {
+          defaultMessageListenerContainer.setReceiveTimeout(getintProperty("jms-receive-timeout"));
+        }
+        if (Main.virtualThreads) {
+          // Consumers are cheap on virtual threads, the nr of jobs executing at the same time is bounded by the connections instead
+          defaultMessageListenerContainer.setTaskExecutor(new ConcurrentTaskExecutor(
+              VirtualThreadExecutorService.newVirtualThreadPerTaskExecutor("activiti-jms-consumer-vthread-")));
+        }
+        messageListenerContainer = defaultMessageListenerContainer;
+
+      } else {
+        throw new RuntimeException("Unknown jms-listener-container " + listenerContainer + ", use "
+            + LISTENER_CONTAINER_DEFAULT + " or " + LISTENER_CONTAINER_SIMPLE);
+      }
+      messageListenerContainer.setConnectionFactory(activeMQConnectionFactory());
       messageListenerContainer.setDestinationName(getStringProperty("queue"));
-      messageListenerContainer.setMessageListener(jobMessageListener());
-      messageListenerContainer.setConcurrentConsumers(getintProperty("concurrent-consumers"));
+      configureAcknowledge(messageListenerContainer);
+
+      MessageListener messageListener = jobMessageListener();
+      if (Main.allocationMetrics != null) {
+        messageListener = Main.allocationMetrics.wrap(messageListener);
+      }
+      if (Main.exclusiveJobScheduler != null) {
+        // A queued job message is acknowledged before its job runs, a failed job wouldn't be redelivered
+        if ("transacted".equals(getAcknowledge()) || "client".equals(getAcknowledge())) {
+          throw new RuntimeException("exclusive-job-scheduler=true can't be used with jms-acknowledge=" + getAcknowledge()
+              + ", the queued job messages are acknowledged before their jobs run, use auto or dups-ok");
+        }
+        messageListener = Main.exclusiveJobScheduler.wrap(messageListener);
+      }
+      if (Main.virtualThreads) {
+        final Semaphore permits = new Semaphore(Main.getVirtualThreadMaxConcurrency());
+        final MessageListener jobMessageListener = messageListener;
+        messageListener = new MessageListener() {
+          public void onMessage(Message message) {
+            permits.acquireUninterruptibly();
+            try {
+              jobMessageListener.onMessage(message);
+            } finally {
+              permits.release();
+            }
+          }
+        };
+      }
+      if (BatchingMessageBasedJobManager.DISPATCH_BATCH.equals(getJobDispatch())) {
+        messageListener = new BatchJobMessageListener(messageListener, batchJobExecutorService());
+      }
+      messageListenerContainer.setMessageListener(messageListener);
       messageListenerContainer.setErrorHandler(new ErrorHandler() {
         public void handleError(Throwable throwable) {
           logger.error("Error while handling JMS message", throwable);
         }
       });
       messageListenerContainer.start();
+      // The consumers of the simple container are fixed once it is started
+      if (Main.poolController != null && !Main.virtualThreads && defaultMessageListenerContainer != null) {
+        Main.poolController.addMessageListenerContainer(defaultMessageListenerContainer, "message-executor", getStringProperty("queue"));
+      }
       return messageListenerContainer;
   }
+
+  private static void configureAcknowledge(AbstractMessageListenerContainer messageListenerContainer) {
+    String acknowledge = getAcknowledge();
+    if ("transacted".equals(acknowledge)) {
+      // The message is acknowledged by committing the JMS session after the job, a failed job is redelivered
+      messageListenerContainer.setSessionTransacted(true);
+    } else if ("client".equals(acknowledge)) {
+      messageListenerContainer.setSessionAcknowledgeMode(Session.CLIENT_ACKNOWLEDGE);
+    } else if ("dups-ok".equals(acknowledge)) {
+      messageListenerContainer.setSessionAcknowledgeMode(Session.DUPS_OK_ACKNOWLEDGE);
+    } else if (!"auto".equals(acknowledge)) {
+      throw new RuntimeException("Unknown jms-acknowledge " + acknowledge + ", use auto, client, dups-ok or transacted");
+    }
+  }
   
+  @Bean(destroyMethod = "shutdown")
+  public ExecutorService batchJobExecutorService() {
+    if (Main.virtualThreads) {
+      return VirtualThreadExecutorService.newVirtualThreadPerTaskExecutor("activiti-batch-job-vthread-");
+    }
+    int nrOfThreads = getintProperty("batch-job-threads");
+    if (nrOfThreads <= 0) {
+      nrOfThreads = getintProperty("concurrent-consumers");
+    }
+    return Executors.newFixedThreadPool(nrOfThreads);
+  }
+
   @Bean 
   public JobMessageListener jobMessageListener() {
-    JobMessageListener jobMessageListener = new JobMessageListener();
+    JobMessageListener jobMessageListener = Main.jobLatencyRecorder != null
+        ? new TimedJobMessageListener(Main.jobLatencyRecorder) : new JobMessageListener();
     jobMessageListener.setProcessEngineConfiguration(processEngineConfiguration());
     return jobMessageListener;
   }
@@ -155,6 +324,21 @@ public class MyConfigMessageExecutor {
   }
 
 
+  private static String getListenerContainer() {
+    String listenerContainer = getStringProperty("jms-listener-container");
+    return listenerContainer != null && !"".equals(listenerContainer) ? listenerContainer : LISTENER_CONTAINER_DEFAULT;
+  }
+
+  private static String getAcknowledge() {
+    String acknowledge = getStringProperty("jms-acknowledge");
+    return acknowledge != null && !"".equals(acknowledge) ? acknowledge : "auto";
+  }
+
+  private static String getJobDispatch() {
+    String jobDispatch = getStringProperty("job-dispatch");
+    return jobDispatch != null && !"".equals(jobDispatch) ? jobDispatch : BatchingMessageBasedJobManager.DISPATCH_SINGLE;
+  }
+
   private static String getStringProperty(String s) {
     return Main.properties.getProperty(s);
   }
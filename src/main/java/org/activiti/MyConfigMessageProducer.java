@@ -39,6 +39,8 @@ public class MyConfigMessageProducer {
     }
 
     HikariDataSource dataSource = new HikariDataSource();
+    dataSource.setPoolName("message-producer");
+    dataSource.setMetricsTrackerFactory(new ConnectionPoolMetrics());
     dataSource.setJdbcUrl(jdbcUrl);
     dataSource.setDriverClassName(jdbcDriver);
     dataSource.setUsername(jdbcUsername);
@@ -79,7 +81,30 @@ public class MyConfigMessageProducer {
     configuration.setIdGenerator(new StrongUuidGenerator());
     configuration.setDataSource(dataSource());
     configuration.setTransactionManager(transactionManager());
-    configuration.setDatabaseSchemaUpdate(getStringProperty("schema-update"));
+    configuration.setDatabaseSchemaUpdate(Main.runLifecycle != null ? Main.runLifecycle.resetSchema(dataSource()) : getStringProperty("schema-update"));
+    Main.configureBulkInsert(configuration);
+    Main.configureHistory(configuration);
+    Main.configureVariables(configuration);
+    configuration.setObjectMapper(objectMapper());
+    Main.eventListener.register(configuration);
+    if (Main.jobLatencyRecorder != null) {
+      Main.jobLatencyRecorder.register(configuration, false);
+    }
+    if (Main.dbRowCounter != null) {
+      Main.dbRowCounter.register(configuration);
+    }
+    if (Main.jobAcquisitionMetrics != null) {
+      Main.jobAcquisitionMetrics.register(configuration);
+    }
+    if (Main.timerMetrics != null) {
+      Main.timerMetrics.register(configuration, false);
+    }
+    if (Main.startupMetrics != null) {
+      Main.startupMetrics.register(configuration);
+    }
+    if (Main.backPressure != null) {
+      Main.backPressure.register(configuration);
+    }
     configuration.setAsyncExecutorMessageQueueMode(true);
     configuration.setAsyncExecutorActivate(false);
 
@@ -97,7 +122,10 @@ public class MyConfigMessageProducer {
   
   @Bean
   public MessageBasedJobManager jobManager() {
-    MessageBasedJobManager jobManager = new MessageBasedJobManager(null);
+    String jobDispatch = getJobDispatch();
+    System.out.println("Job dispatch : " + jobDispatch);
+    // Also for single messages, they carry the process instance of exclusive jobs for the ExclusiveJobScheduler
+    MessageBasedJobManager jobManager = new BatchingMessageBasedJobManager(null, jobDispatch);
     jobManager.setJmsTemplate(jmsTemplate());
     return jobManager;
   }
@@ -115,6 +143,9 @@ public class MyConfigMessageProducer {
       JmsTemplate jmsTemplate = new JmsTemplate();
       jmsTemplate.setDefaultDestination(new ActiveMQQueue(getStringProperty("queue")));
       jmsTemplate.setConnectionFactory(connectionFactory());
+      if (BatchingMessageBasedJobManager.DISPATCH_BATCH_SESSION.equals(getJobDispatch())) {
+        jmsTemplate.setSessionTransacted(true);
+      }
       return jmsTemplate;
   }
   
@@ -124,6 +155,11 @@ public class MyConfigMessageProducer {
   }
 
 
+  private static String getJobDispatch() {
+    String jobDispatch = getStringProperty("job-dispatch");
+    return jobDispatch != null && !"".equals(jobDispatch) ? jobDispatch : BatchingMessageBasedJobManager.DISPATCH_SINGLE;
+  }
+
   private static String getStringProperty(String s) {
     return Main.properties.getProperty(s);
   }
@@ -0,0 +1,286 @@
+package org.activiti;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Starts process instances on a fixed schedule, independent of how fast the engine starts them (open loop).
+ *
+ * Every instance has an intended start time derived from the load profile. A dispatcher thread hands the
+ * instance over to the starter threads at that time and never waits for the engine. The start latency is measured
+ * from the intended start time, so time spent queued behind slow starts is included (coordinated omission correction).
+ */
+public class OpenLoopLoadGenerator {
+
+    public static final String PROFILE_CONSTANT = "constant";
+    public static final String PROFILE_RAMP = "ramp";
+    public static final String PROFILE_STEP = "step";
+    public static final String PROFILE_BURST = "burst";
+
+    private final int numberOfProcessInstances;
+    private final LoadProfile loadProfile;
+    private final ExecutorService starterThreads;
+    private final Runnable processInstanceStarter;
+
+    private final Histogram startLatency = new ConcurrentHistogram(3);
+    private final Histogram serviceTime = new ConcurrentHistogram(3);
+    private final AtomicInteger pendingStarts = new AtomicInteger();
+    private final AtomicInteger maxPendingStarts = new AtomicInteger();
+
+    private volatile long startTime;
+    private volatile long lastStartCompletedTime;
+
+    public OpenLoopLoadGenerator(int numberOfProcessInstances, int nrOfStarterThreads, LoadProfile loadProfile, Runnable processInstanceStarter) {
+        this.numberOfProcessInstances = numberOfProcessInstances;
+        this.loadProfile = loadProfile;
+        this.processInstanceStarter = processInstanceStarter;
+        this.starterThreads = Executors.newFixedThreadPool(nrOfStarterThreads);
+    }
+
+    public void start() {
+        Thread dispatcher = new Thread(new Runnable() {
+            public void run() {
+                dispatch();
+            }
+        }, "open-loop-dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    protected void dispatch() {
+        startTime = System.nanoTime();
+        for (int i = 0; i < numberOfProcessInstances; i++) {
+            final long intendedStartTime = startTime + loadProfile.getIntendedStartTime(i);
+            long waitTime = intendedStartTime - System.nanoTime();
+            while (waitTime > 0) {
+                LockSupport.parkNanos(waitTime);
+                waitTime = intendedStartTime - System.nanoTime();
+            }
+
+            maxPendingStarts.accumulateAndGet(pendingStarts.incrementAndGet(), Math::max);
+
+            starterThreads.submit(new Runnable() {
+                public void run() {
+                    long actualStartTime = System.nanoTime();
+                    try {
+                        processInstanceStarter.run();
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    } finally {
+                        long end = System.nanoTime();
+                        pendingStarts.decrementAndGet();
+                        startLatency.recordValue(TimeUnit.NANOSECONDS.toMicros(end - intendedStartTime));
+                        serviceTime.recordValue(TimeUnit.NANOSECONDS.toMicros(end - actualStartTime));
+                        lastStartCompletedTime = end;
+                    }
+                }
+            });
+        }
+        starterThreads.shutdown();
+    }
+
+    public Histogram getStartLatency() {
+        return startLatency;
+    }
+
+    public void printReport(PrintStream out) {
+        long count = startLatency.getTotalCount();
+        double elapsedSeconds = (lastStartCompletedTime - startTime) / 1000000000.0;
+        out.println();
+        out.println("Open loop load generator (" + loadProfile + ")");
+        out.println("Started process instances = " + count + " of " + numberOfProcessInstances);
+        if (count > 0 && elapsedSeconds > 0) {
+            out.println("Achieved start rate = " + (count / elapsedSeconds) + " process instances / second");
+        } else {
+            out.println("Achieved start rate = n/a (no process instance start completed)");
+        }
+        out.println("Max starts waiting for a starter thread = " + maxPendingStarts.get());
+        printPercentiles(out, "Start latency from intended start (ms)", startLatency);
+        printPercentiles(out, "Start service time, uncorrected (ms)", serviceTime);
+        out.println();
+    }
+
+    private void printPercentiles(PrintStream out, String title, Histogram histogram) {
+        out.println(String.format("%-40s p50=%.3f p90=%.3f p99=%.3f p99.9=%.3f max=%.3f", title,
+                histogram.getValueAtPercentile(50.0) / 1000.0,
+                histogram.getValueAtPercentile(90.0) / 1000.0,
+                histogram.getValueAtPercentile(99.0) / 1000.0,
+                histogram.getValueAtPercentile(99.9) / 1000.0,
+                histogram.getMaxValue() / 1000.0));
+    }
+
+    /**
+     * Creates the load profile from the config properties:
+     *
+     * load-profile=constant : arrival-rate instances/second
+     * load-profile=ramp     : linear from ramp-start-rate to arrival-rate over ramp-duration-seconds, then constant
+     * load-profile=step     : step-rates (eg. 10,20,40), each held for step-duration-seconds, the last one after that
+     * load-profile=burst    : burst-size instances at once, every burst-interval-seconds
+     */
+    public static LoadProfile createLoadProfile(Properties properties) {
+        String profile = properties.getProperty("load-profile", PROFILE_CONSTANT);
+        if (PROFILE_RAMP.equals(profile)) {
+            return new RampLoadProfile(getRate(properties, "ramp-start-rate", 1.0), getRate(properties, "arrival-rate", 10.0),
+                    getDouble(properties, "ramp-duration-seconds", 60.0));
+
+        } else if (PROFILE_STEP.equals(profile)) {
+            List<Double> rates = new ArrayList<Double>();
+            for (String rate : properties.getProperty("step-rates", String.valueOf(getRate(properties, "arrival-rate", 10.0))).split(",")) {
+                rates.add(checkRate("step-rates", Double.valueOf(rate.trim())));
+            }
+            return new StepLoadProfile(rates, getDouble(properties, "step-duration-seconds", 60.0));
+
+        } else if (PROFILE_BURST.equals(profile)) {
+            int burstSize = Integer.valueOf(properties.getProperty("burst-size", "100"));
+            if (burstSize <= 0) {
+                throw new RuntimeException("burst-size must be greater than 0, but was " + burstSize);
+            }
+            return new BurstLoadProfile(burstSize, getDouble(properties, "burst-interval-seconds", 10.0));
+
+        } else if (PROFILE_CONSTANT.equals(profile)) {
+            return new ConstantLoadProfile(getRate(properties, "arrival-rate", 10.0));
+        }
+
+        throw new RuntimeException("Unknown load profile " + profile);
+    }
+
+    private static double getRate(Properties properties, String key, double defaultValue) {
+        return checkRate(key, getDouble(properties, key, defaultValue));
+    }
+
+    private static double checkRate(String key, double rate) {
+        if (rate <= 0.0 || Double.isNaN(rate) || Double.isInfinite(rate)) {
+            throw new RuntimeException(key + " must be a rate greater than 0 instances/second, but was " + rate);
+        }
+        return rate;
+    }
+
+    private static double getDouble(Properties properties, String key, double defaultValue) {
+        String value = properties.getProperty(key);
+        if (value != null && !"".equals(value)) {
+            return Double.valueOf(value);
+        }
+        return defaultValue;
+    }
+
+    public interface LoadProfile {
+
+        /**
+         * @return the intended start time of the instance with the given index, in nanoseconds after the start of the run
+         */
+        long getIntendedStartTime(int index);
+
+    }
+
+    public static class ConstantLoadProfile implements LoadProfile {
+
+        protected final double rate;
+
+        public ConstantLoadProfile(double rate) {
+            this.rate = rate;
+        }
+
+        public long getIntendedStartTime(int index) {
+            return toNanos(index / rate);
+        }
+
+        public String toString() {
+            return "constant " + rate + "/s";
+        }
+    }
+
+    public static class RampLoadProfile implements LoadProfile {
+
+        protected final double startRate;
+        protected final double endRate;
+        protected final double rampSeconds;
+        protected final double instancesDuringRamp;
+
+        public RampLoadProfile(double startRate, double endRate, double rampSeconds) {
+            this.startRate = startRate;
+            this.endRate = endRate;
+            this.rampSeconds = rampSeconds;
+            this.instancesDuringRamp = (startRate + endRate) / 2.0 * rampSeconds;
+        }
+
+        public long getIntendedStartTime(int index) {
+            if (index >= instancesDuringRamp) {
+                return toNanos(rampSeconds + (index - instancesDuringRamp) / endRate);
+            }
+
+            // Solve index = startRate * t + (endRate - startRate) / (2 * rampSeconds) * t^2 for t
+            double a = (endRate - startRate) / (2.0 * rampSeconds);
+            if (Math.abs(a) < 1e-12) {
+                return toNanos(index / startRate);
+            }
+            double t = (-startRate + Math.sqrt(startRate * startRate + 4.0 * a * index)) / (2.0 * a);
+            return toNanos(t);
+        }
+
+        public String toString() {
+            return "ramp " + startRate + "/s to " + endRate + "/s in " + rampSeconds + "s";
+        }
+    }
+
+    public static class StepLoadProfile implements LoadProfile {
+
+        protected final List<Double> rates;
+        protected final double stepSeconds;
+
+        public StepLoadProfile(List<Double> rates, double stepSeconds) {
+            this.rates = rates;
+            this.stepSeconds = stepSeconds;
+        }
+
+        public long getIntendedStartTime(int index) {
+            double remaining = index;
+            for (int step = 0; step < rates.size(); step++) {
+                double rate = rates.get(step);
+                double instancesInStep = rate * stepSeconds;
+                if (remaining < instancesInStep || step == rates.size() - 1) {
+                    return toNanos(step * stepSeconds + remaining / rate);
+                }
+                remaining -= instancesInStep;
+            }
+            return 0L;
+        }
+
+        public String toString() {
+            return "step " + rates + "/s, " + stepSeconds + "s per step";
+        }
+    }
+
+    public static class BurstLoadProfile implements LoadProfile {
+
+        protected final int burstSize;
+        protected final double burstIntervalSeconds;
+
+        public BurstLoadProfile(int burstSize, double burstIntervalSeconds) {
+            this.burstSize = burstSize;
+            this.burstIntervalSeconds = burstIntervalSeconds;
+        }
+
+        public long getIntendedStartTime(int index) {
+            return toNanos((index / burstSize) * burstIntervalSeconds);
+        }
+
+        public String toString() {
+            return "burst of " + burstSize + " every " + burstIntervalSeconds + "s";
+        }
+    }
+
+    private static long toNanos(double seconds) {
+        return (long) (seconds * 1000000000.0);
+    }
+
+}
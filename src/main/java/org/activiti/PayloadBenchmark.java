@@ -0,0 +1,135 @@
+package org.activiti;
+
+import org.HdrHistogram.Histogram;
+import org.activiti.engine.ProcessEngine;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Runs the workload once for every {@link DelegatePayload} type in payload-variants (default bytes,java,json) and size
+ * in payload-sizes (default 1024,10240,65536 bytes), each time on a clean database with an executor and a producer
+ * engine in this JVM. The delegate-work and delegate-work-ms properties apply to all runs. Compares the jobs/second
+ * with the heap allocated per job by the executor threads, the GC collections and the DB rows written per job
+ * (see {@link AllocationMetrics} and {@link DbRowCounter}). The results go to payload-results.csv.
+ * The first variant and size are run benchmark-warmup-runs (default 1) times before the measured runs to warm up the
+ * JVM, those results are discarded.
+ */
+public class PayloadBenchmark {
+
+    private final Properties properties;
+
+    public PayloadBenchmark(Properties properties) {
+        this.properties = properties;
+    }
+
+    public void run() throws Exception {
+        String variants = properties.getProperty("payload-variants", "bytes,java,json");
+        String sizes = properties.getProperty("payload-sizes", "1024,10240,65536");
+
+        String firstVariant = variants.split(",")[0].trim();
+        int firstSize = Integer.valueOf(sizes.split(",")[0].trim());
+        int warmupRuns = BenchmarkRun.getInt(properties, "benchmark-warmup-runs", 1);
+        for (int i = 0; i < warmupRuns; i++) {
+            DelegatePayload.configure(firstVariant, firstSize, properties.getProperty("delegate-work"), BenchmarkRun.getInt(properties, "delegate-work-ms", 0));
+            System.out.println();
+            System.out.println("Warm-up run " + (i + 1) + "/" + warmupRuns + " : " + DelegatePayload.getDescription() + ", result discarded");
+            runVariant(i, firstVariant, firstSize);
+        }
+
+        List<PayloadResult> results = new ArrayList<PayloadResult>();
+        for (String variant : variants.split(",")) {
+            for (String size : sizes.split(",")) {
+                DelegatePayload.configure(variant.trim(), Integer.valueOf(size.trim()), properties.getProperty("delegate-work"), BenchmarkRun.getInt(properties, "delegate-work-ms", 0));
+                System.out.println();
+                System.out.println("Payload run " + (results.size() + 1) + " : " + DelegatePayload.getDescription());
+                PayloadResult result = runVariant(warmupRuns + results.size(), variant.trim(), Integer.valueOf(size.trim()));
+                System.out.println(result);
+                results.add(result);
+            }
+        }
+
+        BenchmarkResults.print("Payload results" + (DelegatePayload.WORK_NONE.equals(properties.getProperty("delegate-work", DelegatePayload.WORK_NONE))
+                ? "" : ", " + properties.getProperty("delegate-work") + " work of " + BenchmarkRun.getInt(properties, "delegate-work-ms", 0) + " ms per task"), results, null);
+        writeCsv(results, new File("payload-results.csv"));
+        System.out.println("Payload results written to payload-results.csv");
+    }
+
+    protected PayloadResult runVariant(int index, String variant, int size) throws Exception {
+        BenchmarkRun run = new BenchmarkRun(properties, "payload", index);
+        try {
+            int nrOfProcessInstances = BenchmarkRun.getInt(properties, "nr-process-instances", 1000);
+            Main.eventListener = new BenchmarkEventListener(nrOfProcessInstances);
+            Main.jobLatencyRecorder = new JobLatencyRecorder();
+
+            ProcessEngine producerEngine = run.startEngines(false);
+            Main.dbRowCounter.reset();
+            Main.allocationMetrics.reset();
+
+            run.startProcessInstances(producerEngine, nrOfProcessInstances);
+
+            if (!run.awaitCompletion("payload-timeout-seconds", 600)) {
+                System.out.println("Payload run " + variant + " " + size + " didn't complete in time, "
+                        + Main.eventListener.getCompletedProcessInstances() + " process instances completed");
+            }
+
+            PayloadResult result = new PayloadResult();
+            result.variant = variant;
+            result.size = size;
+            result.executedJobs = Main.eventListener.getExecutedJobs();
+            long duration = Main.eventListener.getLastCompletionTime() - Main.eventListener.getFirstEventTime();
+            result.jobsPerSecond = 1000.0 * result.executedJobs / Math.max(duration, 1L);
+            result.p99LatencyMs = Main.jobLatencyRecorder.getExecutionHistogram().copy().getValueAtPercentile(99.0) / 1000.0;
+            long jobs = Math.max(result.executedJobs, 1L);
+            result.allocatedKbPerJob = Main.allocationMetrics.getTotalAllocatedBytes() / 1024.0 / jobs;
+            Histogram allocated = Main.allocationMetrics.getAllocatedBytesHistogram();
+            result.p99AllocatedKb = allocated.getValueAtPercentile(99.0) / 1024.0;
+            result.allocationMbPerSecond = 1000.0 * Main.allocationMetrics.getTotalAllocatedBytes() / (1024.0 * 1024.0) / Math.max(duration, 1L);
+            result.gcCount = Main.allocationMetrics.getGcCount();
+            result.gcTimeMs = Main.allocationMetrics.getGcTime();
+            result.rowsPerJob = (double) Main.dbRowCounter.getRowsWritten() / jobs;
+            result.byteArrayRowsPerJob = (double) Main.dbRowCounter.getRowsWritten("ByteArray") / jobs;
+            Main.allocationMetrics.printReport(System.out, result.executedJobs);
+            return result;
+        } finally {
+            run.close();
+        }
+    }
+
+    protected void writeCsv(List<PayloadResult> results, File file) throws IOException {
+        String header = "variant;size;executedJobs;jobsPerSecond;p99LatencyMs;allocatedKbPerJob;p99AllocatedKb;allocationMbPerSecond;gcCount;gcTimeMs;rowsPerJob;byteArrayRowsPerJob";
+        BenchmarkResults.writeCsv(file, header, results, new BenchmarkResults.CsvRow<PayloadResult>() {
+            public Object[] getValues(PayloadResult result) {
+                return new Object[] { result.variant, result.size, result.executedJobs, result.jobsPerSecond, result.p99LatencyMs,
+                        result.allocatedKbPerJob, result.p99AllocatedKb, result.allocationMbPerSecond, result.gcCount,
+                        result.gcTimeMs, result.rowsPerJob, result.byteArrayRowsPerJob };
+            }
+        });
+    }
+
+    public static class PayloadResult {
+
+        public String variant;
+        public int size;
+        public long executedJobs;
+        public double jobsPerSecond;
+        public double p99LatencyMs;
+        public double allocatedKbPerJob;
+        public double p99AllocatedKb;
+        public double allocationMbPerSecond;
+        public long gcCount;
+        public long gcTimeMs;
+        public double rowsPerJob;
+        public double byteArrayRowsPerJob;
+
+        public String toString() {
+            return String.format("%-5s %7d bytes : %d jobs, %.1f jobs/s, p99 execution %.1f ms, %.1f KB allocated per job (p99 %.1f KB), %.1f MB/s, %d GCs (%d ms), %.2f DB rows per job (%.2f byte arrays)",
+                    variant, size, executedJobs, jobsPerSecond, p99LatencyMs, allocatedKbPerJob, p99AllocatedKb, allocationMbPerSecond,
+                    gcCount, gcTimeMs, rowsPerJob, byteArrayRowsPerJob);
+        }
+    }
+
+}
@@ -0,0 +1,173 @@
+package org.activiti;
+
+import org.HdrHistogram.Histogram;
+import org.activiti.engine.ProcessEngine;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the {@link ExecutorPoolController} with static pool sizes under changing load.
+ *
+ * Every entry of autoscale-static-threads (eg. 2,4,8,16,32) is a run with that many async executor threads (core and
+ * max) or JMS consumers (autoscale-executor=message-executor), followed by one run with the pool controller, starting
+ * from async-executor-max-nr-threads / concurrent-consumers. Each run gets a fresh producer and executor engine on a
+ * clean database and starts nr-process-instances instances open loop with the load profile of the config
+ * (eg. load-profile=step with step-rates=2,8,2,8), so all runs see the same load changes.
+ * The best static pool has the highest jobs/s, or the lowest p99 queue wait when the jobs/s are within 2%.
+ * The results go to autoscale-results.csv.
+ */
+public class PoolControllerBenchmark {
+
+    public static final String ADAPTIVE = "adaptive";
+
+    private final Properties properties;
+    private final boolean messageExecutor;
+
+    public PoolControllerBenchmark(Properties properties) {
+        this.properties = properties;
+        this.messageExecutor = "message-executor".equals(properties.getProperty("autoscale-executor"));
+    }
+
+    public void run() throws Exception {
+        List<String> points = new ArrayList<String>();
+        for (String threads : properties.getProperty("autoscale-static-threads", "2,4,8,16,32").split(",")) {
+            points.add(threads.trim());
+        }
+        points.add(ADAPTIVE);
+        System.out.println("Comparing " + (points.size() - 1) + " static pool sizes with the pool controller"
+                + (messageExecutor ? " (message executor)" : " (async executor)") + ", load " + OpenLoopLoadGenerator.createLoadProfile(properties));
+
+        List<AutoscaleResult> results = new ArrayList<AutoscaleResult>();
+        for (int i = 0; i < points.size(); i++) {
+            System.out.println();
+            System.out.println("Autoscale run " + (i + 1) + "/" + points.size() + " : " + (ADAPTIVE.equals(points.get(i)) ? "pool controller" : points.get(i) + " threads"));
+            AutoscaleResult result = runPoint(i, points.get(i));
+            System.out.println(result);
+            results.add(result);
+        }
+
+        AutoscaleResult bestStatic = null;
+        AutoscaleResult adaptive = null;
+        for (AutoscaleResult result : results) {
+            if (ADAPTIVE.equals(result.pool)) {
+                adaptive = result;
+            } else if (bestStatic == null || isBetter(result, bestStatic)) {
+                bestStatic = result;
+            }
+        }
+
+        BenchmarkResults.print("Autoscale results", results, bestStatic);
+        if (bestStatic != null && adaptive != null) {
+            System.out.println(String.format("Pool controller vs best static pool (%s threads) : throughput %+.1f%%, p99 job latency %+.1f%%, p99 queue wait %+.1f%%, %.1f instead of %s threads on average",
+                    bestStatic.pool, 100.0 * (adaptive.jobsPerSecond / bestStatic.jobsPerSecond - 1.0),
+                    100.0 * (adaptive.p99LatencyMs / bestStatic.p99LatencyMs - 1.0), 100.0 * (adaptive.p99QueueWaitMs / bestStatic.p99QueueWaitMs - 1.0),
+                    adaptive.averageThreads, bestStatic.pool));
+        }
+        writeCsv(results, bestStatic, new File("autoscale-results.csv"));
+        System.out.println("Autoscale results written to autoscale-results.csv");
+    }
+
+    /**
+     * Under open loop load, the static pools that keep up all reach about the same jobs/s, the queue wait decides then.
+     */
+    private static boolean isBetter(AutoscaleResult result, AutoscaleResult other) {
+        if (Math.abs(result.jobsPerSecond - other.jobsPerSecond) > 0.02 * other.jobsPerSecond) {
+            return result.jobsPerSecond > other.jobsPerSecond;
+        }
+        return result.p99QueueWaitMs < other.p99QueueWaitMs;
+    }
+
+    protected AutoscaleResult runPoint(int index, String pool) throws Exception {
+        BenchmarkRun run = new BenchmarkRun(properties, "autoscale", index);
+        try {
+            String sizeKey = messageExecutor ? "concurrent-consumers" : "async-executor-max-nr-threads";
+            if (!ADAPTIVE.equals(pool)) {
+                properties.setProperty(sizeKey, pool);
+            }
+            properties.setProperty("async-executor-core-nr-threads", properties.getProperty("async-executor-max-nr-threads"));
+
+            int nrOfProcessInstances = Integer.valueOf(properties.getProperty("nr-process-instances", "1000"));
+            Main.eventListener = new BenchmarkEventListener(nrOfProcessInstances);
+            Main.jobLatencyRecorder = new JobLatencyRecorder();
+            Main.poolController = ADAPTIVE.equals(pool) ? new ExecutorPoolController(properties) : null;
+
+            final ProcessEngine producerEngine = run.startEngines(messageExecutor);
+            String executorPoolName = messageExecutor ? "message-executor" : "executor";
+
+            OpenLoopLoadGenerator loadGenerator = new OpenLoopLoadGenerator(nrOfProcessInstances,
+                    Integer.valueOf(properties.getProperty("start-process-instance-threads", "10")),
+                    OpenLoopLoadGenerator.createLoadProfile(properties), new Runnable() {
+                public void run() {
+                    Main.startProcessInstance(producerEngine);
+                }
+            });
+            loadGenerator.start();
+
+            long timeout = TimeUnit.SECONDS.toMillis(Integer.valueOf(properties.getProperty("autoscale-timeout-seconds", "1800")));
+            if (!Main.eventListener.awaitCompletion(timeout)) {
+                System.out.println("Run " + pool + " didn't complete in time, "
+                        + Main.eventListener.getCompletedProcessInstances() + " process instances completed");
+            }
+
+            AutoscaleResult result = new AutoscaleResult();
+            result.pool = pool;
+            result.executedJobs = Main.eventListener.getExecutedJobs();
+            long duration = Main.eventListener.getLastCompletionTime() - Main.eventListener.getFirstEventTime();
+            result.jobsPerSecond = 1000.0 * result.executedJobs / Math.max(duration, 1L);
+            Histogram latency = Main.jobLatencyRecorder.getTotalHistogram().getTotalCount() > 0
+                    ? Main.jobLatencyRecorder.getTotalHistogram().copy() : Main.jobLatencyRecorder.getExecutionHistogram().copy();
+            result.p99LatencyMs = latency.getValueAtPercentile(99.0) / 1000.0;
+            result.p99QueueWaitMs = Main.jobLatencyRecorder.getQueueWaitHistogram().copy().getValueAtPercentile(99.0) / 1000.0;
+            ConnectionPoolMetrics executorPool = ConnectionPoolMetrics.getPool(executorPoolName);
+            if (executorPool != null) {
+                result.p99ConnectionWaitMs = executorPool.getConnectionWait().getValueAtPercentile(99.0) / 1000.0;
+                result.connectionTimeouts = executorPool.getConnectionTimeouts();
+            }
+            if (Main.poolController != null) {
+                Main.poolController.stop();
+                Main.poolController.printReport(System.out);
+                result.averageThreads = Main.poolController.getAverageSize();
+                Main.poolController = null;
+            } else {
+                result.averageThreads = Double.valueOf(pool);
+            }
+            return result;
+        } finally {
+            run.close();
+        }
+    }
+
+    protected void writeCsv(List<AutoscaleResult> results, final AutoscaleResult bestStatic, File file) throws IOException {
+        String header = "pool;executedJobs;jobsPerSecond;p99LatencyMs;p99QueueWaitMs;p99ConnectionWaitMs;connectionTimeouts;averageThreads;bestStatic";
+        BenchmarkResults.writeCsv(file, header, results, new BenchmarkResults.CsvRow<AutoscaleResult>() {
+            public Object[] getValues(AutoscaleResult result) {
+                return new Object[] { result.pool, result.executedJobs, result.jobsPerSecond, result.p99LatencyMs,
+                        result.p99QueueWaitMs, result.p99ConnectionWaitMs, result.connectionTimeouts, result.averageThreads,
+                        result == bestStatic };
+            }
+        });
+    }
+
+    public static class AutoscaleResult {
+
+        public String pool;
+        public long executedJobs;
+        public double jobsPerSecond;
+        public double p99LatencyMs;
+        public double p99QueueWaitMs;
+        public double p99ConnectionWaitMs;
+        public long connectionTimeouts;
+        public double averageThreads;
+
+        public String toString() {
+            return String.format("%-8s : %d jobs, %.1f jobs/s, p99 job latency %.1f ms, p99 queue wait %.1f ms, connection wait p99 %.3f ms, %d connection timeouts, %.1f threads on average",
+                    pool, executedJobs, jobsPerSecond, p99LatencyMs, p99QueueWaitMs, p99ConnectionWaitMs, connectionTimeouts, averageThreads);
+        }
+    }
+
+}
@@ -0,0 +1,72 @@
+package org.activiti;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves the last sample in the Prometheus text format on http://localhost:port/metrics.
+ * Metric names ending in _total are exposed as counters, all others as gauges.
+ */
+public class PrometheusMetricsExporter implements MetricsExporter {
+
+    private final int port;
+    private HttpServer httpServer;
+    private String[] names;
+    private volatile long[] lastValues;
+    private volatile long lastTimestamp;
+
+    public PrometheusMetricsExporter(int port) {
+        this.port = port;
+    }
+
+    public void open(String[] names) throws IOException {
+        this.names = names;
+        this.lastValues = new long[names.length];
+
+        httpServer = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        httpServer.createContext("/metrics", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] body = render().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        httpServer.start();
+        System.out.println("Prometheus metrics on http://localhost:" + port + "/metrics");
+    }
+
+    public void export(long timestamp, long[] values) {
+        // A copy per sample, so a scrape never sees a half written sample
+        lastValues = values.clone();
+        lastTimestamp = timestamp;
+    }
+
+    protected String render() {
+        long[] values = lastValues;
+        long timestamp = lastTimestamp;
+        StringBuilder text = new StringBuilder(64 * names.length);
+        for (int i = 0; i < names.length; i++) {
+            text.append("# TYPE ").append(names[i]).append(names[i].endsWith("_total") ? " counter" : " gauge").append('\n');
+            text.append(names[i]).append(' ').append(values[i]).append(' ').append(timestamp).append('\n');
+        }
+        return text.toString();
+    }
+
+    public void close() {
+        httpServer.stop(0);
+    }
+
+    public String toString() {
+        return "prometheus :" + port;
+    }
+
+}
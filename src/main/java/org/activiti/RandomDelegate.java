@@ -5,15 +5,77 @@ import org.activiti.engine.delegate.JavaDelegate;
 
 import java.util.Random;
 
+/**
+ * Adds the input1 and input2 variables and writes the result, the way selected with the variable-write property:
+ *
+ * new-variable : a new process variable with a random name per execution (default, the variable tables keep growing)
+ * overwrite    : always the same process variable
+ * transient    : a transient variable, never written to the database
+ * local        : a variable local to the execution running the task
+ * batch        : all results in one process variable, instead of one variable per result
+ *
+ * variable-write-count sets the nr of results written per execution. The payload and the work of the task are
+ * set with the payload-type and delegate-work properties, see {@link DelegatePayload}.
+ */
 public class RandomDelegate implements JavaDelegate {
 
+    public static final String WRITE_NEW_VARIABLE = "new-variable";
+    public static final String WRITE_OVERWRITE = "overwrite";
+    public static final String WRITE_TRANSIENT = "transient";
+    public static final String WRITE_LOCAL = "local";
+    public static final String WRITE_BATCH = "batch";
+
     private static Random random = new Random();
 
+    private static volatile String variableWrite = WRITE_NEW_VARIABLE;
+    private static volatile int variableWriteCount = 1;
+
+    public static void configure(String variableWrite, int variableWriteCount) {
+        RandomDelegate.variableWrite = variableWrite != null && !"".equals(variableWrite) ? variableWrite : WRITE_NEW_VARIABLE;
+        RandomDelegate.variableWriteCount = Math.max(variableWriteCount, 1);
+    }
+
+    public static String getVariableWrite() {
+        return variableWrite;
+    }
+
     public void execute(DelegateExecution delegateExecution) {
+        DelegatePayload.execute(delegateExecution);
+
         Number number1 = (Number) delegateExecution.getVariable("input1");
         Number number2 = (Number) delegateExecution.getVariable("input2");
         int result = number1.intValue() + number2.intValue();
-        delegateExecution.setVariable("result_" + random.nextInt(), "result is " + result);
+
+        String variableWrite = RandomDelegate.variableWrite;
+        int count = variableWriteCount;
+        if (WRITE_BATCH.equals(variableWrite)) {
+            StringBuilder results = new StringBuilder();
+            for (int i = 0; i < count; i++) {
+                results.append(i > 0 ? "," : "").append("result is ").append(result + i);
+            }
+            delegateExecution.setVariable("results", results.toString());
+            return;
+        }
+
+        for (int i = 0; i < count; i++) {
+            String name = count == 1 ? "result" : "result_" + i;
+            String value = "result is " + (result + i);
+            if (WRITE_OVERWRITE.equals(variableWrite)) {
+                delegateExecution.setVariable(name, value);
+            } else if (WRITE_TRANSIENT.equals(variableWrite)) {
+                delegateExecution.setTransientVariable(name, value);
+            } else if (WRITE_LOCAL.equals(variableWrite)) {
+                delegateExecution.setVariableLocal(name, value);
+            } else {
+                delegateExecution.setVariable("result_" + random.nextInt(), value);
+            }
+        }
+
+        if (WRITE_TRANSIENT.equals(variableWrite)) {
+            // The next steps are async, so the transient results can't be used beyond this point anyway.
+            // Removing them also avoids a ClassCastException in Activiti 6.0 when the process instance ends in this transaction.
+            delegateExecution.removeTransientVariables();
+        }
     }
 
 }
@@ -0,0 +1,277 @@
+package org.activiti;
+
+import org.activiti.engine.ProcessEngine;
+import org.activiti.engine.impl.cfg.ProcessEngineConfigurationImpl;
+
+import javax.sql.DataSource;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The phases of a run, so the numbers of runs on different databases (and of repeated runs) can be compared:
+ *
+ * 1. schema reset, with schema-reset:
+ *    drop-create : the first engine built in this JVM drops and creates the Activiti tables
+ *    truncate    : deletes the rows of the runtime, history and repository tables before the first engine is built
+ *    none        : (default) schema-update decides, data of previous runs stays
+ *    With producers and executors in different JVMs, only set it for the JVM that is started first.
+ * 2. warm-up, when warmup-max-seconds > 0 (in a JVM that executes the jobs): the workload is started in a loop, with at
+ *    most warmup-max-in-flight (default 50) process instances running, until the jobs/s of the last steady-state-windows
+ *    (default 3) windows of steady-state-window-seconds (default 5) are all within steady-state-tolerance (default 0.1)
+ *    of their mean, after at least warmup-min-seconds (default 10) and at most warmup-max-seconds. The warm-up process
+ *    instances are completed (waiting at most warmup-drain-timeout-seconds, default 600) and all metrics are reset
+ *    before the measured run starts.
+ * 3. the measured run. Its result is tagged with the database type and version, and appended to run-results.csv.
+ */
+public class RunLifecycle {
+
+    public static final String SCHEMA_RESET_DROP_CREATE = "drop-create";
+    public static final String SCHEMA_RESET_TRUNCATE = "truncate";
+
+    // Children before parents, the tables not listed here have no foreign keys to them
+    private static final List<String> TRUNCATE_ORDER = Arrays.asList(
+            "ACT_RU_IDENTITYLINK", "ACT_RU_VARIABLE", "ACT_RU_EVENT_SUBSCR", "ACT_RU_TASK",
+            "ACT_RU_JOB", "ACT_RU_TIMER_JOB", "ACT_RU_SUSPENDED_JOB", "ACT_RU_DEADLETTER_JOB", "ACT_RU_EXECUTION",
+            "ACT_PROCDEF_INFO", "ACT_RE_MODEL", "ACT_GE_BYTEARRAY", "ACT_RE_PROCDEF", "ACT_RE_DEPLOYMENT");
+
+    private final Properties properties;
+    private final String schemaReset;
+    private boolean schemaResetPending;
+
+    private String database;
+    private String databaseVersion;
+    private long warmupTime;
+    private boolean steadyState;
+
+    public RunLifecycle(Properties properties) {
+        this.properties = properties;
+        this.schemaReset = properties.getProperty("schema-reset", "none");
+        this.schemaResetPending = SCHEMA_RESET_DROP_CREATE.equals(schemaReset) || SCHEMA_RESET_TRUNCATE.equals(schemaReset);
+    }
+
+    /**
+     * Called with the data source of every engine before it is built, the first one resets the schema.
+     *
+     * @return the schema-update of the engine: drop-create for the first one with schema-reset=drop-create
+     */
+    public synchronized String resetSchema(DataSource dataSource) {
+        if (!schemaResetPending) {
+            return properties.getProperty("schema-update");
+        }
+        schemaResetPending = false;
+        if (SCHEMA_RESET_DROP_CREATE.equals(schemaReset)) {
+            System.out.println("Schema reset : drop and create the Activiti tables");
+            return SCHEMA_RESET_DROP_CREATE;
+        }
+
+        // Before any engine runs, so no job of a previous run is executed meanwhile
+        try {
+            Connection connection = dataSource.getConnection();
+            try {
+                // The table names as the database knows them (case)
+                Map<String, String> existingTables = new HashMap<String, String>();
+                ResultSet resultSet = connection.getMetaData().getTables(connection.getCatalog(), null, "%", new String[] { "TABLE" });
+                try {
+                    while (resultSet.next()) {
+                        String table = resultSet.getString("TABLE_NAME");
+                        if (table.toUpperCase().startsWith("ACT_")) {
+                            existingTables.put(table.toUpperCase(), table);
+                        }
+                    }
+                } finally {
+                    resultSet.close();
+                }
+                List<String> truncatedTables = new ArrayList<String>();
+                for (String name : TRUNCATE_ORDER) {
+                    if (existingTables.containsKey(name)) {
+                        truncatedTables.add(existingTables.remove(name));
+                    }
+                }
+                for (Map.Entry<String, String> table : existingTables.entrySet()) {
+                    if (!table.getKey().equals("ACT_GE_PROPERTY") && !table.getKey().startsWith("ACT_ID_")) {
+                        truncatedTables.add(table.getValue()); // history and event log
+                    }
+                }
+
+                long deletedRows = 0L;
+                Statement statement = connection.createStatement();
+                try {
+                    for (String table : truncatedTables) {
+                        if (table.equalsIgnoreCase("ACT_RU_EXECUTION")) {
+                            // Executions reference each other, a database checking every row would refuse the delete
+                            statement.executeUpdate("update " + table + " set PARENT_ID_ = null, SUPER_EXEC_ = null, PROC_INST_ID_ = null");
+                        }
+                        deletedRows += statement.executeUpdate("delete from " + table);
+                    }
+                } finally {
+                    statement.close();
+                }
+                System.out.println("Schema reset : " + deletedRows + " rows deleted from " + truncatedTables.size() + " tables");
+            } finally {
+                connection.close();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Could not truncate the Activiti tables", e);
+        }
+        return properties.getProperty("schema-update");
+    }
+
+    /**
+     * Reads the database type and version of the engine, they tag the result of the run.
+     */
+    public void tagDatabase(ProcessEngine processEngine) {
+        ProcessEngineConfigurationImpl processEngineConfiguration = (ProcessEngineConfigurationImpl) processEngine.getProcessEngineConfiguration();
+        database = processEngineConfiguration.getDatabaseType();
+        try {
+            Connection connection = processEngineConfiguration.getDataSource().getConnection();
+            try {
+                DatabaseMetaData metaData = connection.getMetaData();
+                databaseVersion = metaData.getDatabaseProductName() + " " + metaData.getDatabaseProductVersion();
+            } finally {
+                connection.close();
+            }
+        } catch (SQLException e) {
+            databaseVersion = "unknown";
+        }
+        System.out.println("Database = " + database + " (" + databaseVersion + ")");
+    }
+
+    /**
+     * Runs the warm-up when configured. The workload must be deployed.
+     *
+     * @return true if a warm-up was done, the metrics are reset then
+     */
+    public boolean warmUp(ProcessEngine processEngine, boolean executesJobs, int expectedProcessInstances) throws InterruptedException {
+        long maxTime = TimeUnit.SECONDS.toMillis(BenchmarkRun.getLong(properties, "warmup-max-seconds", 0L));
+        if (maxTime <= 0L) {
+            return false;
+        }
+        if (!executesJobs) {
+            System.out.println("Warm-up skipped, it needs the jobs to be executed in this JVM");
+            return false;
+        }
+        long minTime = TimeUnit.SECONDS.toMillis(BenchmarkRun.getLong(properties, "warmup-min-seconds", 10L));
+        long window = TimeUnit.SECONDS.toMillis(BenchmarkRun.getLong(properties, "steady-state-window-seconds", 5L));
+        int windows = BenchmarkRun.getInt(properties, "steady-state-windows", 3);
+        double tolerance = Double.valueOf(properties.getProperty("steady-state-tolerance", "0.1"));
+        System.out.println("Warm-up : at least " + minTime + " ms, at most " + maxTime + " ms, until " + windows + " windows of "
+                + window + " ms are within " + Math.round(100.0 * tolerance) + "% of their mean jobs/s");
+
+        long start = System.currentTimeMillis();
+        int starterThreads = BenchmarkRun.getInt(properties, "start-process-instance-threads", 10);
+        SaturationSweep.ProcessInstanceFeeder feeder = new SaturationSweep.ProcessInstanceFeeder(processEngine, BenchmarkRun.getInt(properties, "warmup-max-in-flight", 50));
+        ExecutorService feederThreads = Executors.newFixedThreadPool(starterThreads);
+        for (int i = 0; i < starterThreads; i++) {
+            feederThreads.submit(feeder);
+        }
+
+        LinkedList<Double> rates = new LinkedList<Double>();
+        long jobs = Main.eventListener.getExecutedJobs();
+        while (System.currentTimeMillis() - start < maxTime && !steadyState) {
+            Thread.sleep(window);
+            long currentJobs = Main.eventListener.getExecutedJobs();
+            rates.add(1000.0 * (currentJobs - jobs) / window);
+            jobs = currentJobs;
+            if (rates.size() > windows) {
+                rates.removeFirst();
+            }
+            System.out.println(String.format("Warm-up : %.1f jobs/s", rates.getLast()));
+            steadyState = System.currentTimeMillis() - start >= minTime && rates.size() == windows && isSteady(rates, tolerance);
+        }
+
+        feeder.stop();
+        feederThreads.shutdown();
+        feederThreads.awaitTermination(1, TimeUnit.MINUTES);
+        // The warm-up process instances complete before the measurement starts
+        long drainStart = System.currentTimeMillis();
+        while (Main.eventListener.getCompletedProcessInstances() < Main.eventListener.getStartedProcessInstances()
+                && System.currentTimeMillis() - drainStart < TimeUnit.SECONDS.toMillis(BenchmarkRun.getLong(properties, "warmup-drain-timeout-seconds", 600L))) {
+            Thread.sleep(100L);
+        }
+        long running = Main.eventListener.getStartedProcessInstances() - Main.eventListener.getCompletedProcessInstances();
+        if (running > 0) {
+            System.out.println("Warm-up : " + running + " process instances still running, they are part of the measured run");
+        }
+        warmupTime = System.currentTimeMillis() - start;
+        System.out.println("Warm-up done in " + warmupTime + " ms, " + Main.eventListener.getCompletedProcessInstances() + " process instances, "
+                + (steadyState ? "steady state reached" : "no steady state within warmup-max-seconds"));
+
+        Main.eventListener.reset(expectedProcessInstances);
+        if (Main.jobLatencyRecorder != null) {
+            Main.jobLatencyRecorder.reset();
+        }
+        if (Main.jobAcquisitionMetrics != null) {
+            Main.jobAcquisitionMetrics.reset();
+        }
+        if (Main.dbRowCounter != null) {
+            Main.dbRowCounter.reset();
+        }
+        if (Main.allocationMetrics != null) {
+            Main.allocationMetrics.reset();
+        }
+        if (Main.exclusiveJobScheduler != null) {
+            Main.exclusiveJobScheduler.reset();
+        }
+        for (ConnectionPoolMetrics pool : ConnectionPoolMetrics.getAllPools()) {
+            pool.reset();
+        }
+        return true;
+    }
+
+    private static boolean isSteady(List<Double> rates, double tolerance) {
+        double mean = 0.0;
+        for (double rate : rates) {
+            mean += rate / rates.size();
+        }
+        if (mean <= 0.0) {
+            return false;
+        }
+        for (double rate : rates) {
+            if (Math.abs(rate - mean) > tolerance * mean) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Appends the result of the measured run to run-results.csv, with a header when the file is new.
+     */
+    public void writeResult(String mode, long processInstances, long executedJobs, long time) throws IOException {
+        File file = new File("run-results.csv");
+        boolean newFile = !file.exists();
+        PrintWriter printWriter = new PrintWriter(new FileWriter(file, true));
+        try {
+            if (newFile) {
+                printWriter.println("date;database;databaseVersion;mode;workload;historyLevel;processInstances;executedJobs;timeMs;jobsPerSecond;schemaReset;warmupMs;steadyState");
+            }
+            printWriter.println(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss").format(new Date()) + ";" + database + ";" + databaseVersion
+                    + ";" + mode + ";" + Main.workload.getShape() + ";" + Main.getHistoryLevel() + (Main.isAsyncHistory() ? "-async" : "")
+                    + ";" + processInstances + ";" + executedJobs + ";" + time + ";" + (1000.0 * executedJobs / Math.max(time, 1L))
+                    + ";" + schemaReset + ";" + warmupTime + ";" + steadyState);
+        } finally {
+            printWriter.close();
+        }
+        System.out.println("Result (" + database + ") appended to run-results.csv");
+    }
+
+}
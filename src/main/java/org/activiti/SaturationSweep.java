@@ -0,0 +1,274 @@
+package org.activiti;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.HdrHistogram.Histogram;
+import org.activiti.engine.ProcessEngine;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the workload (see WorkloadModel) against a matrix of executor settings, all in one JVM.
+ *
+ * For every combination of the sweep.* values, eg.
+ *
+ * sweep.virtual-threads=false,true          (platform threads vs virtual threads, see {@link VirtualThreadExecutorService})
+ * sweep.async-executor-max-nr-threads=4,8,16
+ * sweep.async-executor-queue-size=50,200
+ * sweep.connections-max=20,50
+ * sweep.concurrent-consumers=4,8,16        (sweep-executor=message-executor only)
+ * sweep.async-executor-max-async-jobs-per-acquisition=1,10,50
+ * sweep.async-executor-async-job-acquire-wait-time=100,1000,10000
+ *
+ * a fresh producer and executor engine are built on a clean database, with their own queue (see {@link BenchmarkRun}). The producers keep sweep-max-in-flight
+ * process instances running. After sweep-warmup-seconds, jobs/second, job latency, connection wait time and
+ * dead letter jobs are measured for sweep-measure-seconds, with the job acquisition of the async executor (queries/s,
+ * jobs per query, empty queries, query time and acquire -> execute delay). The results go to sweep-results.csv and sweep-results.json.
+ */
+public class SaturationSweep {
+
+    public static final String[] SWEEP_KEYS = new String[] {
+            "virtual-threads",
+            "async-executor-max-nr-threads",
+            "async-executor-queue-size",
+            "connections-max",
+            "concurrent-consumers",
+            "async-executor-max-async-jobs-per-acquisition",
+            "async-executor-async-job-acquire-wait-time",
+            "async-executor-timer-job-acquire-wait-time",
+            "async-executor-async-job-lock-time"
+    };
+
+    private final Properties properties;
+    private final boolean messageExecutor;
+
+    public SaturationSweep(Properties properties) {
+        this.properties = properties;
+        this.messageExecutor = "message-executor".equals(properties.getProperty("sweep-executor"));
+    }
+
+    public void run() throws Exception {
+        List<Map<String, String>> points = createPoints();
+        System.out.println("Sweeping " + points.size() + " configurations" + (messageExecutor ? " (message executor)" : " (async executor)"));
+
+        List<SweepResult> results = new ArrayList<SweepResult>();
+        for (int i = 0; i < points.size(); i++) {
+            System.out.println();
+            System.out.println("Sweep point " + (i + 1) + "/" + points.size() + " : " + points.get(i));
+            SweepResult result = runPoint(i, points.get(i));
+            System.out.println(result);
+            results.add(result);
+        }
+
+        SweepResult best = null;
+        for (SweepResult result : results) {
+            if (best == null || result.jobsPerSecond > best.jobsPerSecond) {
+                best = result;
+            }
+        }
+
+        BenchmarkResults.print("Sweep results", results, best);
+        System.out.println("Best throughput : " + best.settings + " with " + best.jobsPerSecond + " jobs / second");
+
+        writeCsv(results, best, new File("sweep-results.csv"));
+        writeJson(results, best, new File("sweep-results.json"));
+        System.out.println("Sweep results written to sweep-results.csv and sweep-results.json");
+    }
+
+    protected List<Map<String, String>> createPoints() {
+        List<Map<String, String>> points = new ArrayList<Map<String, String>>();
+        points.add(new LinkedHashMap<String, String>());
+        for (String key : SWEEP_KEYS) {
+            String values = properties.getProperty("sweep." + key);
+            if (values == null || "".equals(values.trim())) {
+                continue;
+            }
+
+            List<Map<String, String>> expandedPoints = new ArrayList<Map<String, String>>();
+            for (Map<String, String> point : points) {
+                for (String value : values.split(",")) {
+                    Map<String, String> expandedPoint = new LinkedHashMap<String, String>(point);
+                    expandedPoint.put(key, value.trim());
+                    expandedPoints.add(expandedPoint);
+                }
+            }
+            points = expandedPoints;
+        }
+        return points;
+    }
+
+    protected SweepResult runPoint(int index, Map<String, String> settings) throws Exception {
+        BenchmarkRun run = new BenchmarkRun(properties, "sweep", index);
+        properties.putAll(settings);
+        // Read once at startup by Main, the engines and contexts of the point pick it up when they are built
+        boolean virtualThreads = Main.virtualThreads;
+        try {
+            if (settings.containsKey("virtual-threads")) {
+                Main.virtualThreads = Boolean.valueOf(settings.get("virtual-threads"));
+            }
+
+            Main.eventListener = new BenchmarkEventListener(0);
+            Main.jobLatencyRecorder = new JobLatencyRecorder();
+            Main.jobAcquisitionMetrics = new JobAcquisitionMetrics();
+
+            ProcessEngine producerEngine = run.startEngines(messageExecutor);
+            String executorPoolName = messageExecutor ? "message-executor" : "executor";
+
+            int maxInFlight = BenchmarkRun.getInt(properties, "sweep-max-in-flight", 200);
+            int starterThreads = BenchmarkRun.getInt(properties, "start-process-instance-threads", 10);
+            ProcessInstanceFeeder feeder = new ProcessInstanceFeeder(producerEngine, maxInFlight);
+            ExecutorService feederThreads = Executors.newFixedThreadPool(starterThreads);
+            for (int i = 0; i < starterThreads; i++) {
+                feederThreads.submit(feeder);
+            }
+
+            Thread.sleep(TimeUnit.SECONDS.toMillis(BenchmarkRun.getInt(properties, "sweep-warmup-seconds", 30)));
+
+            ConnectionPoolMetrics executorPool = ConnectionPoolMetrics.getPool(executorPoolName);
+            Main.jobLatencyRecorder.reset();
+            Main.jobAcquisitionMetrics.reset();
+            if (executorPool != null) {
+                executorPool.reset();
+            }
+            long jobsAtStart = Main.eventListener.getExecutedJobs();
+            long measureStart = System.nanoTime();
+
+            Thread.sleep(TimeUnit.SECONDS.toMillis(BenchmarkRun.getInt(properties, "sweep-measure-seconds", 60)));
+
+            long jobsAtEnd = Main.eventListener.getExecutedJobs();
+            double measuredSeconds = (System.nanoTime() - measureStart) / 1000000000.0;
+
+            SweepResult result = new SweepResult();
+            result.settings = settings;
+            result.executedJobs = jobsAtEnd - jobsAtStart;
+            result.jobsPerSecond = result.executedJobs / measuredSeconds;
+            Histogram latency = Main.jobLatencyRecorder.getTotalHistogram().getTotalCount() > 0
+                    ? Main.jobLatencyRecorder.getTotalHistogram().copy() : Main.jobLatencyRecorder.getExecutionHistogram().copy();
+            result.p99LatencyMs = latency.getValueAtPercentile(99.0) / 1000.0;
+            if (executorPool != null) {
+                Histogram connectionWait = executorPool.getConnectionWait();
+                result.meanConnectionWaitMs = connectionWait.getMean() / 1000.0;
+                result.p99ConnectionWaitMs = connectionWait.getValueAtPercentile(99.0) / 1000.0;
+                result.connectionTimeouts = executorPool.getConnectionTimeouts();
+            }
+            result.acquisitionQueriesPerSecond = Main.jobAcquisitionMetrics.getQueries() / measuredSeconds;
+            result.jobsPerQuery = Main.jobAcquisitionMetrics.getJobsPerQuery();
+            result.emptyQueryRatio = Main.jobAcquisitionMetrics.getEmptyQueryRatio();
+            result.p99AcquisitionQueryMs = Main.jobAcquisitionMetrics.getQueryLatency().getValueAtPercentile(99.0) / 1000.0;
+            result.p99AcquireToExecuteMs = Main.jobAcquisitionMetrics.getAcquireToExecute().getValueAtPercentile(99.0) / 1000.0;
+
+            feeder.stop();
+            feederThreads.shutdown();
+            feederThreads.awaitTermination(1, TimeUnit.MINUTES);
+            result.deadLetterJobs = producerEngine.getManagementService().createDeadLetterJobQuery().count();
+            return result;
+        } finally {
+            run.close();
+            Main.virtualThreads = virtualThreads;
+        }
+    }
+
+    protected void writeCsv(List<SweepResult> results, final SweepResult best, File file) throws IOException {
+        StringBuilder header = new StringBuilder();
+        for (String key : SWEEP_KEYS) {
+            header.append(key).append(';');
+        }
+        header.append("jobsPerSecond;p99LatencyMs;meanConnectionWaitMs;p99ConnectionWaitMs;connectionTimeouts;deadLetterJobs;"
+                + "acquisitionQueriesPerSecond;jobsPerQuery;emptyQueryRatio;p99AcquisitionQueryMs;p99AcquireToExecuteMs;best");
+        BenchmarkResults.writeCsv(file, header.toString(), results, new BenchmarkResults.CsvRow<SweepResult>() {
+            public Object[] getValues(SweepResult result) {
+                List<Object> values = new ArrayList<Object>();
+                for (String key : SWEEP_KEYS) {
+                    String value = result.settings.get(key);
+                    values.add(value != null ? value : properties.getProperty(key, ""));
+                }
+                values.addAll(Arrays.<Object>asList(result.jobsPerSecond, result.p99LatencyMs, result.meanConnectionWaitMs,
+                        result.p99ConnectionWaitMs, result.connectionTimeouts, result.deadLetterJobs, result.acquisitionQueriesPerSecond,
+                        result.jobsPerQuery, result.emptyQueryRatio, result.p99AcquisitionQueryMs, result.p99AcquireToExecuteMs,
+                        result == best));
+                return values.toArray();
+            }
+        });
+    }
+
+    protected void writeJson(List<SweepResult> results, SweepResult best, File file) throws IOException {
+        Map<String, Object> report = new LinkedHashMap<String, Object>();
+        report.put("executor", messageExecutor ? "message-executor" : "executor");
+        report.put("best", best);
+        report.put("results", results);
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(file, report);
+    }
+
+    /**
+     * Keeps starting process instances as long as less than maxInFlight of them are running.
+     */
+    protected static class ProcessInstanceFeeder implements Runnable {
+
+        private final ProcessEngine processEngine;
+        private final int maxInFlight;
+        private volatile boolean stopped;
+
+        public ProcessInstanceFeeder(ProcessEngine processEngine, int maxInFlight) {
+            this.processEngine = processEngine;
+            this.maxInFlight = maxInFlight;
+        }
+
+        public void run() {
+            while (!stopped) {
+                long inFlight = Main.eventListener.getStartedProcessInstances() - Main.eventListener.getCompletedProcessInstances();
+                if (inFlight < maxInFlight) {
+                    try {
+                        Main.startProcessInstance(processEngine);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                } else {
+                    try {
+                        Thread.sleep(5L);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }
+
+        public void stop() {
+            stopped = true;
+        }
+    }
+
+    public static class SweepResult {
+
+        public Map<String, String> settings;
+        public long executedJobs;
+        public double jobsPerSecond;
+        public double p99LatencyMs;
+        public double meanConnectionWaitMs;
+        public double p99ConnectionWaitMs;
+        public long connectionTimeouts;
+        public long deadLetterJobs;
+        public double acquisitionQueriesPerSecond;
+        public double jobsPerQuery;
+        public double emptyQueryRatio;
+        public double p99AcquisitionQueryMs;
+        public double p99AcquireToExecuteMs;
+
+        public String toString() {
+            return String.format("%s : %.1f jobs/s, p99 latency %.1f ms, connection wait mean %.3f ms / p99 %.3f ms, %d connection timeouts, %d dead letter jobs, "
+                            + "%.1f acquisition queries/s (%.2f jobs/query, %.1f%% empty, p99 %.3f ms), acquire -> execute p99 %.1f ms",
+                    settings, jobsPerSecond, p99LatencyMs, meanConnectionWaitMs, p99ConnectionWaitMs, connectionTimeouts, deadLetterJobs,
+                    acquisitionQueriesPerSecond, jobsPerQuery, 100.0 * emptyQueryRatio, p99AcquisitionQueryMs, p99AcquireToExecuteMs);
+        }
+    }
+
+}
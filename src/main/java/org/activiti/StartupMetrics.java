@@ -0,0 +1,99 @@
+package org.activiti;
+
+import org.activiti.engine.ProcessEngine;
+import org.activiti.engine.RepositoryService;
+import org.activiti.engine.delegate.event.ActivitiEvent;
+import org.activiti.engine.delegate.event.ActivitiEventListener;
+import org.activiti.engine.delegate.event.ActivitiEventType;
+import org.activiti.engine.impl.cfg.ProcessEngineConfigurationImpl;
+import org.activiti.engine.repository.ProcessDefinition;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how long this node takes to become useful, from the start of the JVM:
+ *
+ * JVM start -> engine ready (process engine built, or the Spring context of the message modes started)
+ *           -> process definition caches warm -> first job executed
+ *
+ * With cache-warm-up=true (default) the latest version of every deployed process definition is loaded into the
+ * process definition cache of the engines of this JVM (parsing the BPMN model) when the engine is ready and again
+ * after the workload is deployed, instead of on the first job of each definition.
+ */
+public class StartupMetrics implements ActivitiEventListener {
+
+    public static final ActivitiEventType[] EVENT_TYPES = new ActivitiEventType[] {
+            ActivitiEventType.JOB_EXECUTION_SUCCESS
+    };
+
+    private final long jvmStartedAt = ManagementFactory.getRuntimeMXBean().getStartTime();
+    private final AtomicLong firstJobAt = new AtomicLong();
+    private volatile long engineReadyAt;
+    private long engineStartupTime;
+    private long cacheWarmUpTime;
+    private int warmedProcessDefinitions;
+
+    public void register(ProcessEngineConfigurationImpl processEngineConfiguration) {
+        BenchmarkEventListener.register(processEngineConfiguration, this, EVENT_TYPES);
+    }
+
+    /**
+     * @param startedAt the time the engine (or Spring context) creation started
+     */
+    public void engineReady(long startedAt) {
+        engineReadyAt = System.currentTimeMillis();
+        engineStartupTime = engineReadyAt - startedAt;
+        System.out.println("Engine startup took " + engineStartupTime + " ms, ready " + (engineReadyAt - jvmStartedAt) + " ms after the JVM start");
+    }
+
+    /**
+     * Loads the latest version of every deployed process definition into the caches of the engines.
+     */
+    public void warmCaches(List<ProcessEngine> processEngines) {
+        long start = System.currentTimeMillis();
+        int processDefinitions = 0;
+        for (ProcessEngine processEngine : processEngines) {
+            RepositoryService repositoryService = processEngine.getRepositoryService();
+            for (ProcessDefinition processDefinition : repositoryService.createProcessDefinitionQuery().latestVersion().list()) {
+                // Resolves the definition through the deployment manager, which parses and caches it when missing
+                repositoryService.getProcessDefinition(processDefinition.getId());
+                processDefinitions++;
+            }
+        }
+        long time = System.currentTimeMillis() - start;
+        cacheWarmUpTime += time;
+        warmedProcessDefinitions += processDefinitions;
+        System.out.println("Process definition caches warmed in " + time + " ms, " + processDefinitions + " process definitions in "
+                + processEngines.size() + " engines");
+    }
+
+    public void onEvent(ActivitiEvent event) {
+        long now = System.currentTimeMillis();
+        if (firstJobAt.get() == 0L && firstJobAt.compareAndSet(0L, now)) {
+            System.out.println("First job executed " + (now - jvmStartedAt) + " ms after the JVM start"
+                    + (engineReadyAt > 0L ? ", " + (now - engineReadyAt) + " ms after the engine was ready" : ""));
+        }
+    }
+
+    public boolean isFailOnException() {
+        return false;
+    }
+
+    public long getTimeToFirstJob() {
+        return firstJobAt.get() > 0L ? firstJobAt.get() - jvmStartedAt : -1L;
+    }
+
+    public void printReport(PrintStream out) {
+        out.println();
+        out.println("Startup of node " + Main.properties.getProperty("node-id", "1"));
+        out.println("JVM start -> engine ready       : " + (engineReadyAt > 0L ? (engineReadyAt - jvmStartedAt) + " ms (engine startup " + engineStartupTime + " ms)" : "-"));
+        out.println("Process definition cache warm-up : " + cacheWarmUpTime + " ms, " + warmedProcessDefinitions + " process definitions");
+        long firstJob = firstJobAt.get();
+        out.println("JVM start -> first job executed  : " + (firstJob > 0L ? (firstJob - jvmStartedAt) + " ms"
+                + (engineReadyAt > 0L ? " (" + (firstJob - engineReadyAt) + " ms after the engine was ready)" : "") : "no job executed"));
+    }
+
+}
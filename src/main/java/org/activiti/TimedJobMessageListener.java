@@ -0,0 +1,54 @@
+package org.activiti;
+
+import org.activiti.spring.executor.jms.JobMessageListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.TextMessage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JobMessageListener that reports the job latencies to the JobLatencyRecorder.
+ * The time a job spent in the broker is derived from the JMSTimestamp set by the sending JVM.
+ */
+public class TimedJobMessageListener extends JobMessageListener {
+
+  private static Logger logger = LoggerFactory.getLogger(TimedJobMessageListener.class);
+
+  protected JobLatencyRecorder jobLatencyRecorder;
+
+  public TimedJobMessageListener(JobLatencyRecorder jobLatencyRecorder) {
+    this.jobLatencyRecorder = jobLatencyRecorder;
+  }
+
+  @Override
+  public void onMessage(final Message message) {
+    if (!(message instanceof TextMessage)) {
+      super.onMessage(message);
+      return;
+    }
+
+    try {
+      long enqueuedAt = System.nanoTime();
+      long sentTimestamp = message.getJMSTimestamp();
+      if (sentTimestamp > 0L) {
+        long millisInBroker = Math.max(System.currentTimeMillis() - sentTimestamp, 0L);
+        enqueuedAt -= TimeUnit.MILLISECONDS.toNanos(millisInBroker);
+      }
+
+      String jobId = ((TextMessage) message).getText();
+      jobLatencyRecorder.execute(jobId, enqueuedAt, new Runnable() {
+        public void run() {
+          TimedJobMessageListener.super.onMessage(message);
+        }
+      });
+
+    } catch (JMSException e) {
+      logger.error("Could not read job message", e);
+      super.onMessage(message);
+    }
+  }
+
+}
@@ -0,0 +1,144 @@
+package org.activiti;
+
+import org.activiti.engine.ProcessEngine;
+import org.activiti.engine.runtime.ProcessInstance;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Timer storm benchmark (mode=timer), with an executor and a producer engine in this JVM.
+ *
+ * timer-count process instances waiting in a timer catch event are started first (the timer workload of
+ * {@link WorkloadModel}, with timer-tasks async tasks after the timer). A timer-storm-share of them (default 0.8)
+ * is due at the same moment, timer-storm-delay-seconds (default 30) after the start, like the timers of a schedule
+ * at the top of the hour. The other timers are due at random moments in the timer-spread-seconds (default 120) after
+ * the start. Meanwhile the regular workload is started open loop, timer-background-rate (default 10) process
+ * instances per second during timer-background-seconds (default timer-spread-seconds + 30).
+ *
+ * {@link TimerMetrics} reports the lateness of the timer moves and firings, the timers moved per second and the
+ * latency of the regular async jobs before, during and after the storm. The results go to timer-results.csv.
+ * The timer acquisition is set with async-executor-max-timer-jobs-per-acquisition and
+ * async-executor-timer-job-acquire-wait-time.
+ */
+public class TimerBenchmark {
+
+    public static final String PHASE_BEFORE_STORM = "before storm";
+    public static final String PHASE_STORM = "storm";
+    public static final String PHASE_AFTER_STORM = "after storm";
+
+    private final Properties properties;
+    private final Random random = new Random();
+
+    public TimerBenchmark(Properties properties) {
+        this.properties = properties;
+    }
+
+    public void run() throws Exception {
+        if (WorkloadModel.SHAPE_TIMER.equals(Main.workload.getShape())) {
+            throw new RuntimeException("The timer benchmark deploys its own timer process, use another workload for the regular load");
+        }
+        int timerCount = BenchmarkRun.getInt(properties, "timer-count", 5000);
+        double stormShare = Double.valueOf(properties.getProperty("timer-storm-share", "0.8"));
+        int stormDelaySeconds = BenchmarkRun.getInt(properties, "timer-storm-delay-seconds", 30);
+        int spreadSeconds = BenchmarkRun.getInt(properties, "timer-spread-seconds", 120);
+        int backgroundRate = BenchmarkRun.getInt(properties, "timer-background-rate", 10);
+        int backgroundCount = backgroundRate * BenchmarkRun.getInt(properties, "timer-background-seconds", spreadSeconds + 30);
+
+        Main.eventListener = new BenchmarkEventListener(timerCount + backgroundCount);
+        Main.timerMetrics.setPhase(PHASE_BEFORE_STORM);
+        Main.createProcessEngine(true);
+        final ProcessEngine producerEngine = Main.createProcessEngine(false);
+        Main.workload.deploy(producerEngine.getRepositoryService());
+
+        Properties timerProperties = new Properties();
+        timerProperties.putAll(properties);
+        timerProperties.setProperty("workload", WorkloadModel.SHAPE_TIMER);
+        timerProperties.setProperty("workload-tasks", String.valueOf(BenchmarkRun.getInt(properties, "timer-tasks", 1)));
+        timerProperties.setProperty("workload-timer-date", "${timerDue}");
+        final WorkloadModel timerWorkload = new WorkloadModel(timerProperties);
+        timerWorkload.deploy(producerEngine.getRepositoryService());
+
+        long start = System.currentTimeMillis();
+        final Date stormDue = new Date(start + TimeUnit.SECONDS.toMillis(stormDelaySeconds));
+        System.out.println("Scheduling " + timerCount + " timers, " + Math.round(100.0 * stormShare) + "% due at " + stormDue
+                + ", the others spread over " + spreadSeconds + " seconds, with " + backgroundRate + " regular process instances / second");
+
+        // The regular load runs before, during and after the storm
+        OpenLoopLoadGenerator backgroundLoad = new OpenLoopLoadGenerator(backgroundCount, BenchmarkRun.getInt(properties, "start-process-instance-threads", 10),
+                new OpenLoopLoadGenerator.ConstantLoadProfile(backgroundRate), new Runnable() {
+            public void run() {
+                Main.startProcessInstance(producerEngine);
+            }
+        });
+        backgroundLoad.start();
+
+        final AtomicInteger stormTimers = new AtomicInteger();
+        ExecutorService starterThreads = Executors.newFixedThreadPool(BenchmarkRun.getInt(properties, "start-process-instance-threads", 10));
+        for (int i = 0; i < timerCount; i++) {
+            final boolean storm = random.nextDouble() < stormShare;
+            final Date due = storm ? stormDue : new Date(start + (long) (random.nextDouble() * TimeUnit.SECONDS.toMillis(spreadSeconds)));
+            starterThreads.submit(new Runnable() {
+                public void run() {
+                    try {
+                        Map<String, Object> variables = timerWorkload.createVariables(random);
+                        variables.put("timerDue", due);
+                        ProcessInstance processInstance = producerEngine.getRuntimeService()
+                                .startProcessInstanceByKey(timerWorkload.getProcessDefinitionKey(), variables);
+                        if (storm) {
+                            Main.timerMetrics.markStorm(processInstance.getId());
+                            stormTimers.incrementAndGet();
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+        }
+        starterThreads.shutdown();
+        starterThreads.awaitTermination(1, TimeUnit.HOURS);
+        long scheduled = System.currentTimeMillis();
+        System.out.println(timerCount + " timers scheduled in " + (scheduled - start) + " ms");
+        if (scheduled > stormDue.getTime()) {
+            System.out.println("The storm timers were due before all of them were scheduled, raise timer-storm-delay-seconds");
+        }
+
+        while (System.currentTimeMillis() < stormDue.getTime()) {
+            Thread.sleep(10L);
+        }
+        Main.timerMetrics.setPhase(PHASE_STORM);
+        System.out.println("Storm of " + stormTimers.get() + " timers due");
+        long timeout = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(BenchmarkRun.getInt(properties, "timer-timeout-seconds", 1800));
+        while (Main.timerMetrics.getFiredTimers(TimerMetrics.GROUP_STORM) < stormTimers.get() && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10L);
+        }
+        Main.timerMetrics.setPhase(PHASE_AFTER_STORM);
+        System.out.println("Storm fired in " + (System.currentTimeMillis() - stormDue.getTime()) + " ms");
+
+        if (!Main.eventListener.awaitCompletion(Math.max(timeout - System.currentTimeMillis(), 1L))) {
+            System.out.println("Timer benchmark didn't complete in time, " + Main.eventListener.getCompletedProcessInstances() + " process instances completed");
+        }
+
+        backgroundLoad.printReport(System.out);
+        Main.timerMetrics.printReport(System.out);
+        writeCsv(new File("timer-results.csv"));
+        System.out.println("Timer results written to timer-results.csv");
+    }
+
+    protected void writeCsv(File file) throws IOException {
+        BenchmarkResults.writeCsv(file, "metric;count;p50Ms;p90Ms;p99Ms;maxMs", Main.timerMetrics.getRows(), new BenchmarkResults.CsvRow<String[]>() {
+            public Object[] getValues(String[] row) {
+                return row;
+            }
+        });
+    }
+
+}
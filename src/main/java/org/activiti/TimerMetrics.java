@@ -0,0 +1,270 @@
+package org.activiti;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.activiti.engine.delegate.event.ActivitiEntityEvent;
+import org.activiti.engine.delegate.event.ActivitiEvent;
+import org.activiti.engine.delegate.event.ActivitiEventListener;
+import org.activiti.engine.delegate.event.ActivitiEventType;
+import org.activiti.engine.impl.cfg.ProcessEngineConfigurationImpl;
+import org.activiti.engine.impl.cfg.TransactionListener;
+import org.activiti.engine.impl.cfg.TransactionState;
+import org.activiti.engine.impl.context.Context;
+import org.activiti.engine.impl.interceptor.CommandContext;
+import org.activiti.engine.impl.persistence.entity.JobEntity;
+import org.activiti.engine.impl.persistence.entity.TimerJobEntity;
+import org.activiti.engine.runtime.Job;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures how late timers fire. A due timer job is moved to the async job table by the timer acquisition of an
+ * async executor (the move) and then executed like any other async job (the firing, TIMER_FIRED). Both are recorded
+ * as lateness against the due date of the timer, in ms of wall clock time, per group of timers: the timers of the
+ * process instances marked with {@link #markStorm} are the "storm" group, the others the "timers" group.
+ * A moved timer that is unacquired again (eg. rejected by a full executor queue) is re-inserted as a new job by
+ * the engine, that copy is counted as a requeue and not as a second move. Moves and firings are recorded once their
+ * transaction committed, a move or firing that is rolled back (eg. on an optimistic locking failure) isn't counted.
+ *
+ * The created -> executed latency of the regular async jobs (not moved timers) is recorded per phase
+ * (see {@link #setPhase}), to show what a timer storm does to the other jobs. Only when this JVM executes jobs, see
+ * {@link #register(ProcessEngineConfigurationImpl, boolean)}.
+ */
+public class TimerMetrics implements ActivitiEventListener {
+
+    public static final ActivitiEventType[] EVENT_TYPES = new ActivitiEventType[] {
+            ActivitiEventType.ENTITY_CREATED,
+            ActivitiEventType.TIMER_FIRED,
+            ActivitiEventType.JOB_EXECUTION_SUCCESS
+    };
+
+    public static final String GROUP_STORM = "storm";
+    public static final String GROUP_TIMERS = "timers";
+
+    private static final double[] PERCENTILES = new double[] { 50.0, 90.0, 99.0 };
+
+    private final LongAdder scheduledTimers = new LongAdder();
+    private final TimerGroup storm = new TimerGroup(GROUP_STORM);
+    private final TimerGroup timers = new TimerGroup(GROUP_TIMERS);
+    private final Set<String> stormProcessInstances = ConcurrentHashMap.newKeySet();
+    private final Set<String> movedTimers = ConcurrentHashMap.newKeySet();
+
+    private final ConcurrentHashMap<String, Long> createdJobs = new ConcurrentHashMap<String, Long>();
+    private final Map<String, Histogram> phaseLatencies = new LinkedHashMap<String, Histogram>();
+    private volatile Histogram phaseLatency;
+    private volatile boolean executingJobs;
+
+    public TimerMetrics() {
+        setPhase("run");
+    }
+
+    /**
+     * @param executor whether the engine executes jobs, the creation times of the async jobs are only kept then
+     */
+    public void register(ProcessEngineConfigurationImpl processEngineConfiguration, boolean executor) {
+        if (executor) {
+            executingJobs = true;
+        }
+        BenchmarkEventListener.register(processEngineConfiguration, this, EVENT_TYPES);
+    }
+
+    public void markStorm(String processInstanceId) {
+        stormProcessInstances.add(processInstanceId);
+    }
+
+    /**
+     * Regular async jobs executed from now on are recorded under this phase.
+     */
+    public synchronized void setPhase(String phase) {
+        Histogram histogram = phaseLatencies.get(phase);
+        if (histogram == null) {
+            histogram = new ConcurrentHistogram(3);
+            phaseLatencies.put(phase, histogram);
+        }
+        phaseLatency = histogram;
+    }
+
+    public void onEvent(ActivitiEvent event) {
+        switch (event.getType()) {
+            case ENTITY_CREATED:
+                // Recorded when the transaction committed, a rolled back timer move or job insert didn't happen
+                Object entity = ((ActivitiEntityEvent) event).getEntity();
+                if (entity instanceof TimerJobEntity) {
+                    onCommit(new TransactionListener() {
+                        public void execute(CommandContext commandContext) {
+                            scheduledTimers.increment();
+                        }
+                    });
+                } else if (entity instanceof JobEntity) {
+                    final JobEntity job = (JobEntity) entity;
+                    if (Job.JOB_TYPE_TIMER.equals(job.getJobType())) {
+                        onCommit(new TransactionListener() {
+                            public void execute(CommandContext commandContext) {
+                                if (movedTimers.add(getTimerKey(job))) {
+                                    getGroup(job).moved(job);
+                                } else {
+                                    getGroup(job).requeues.increment();
+                                }
+                            }
+                        });
+                    } else if (executingJobs) {
+                        final long createdAt = System.nanoTime();
+                        onCommit(new TransactionListener() {
+                            public void execute(CommandContext commandContext) {
+                                createdJobs.put(job.getId(), createdAt);
+                            }
+                        });
+                    }
+                }
+                break;
+            case TIMER_FIRED:
+                Object timer = ((ActivitiEntityEvent) event).getEntity();
+                if (timer instanceof Job) {
+                    final Job firedTimer = (Job) timer;
+                    onCommit(new TransactionListener() {
+                        public void execute(CommandContext commandContext) {
+                            movedTimers.remove(getTimerKey(firedTimer));
+                            getGroup(firedTimer).fired(firedTimer);
+                        }
+                    });
+                }
+                break;
+            case JOB_EXECUTION_SUCCESS:
+                Object executedJob = ((ActivitiEntityEvent) event).getEntity();
+                if (executedJob instanceof Job) {
+                    Long createdAt = createdJobs.remove(((Job) executedJob).getId());
+                    if (createdAt != null) {
+                        phaseLatency.recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - createdAt));
+                    }
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void onCommit(TransactionListener transactionListener) {
+        if (Context.getTransactionContext() != null) {
+            Context.getTransactionContext().addTransactionListener(TransactionState.COMMITTED, transactionListener);
+        } else {
+            transactionListener.execute(null);
+        }
+    }
+
+    public boolean isFailOnException() {
+        return false;
+    }
+
+    public boolean hasTimers() {
+        return scheduledTimers.sum() + storm.moves.sum() + timers.moves.sum() > 0;
+    }
+
+    public long getFiredTimers(String group) {
+        return (GROUP_STORM.equals(group) ? storm : timers).fires.sum();
+    }
+
+    /**
+     * @return the lines of the report as rows of metric;count;p50;p90;p99;max, lateness and latency in ms
+     */
+    public synchronized List<String[]> getRows() {
+        List<String[]> rows = new ArrayList<String[]>();
+        for (TimerGroup group : new TimerGroup[] { storm, timers }) {
+            if (group.moves.sum() > 0) {
+                rows.add(createRow(group.name + " move lateness", group.moveLateness.copy(), 1.0));
+                rows.add(createRow(group.name + " fire lateness", group.fireLateness.copy(), 1.0));
+            }
+        }
+        for (Map.Entry<String, Histogram> phase : phaseLatencies.entrySet()) {
+            if (phase.getValue().getTotalCount() > 0) {
+                rows.add(createRow("async job latency " + phase.getKey(), phase.getValue().copy(), 1000.0));
+            }
+        }
+        return rows;
+    }
+
+    public void printReport(PrintStream out) {
+        out.println();
+        out.println("Timers : " + scheduledTimers.sum() + " scheduled, " + (storm.moves.sum() + timers.moves.sum()) + " moved to async jobs, "
+                + (storm.fires.sum() + timers.fires.sum()) + " fired");
+        for (TimerGroup group : new TimerGroup[] { storm, timers }) {
+            if (group.moves.sum() > 0) {
+                long moveDuration = group.lastMove.get() - group.firstMove.get();
+                out.println(String.format("%-7s : %d timers moved in %d ms (%.1f timers/s), %d requeued, last one fired %d ms after the first due date",
+                        group.name, group.moves.sum(), moveDuration, moveDuration > 0L ? 1000.0 * group.moves.sum() / moveDuration : 0.0,
+                        group.requeues.sum(), group.lastFire.get() - group.firstDue.get()));
+            }
+        }
+        out.println(String.format("%-32s %8s %10s %10s %10s %10s", "", "count", "p50 (ms)", "p90 (ms)", "p99 (ms)", "max (ms)"));
+        for (String[] row : getRows()) {
+            out.println(String.format("%-32s %8s %10s %10s %10s %10s", (Object[]) row));
+        }
+        out.println();
+    }
+
+    private TimerGroup getGroup(Job job) {
+        return job.getProcessInstanceId() != null && stormProcessInstances.contains(job.getProcessInstanceId()) ? storm : timers;
+    }
+
+    private static String getTimerKey(Job job) {
+        return job.getExecutionId() + "@" + (job.getDuedate() != null ? job.getDuedate().getTime() : 0L);
+    }
+
+    private static String[] createRow(String metric, Histogram histogram, double divider) {
+        String[] row = new String[PERCENTILES.length + 3];
+        row[0] = metric;
+        row[1] = String.valueOf(histogram.getTotalCount());
+        for (int i = 0; i < PERCENTILES.length; i++) {
+            row[i + 2] = String.format("%.1f", histogram.getValueAtPercentile(PERCENTILES[i]) / divider);
+        }
+        row[row.length - 1] = String.format("%.1f", histogram.getMaxValue() / divider);
+        return row;
+    }
+
+    private static class TimerGroup {
+
+        final String name;
+        final Histogram moveLateness = new ConcurrentHistogram(3);
+        final Histogram fireLateness = new ConcurrentHistogram(3);
+        final LongAdder moves = new LongAdder();
+        final LongAdder fires = new LongAdder();
+        final LongAdder requeues = new LongAdder();
+        final LongAccumulator firstDue = new LongAccumulator(Math::min, Long.MAX_VALUE);
+        final LongAccumulator firstMove = new LongAccumulator(Math::min, Long.MAX_VALUE);
+        final LongAccumulator lastMove = new LongAccumulator(Math::max, 0L);
+        final LongAccumulator lastFire = new LongAccumulator(Math::max, 0L);
+
+        TimerGroup(String name) {
+            this.name = name;
+        }
+
+        void moved(Job job) {
+            long now = System.currentTimeMillis();
+            moves.increment();
+            firstMove.accumulate(now);
+            lastMove.accumulate(now);
+            if (job.getDuedate() != null) {
+                firstDue.accumulate(job.getDuedate().getTime());
+                moveLateness.recordValue(Math.max(now - job.getDuedate().getTime(), 0L));
+            }
+        }
+
+        void fired(Job job) {
+            long now = System.currentTimeMillis();
+            fires.increment();
+            lastFire.accumulate(now);
+            if (job.getDuedate() != null) {
+                fireLateness.recordValue(Math.max(now - job.getDuedate().getTime(), 0L));
+            }
+        }
+    }
+
+}
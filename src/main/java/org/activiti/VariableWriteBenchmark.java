@@ -0,0 +1,104 @@
+package org.activiti;
+
+import org.activiti.engine.ProcessEngine;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Runs the workload once for every RandomDelegate variable write variant in variable-write-variants
+ * (default new-variable,overwrite,transient,local,batch), each time on a clean database with an executor and
+ * a producer engine in this JVM, and compares the jobs/second with the DB rows written per job.
+ * The results go to variable-write-results.csv. The first variant also pays for the JIT warm up, list it twice to
+ * leave that out of the comparison.
+ */
+public class VariableWriteBenchmark {
+
+    private final Properties properties;
+
+    public VariableWriteBenchmark(Properties properties) {
+        this.properties = properties;
+    }
+
+    public void run() throws Exception {
+        String variants = properties.getProperty("variable-write-variants", "new-variable,overwrite,transient,local,batch");
+        int variableWriteCount = BenchmarkRun.getInt(properties, "variable-write-count", 1);
+
+        List<VariableWriteResult> results = new ArrayList<VariableWriteResult>();
+        for (String variant : variants.split(",")) {
+            System.out.println();
+            System.out.println("Variable write variant " + variant.trim() + ", " + variableWriteCount + " result(s) per execution");
+            RandomDelegate.configure(variant.trim(), variableWriteCount);
+            VariableWriteResult result = runVariant(results.size(), variant.trim());
+            System.out.println(result);
+            results.add(result);
+        }
+
+        System.out.println();
+        System.out.println("Variable write results");
+        VariableWriteResult baseline = results.get(0);
+        for (VariableWriteResult result : results) {
+            System.out.println(result + String.format(", throughput %+.1f%% vs %s", 100.0 * (result.jobsPerSecond / baseline.jobsPerSecond - 1.0), baseline.variant));
+        }
+        writeCsv(results, new File("variable-write-results.csv"));
+        System.out.println("Variable write results written to variable-write-results.csv");
+    }
+
+    protected VariableWriteResult runVariant(int index, String variant) throws Exception {
+        BenchmarkRun run = new BenchmarkRun(properties, "variable-write", index);
+        try {
+            int nrOfProcessInstances = BenchmarkRun.getInt(properties, "nr-process-instances", 1000);
+            Main.eventListener = new BenchmarkEventListener(nrOfProcessInstances);
+            Main.dbRowCounter.reset();
+
+            ProcessEngine producerEngine = run.startEngines(false);
+
+            run.startProcessInstances(producerEngine, nrOfProcessInstances);
+
+            if (!run.awaitCompletion("variable-write-timeout-seconds", 600)) {
+                System.out.println("Variant " + variant + " didn't complete in time, "
+                        + Main.eventListener.getCompletedProcessInstances() + " process instances completed");
+            }
+
+            VariableWriteResult result = new VariableWriteResult();
+            result.variant = variant;
+            result.executedJobs = Main.eventListener.getExecutedJobs();
+            long duration = Main.eventListener.getLastCompletionTime() - Main.eventListener.getFirstEventTime();
+            result.jobsPerSecond = 1000.0 * result.executedJobs / Math.max(duration, 1L);
+            result.rowsPerJob = (double) Main.dbRowCounter.getRowsWritten() / Math.max(result.executedJobs, 1L);
+            result.insertsPerJob = (double) Main.dbRowCounter.getInserts() / Math.max(result.executedJobs, 1L);
+            Main.dbRowCounter.printReport(System.out, result.executedJobs);
+            return result;
+        } finally {
+            run.close();
+        }
+    }
+
+    protected void writeCsv(List<VariableWriteResult> results, File file) throws IOException {
+        String header = "variant;executedJobs;jobsPerSecond;rowsPerJob;insertsPerJob";
+        BenchmarkResults.writeCsv(file, header, results, new BenchmarkResults.CsvRow<VariableWriteResult>() {
+            public Object[] getValues(VariableWriteResult result) {
+                return new Object[] { result.variant, result.executedJobs, result.jobsPerSecond, result.rowsPerJob,
+                        result.insertsPerJob };
+            }
+        });
+    }
+
+    public static class VariableWriteResult {
+
+        public String variant;
+        public long executedJobs;
+        public double jobsPerSecond;
+        public double rowsPerJob;
+        public double insertsPerJob;
+
+        public String toString() {
+            return String.format("%-12s : %d jobs, %.1f jobs/s, %.2f DB rows written per job (%.2f inserts)",
+                    variant, executedJobs, jobsPerSecond, rowsPerJob, insertsPerJob);
+        }
+    }
+
+}
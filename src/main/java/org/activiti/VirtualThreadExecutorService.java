@@ -0,0 +1,121 @@
+package org.activiti;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs every task on its own virtual thread, with at most maxConcurrency tasks running at the same time.
+ *
+ * The jobs block on JDBC most of the time, so there's no point in running more of them than there are connections
+ * in the Hikari pool. A task waits for its permit on its own virtual thread, which is cheap. The caller is never blocked:
+ * jobs created by a job are handed over from that job's thread, blocking it would deadlock once all permits are taken.
+ * Like the bounded queue of the thread pool, at most maxWaiting tasks wait for a permit, more tasks are rejected
+ * (and unacquired by the async executor).
+ *
+ * Virtual threads need JDK 21 (or 19/20 with --enable-preview). The project is compiled for Java 8, so the executor
+ * is looked up through reflection. On older JVMs a cached platform thread pool is used instead, still bounded by the semaphore.
+ */
+public class VirtualThreadExecutorService extends AbstractExecutorService {
+
+    private final ExecutorService delegate;
+    private final Semaphore permits;
+    private final int maxConcurrency;
+    private final int maxTasks;
+    private final AtomicInteger tasks = new AtomicInteger();
+
+    public VirtualThreadExecutorService(String threadNamePrefix, int maxConcurrency, int maxWaiting) {
+        this.delegate = newVirtualThreadPerTaskExecutor(threadNamePrefix);
+        this.permits = new Semaphore(maxConcurrency);
+        this.maxConcurrency = maxConcurrency;
+        this.maxTasks = maxConcurrency + maxWaiting;
+    }
+
+    /**
+     * @return Executors.newVirtualThreadPerTaskExecutor() when the JVM supports it, a cached thread pool otherwise
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor(final String threadNamePrefix) {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            ExecutorService executorService = (ExecutorService) method.invoke(null);
+            System.out.println("Using virtual threads for " + threadNamePrefix);
+            return executorService;
+        } catch (Exception e) {
+            // NoSuchMethodException before JDK 19, UnsupportedOperationException (wrapped) on 19/20 without --enable-preview
+            System.out.println("Virtual threads not available on Java " + System.getProperty("java.version")
+                    + ", falling back to platform threads for " + threadNamePrefix);
+            final AtomicInteger threadNumber = new AtomicInteger();
+            return Executors.newCachedThreadPool(new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, threadNamePrefix + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+    }
+
+    public void execute(final Runnable command) {
+        if (tasks.incrementAndGet() > maxTasks) {
+            tasks.decrementAndGet();
+            throw new RejectedExecutionException("Max " + maxConcurrency + " running and " + (maxTasks - maxConcurrency) + " waiting tasks reached");
+        }
+
+        try {
+            delegate.execute(new Runnable() {
+                public void run() {
+                    permits.acquireUninterruptibly();
+                    try {
+                        command.run();
+                    } finally {
+                        permits.release();
+                        tasks.decrementAndGet();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            tasks.decrementAndGet();
+            throw e;
+        }
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public int getRunningTasks() {
+        return maxConcurrency - permits.availablePermits();
+    }
+
+    public int getWaitingTasks() {
+        return Math.max(tasks.get() - getRunningTasks(), 0);
+    }
+
+    public void shutdown() {
+        delegate.shutdown();
+    }
+
+    public List<Runnable> shutdownNow() {
+        return delegate.shutdownNow();
+    }
+
+    public boolean isShutdown() {
+        return delegate.isShutdown();
+    }
+
+    public boolean isTerminated() {
+        return delegate.isTerminated();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return delegate.awaitTermination(timeout, unit);
+    }
+
+}
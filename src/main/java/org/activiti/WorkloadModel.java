@@ -0,0 +1,333 @@
+package org.activiti;
+
+import org.activiti.bpmn.model.Activity;
+import org.activiti.bpmn.model.BoundaryEvent;
+import org.activiti.bpmn.model.BpmnModel;
+import org.activiti.bpmn.model.EndEvent;
+import org.activiti.bpmn.model.Event;
+import org.activiti.bpmn.model.EventDefinition;
+import org.activiti.bpmn.model.ExclusiveGateway;
+import org.activiti.bpmn.model.FlowElement;
+import org.activiti.bpmn.model.FlowElementsContainer;
+import org.activiti.bpmn.model.FlowNode;
+import org.activiti.bpmn.model.Gateway;
+import org.activiti.bpmn.model.ImplementationType;
+import org.activiti.bpmn.model.InclusiveGateway;
+import org.activiti.bpmn.model.IntermediateCatchEvent;
+import org.activiti.bpmn.model.ParallelGateway;
+import org.activiti.bpmn.model.ReceiveTask;
+import org.activiti.bpmn.model.SequenceFlow;
+import org.activiti.bpmn.model.ServiceTask;
+import org.activiti.bpmn.model.StartEvent;
+import org.activiti.bpmn.model.SubProcess;
+import org.activiti.bpmn.model.TimerEventDefinition;
+import org.activiti.bpmn.model.UserTask;
+import org.activiti.engine.RepositoryService;
+import org.activiti.engine.repository.Deployment;
+import org.activiti.engine.repository.DeploymentBuilder;
+import org.activiti.engine.repository.ProcessDefinition;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * The process that is started by the benchmark, selected with the workload property:
+ *
+ * async-process : the AsyncProcess from asyncProcess.bpmn20.xml (default)
+ * chain         : start -> workload-tasks async service tasks -> end
+ * fan-out       : start -> async task -> parallel fork of workload-width async tasks -> join -> end
+ * nested        : parallel forks of workload-width branches, nested workload-depth levels deep, async tasks as leaves
+ * timer         : workload-tasks times a timer catch event (workload-timer-duration, or workload-timer-date, eg. ${timerDue},
+ *                 for a due date taken from a process variable) followed by an async task
+ *
+ * The generated shapes use RandomDelegate service tasks. workload-exclusive (true, false or mixed) sets the exclusive
+ * flag of their async tasks and joins, workload-async-join=false makes the joins synchronous.
+ * workload-payload-size adds a byte[] variable of that size to every started process instance.
+ *
+ * The number of jobs per process instance is derived from the deployed model, see {@link #countJobs}.
+ */
+public class WorkloadModel {
+
+    public static final String SHAPE_ASYNC_PROCESS = "async-process";
+    public static final String SHAPE_CHAIN = "chain";
+    public static final String SHAPE_FAN_OUT = "fan-out";
+    public static final String SHAPE_NESTED = "nested";
+    public static final String SHAPE_TIMER = "timer";
+
+    private static final String DELEGATE_CLASS = RandomDelegate.class.getName();
+
+    private final Properties properties;
+    private final String shape;
+    private final String exclusive;
+    private final boolean asyncJoin;
+    private final int payloadSize;
+
+    private String processDefinitionKey;
+    private int jobsPerInstance = -1;
+    private int nextId;
+
+    public WorkloadModel(Properties properties) {
+        this.properties = properties;
+        this.shape = properties.getProperty("workload", SHAPE_ASYNC_PROCESS);
+        this.exclusive = properties.getProperty("workload-exclusive", "true");
+        this.asyncJoin = !"false".equals(properties.getProperty("workload-async-join"));
+        this.payloadSize = BenchmarkRun.getInt(properties, "workload-payload-size", 0);
+    }
+
+    /**
+     * Deploys the process and derives the number of jobs per process instance from the deployed model.
+     * With deploy-duplicate-filtering=true (default) nothing is deployed when the latest deployment of the process
+     * has the same resource, so the nodes sharing a database keep using the cached process definition.
+     */
+    public void deploy(RepositoryService repositoryService) {
+        long start = System.currentTimeMillis();
+        DeploymentBuilder deploymentBuilder = repositoryService.createDeployment();
+        if (SHAPE_ASYNC_PROCESS.equals(shape)) {
+            processDefinitionKey = "AsyncProcess";
+            deploymentBuilder.addClasspathResource("asyncProcess.bpmn20.xml");
+        } else {
+            BpmnModel bpmnModel = createBpmnModel();
+            processDefinitionKey = bpmnModel.getMainProcess().getId();
+            deploymentBuilder.addBpmnModel(processDefinitionKey + ".bpmn20.xml", bpmnModel);
+        }
+
+        // Duplicates are only detected among the deployments with the same name
+        deploymentBuilder.name(processDefinitionKey);
+        Deployment previousDeployment = null;
+        if (!"false".equals(properties.getProperty("deploy-duplicate-filtering"))) {
+            deploymentBuilder.enableDuplicateFiltering();
+            List<Deployment> deployments = repositoryService.createDeploymentQuery().deploymentName(processDefinitionKey)
+                    .orderByDeploymenTime().desc().listPage(0, 1);
+            previousDeployment = deployments.isEmpty() ? null : deployments.get(0);
+        }
+        Deployment deployment = deploymentBuilder.deploy();
+        if (previousDeployment != null && previousDeployment.getId().equals(deployment.getId())) {
+            System.out.println("Workload " + shape + " not redeployed, deployment " + deployment.getId() + " has the same resource");
+        } else {
+            System.out.println("Workload " + shape + " deployment took " + (System.currentTimeMillis() - start) + " ms");
+        }
+
+        ProcessDefinition processDefinition = repositoryService.createProcessDefinitionQuery()
+                .processDefinitionKey(processDefinitionKey).latestVersion().singleResult();
+        jobsPerInstance = countJobs(repositoryService.getBpmnModel(processDefinition.getId()).getMainProcess(), 1);
+        System.out.println("Workload " + shape + " deployed (" + processDefinitionKey + "), " + jobsPerInstance + " jobs per process instance");
+    }
+
+    public String getShape() {
+        return shape;
+    }
+
+    public String getProcessDefinitionKey() {
+        return processDefinitionKey != null ? processDefinitionKey : "AsyncProcess";
+    }
+
+    /**
+     * @return the jobs per process instance, -1 when this JVM didn't deploy the process
+     */
+    public int getJobsPerInstance() {
+        return jobsPerInstance;
+    }
+
+    public Map<String, Object> createVariables(Random random) {
+        Map<String, Object> vars = new HashMap<String, Object>();
+        vars.put("input1", random.nextInt(1000));
+        vars.put("input2", random.nextInt(5000));
+        if (payloadSize > 0) {
+            byte[] payload = new byte[payloadSize];
+            random.nextBytes(payload);
+            vars.put("payload", payload);
+        }
+        return vars;
+    }
+
+    protected BpmnModel createBpmnModel() {
+        nextId = 0; // the same ids every time, so an unchanged model is a duplicate of its previous deployment
+        org.activiti.bpmn.model.Process process = new org.activiti.bpmn.model.Process();
+        process.setExecutable(true);
+
+        StartEvent startEvent = add(process, new StartEvent(), "start");
+        FlowNode last;
+        if (SHAPE_CHAIN.equals(shape)) {
+            process.setId("ChainProcess");
+            last = addChain(process, startEvent, BenchmarkRun.getInt(properties, "workload-tasks", 10), null);
+
+        } else if (SHAPE_FAN_OUT.equals(shape)) {
+            process.setId("FanOutProcess");
+            FlowNode first = connect(process, startEvent, serviceTask(process, 0));
+            last = addNested(process, first, BenchmarkRun.getInt(properties, "workload-width", 10), 1);
+
+        } else if (SHAPE_NESTED.equals(shape)) {
+            process.setId("NestedProcess");
+            last = addNested(process, startEvent, BenchmarkRun.getInt(properties, "workload-width", 3), BenchmarkRun.getInt(properties, "workload-depth", 2));
+
+        } else if (SHAPE_TIMER.equals(shape)) {
+            process.setId("TimerProcess");
+            TimerEventDefinition timerEventDefinition = new TimerEventDefinition();
+            String timerDate = properties.getProperty("workload-timer-date");
+            if (timerDate != null && !"".equals(timerDate)) {
+                timerEventDefinition.setTimeDate(timerDate);
+            } else {
+                timerEventDefinition.setTimeDuration(properties.getProperty("workload-timer-duration", "PT1S"));
+            }
+            last = addChain(process, startEvent, BenchmarkRun.getInt(properties, "workload-tasks", 10), timerEventDefinition);
+
+        } else {
+            throw new RuntimeException("Unknown workload " + shape + ", use "
+                    + SHAPE_ASYNC_PROCESS + ", " + SHAPE_CHAIN + ", " + SHAPE_FAN_OUT + ", " + SHAPE_NESTED + " or " + SHAPE_TIMER);
+        }
+        process.setName(process.getId());
+        connect(process, last, add(process, new EndEvent(), "end"));
+
+        BpmnModel bpmnModel = new BpmnModel();
+        bpmnModel.addProcess(process);
+        return bpmnModel;
+    }
+
+    private FlowNode addChain(org.activiti.bpmn.model.Process process, FlowNode from, int nrOfTasks, TimerEventDefinition timerEventDefinition) {
+        FlowNode last = from;
+        for (int i = 0; i < nrOfTasks; i++) {
+            if (timerEventDefinition != null) {
+                IntermediateCatchEvent timerEvent = add(process, new IntermediateCatchEvent(), "timer");
+                timerEvent.addEventDefinition(timerEventDefinition.clone());
+                last = connect(process, last, timerEvent);
+            }
+            last = connect(process, last, serviceTask(process, i));
+        }
+        return last;
+    }
+
+    /**
+     * Fork into width branches, each branch being a nested fork one level less deep (or a task at depth 0), then join.
+     */
+    private FlowNode addNested(org.activiti.bpmn.model.Process process, FlowNode from, int width, int depth) {
+        if (depth == 0) {
+            return connect(process, from, serviceTask(process, nextId));
+        }
+        ParallelGateway fork = connect(process, from, add(process, new ParallelGateway(), "fork"));
+        ParallelGateway join = add(process, new ParallelGateway(), "join");
+        join.setAsynchronous(asyncJoin);
+        join.setNotExclusive(!isExclusive(nextId));
+        for (int i = 0; i < width; i++) {
+            connect(process, addNested(process, fork, width, depth - 1), join);
+        }
+        return join;
+    }
+
+    private ServiceTask serviceTask(org.activiti.bpmn.model.Process process, int index) {
+        ServiceTask serviceTask = add(process, new ServiceTask(), "task");
+        serviceTask.setName("Task " + (index + 1));
+        serviceTask.setImplementationType(ImplementationType.IMPLEMENTATION_TYPE_CLASS);
+        serviceTask.setImplementation(DELEGATE_CLASS);
+        serviceTask.setAsynchronous(true);
+        serviceTask.setNotExclusive(!isExclusive(index));
+        return serviceTask;
+    }
+
+    private boolean isExclusive(int index) {
+        if ("mixed".equals(exclusive)) {
+            return index % 2 == 0;
+        }
+        return !"false".equals(exclusive);
+    }
+
+    private <T extends FlowElement> T add(org.activiti.bpmn.model.Process process, T flowElement, String idPrefix) {
+        flowElement.setId(idPrefix + "-" + (++nextId));
+        process.addFlowElement(flowElement);
+        return flowElement;
+    }
+
+    private <T extends FlowNode> T connect(org.activiti.bpmn.model.Process process, FlowNode source, T target) {
+        add(process, new SequenceFlow(source.getId(), target.getId()), "flow");
+        return target;
+    }
+
+    /**
+     * Follows the executions through the model and counts the jobs they create: one per execution arriving in an
+     * async activity or gateway (a join gets one per incoming execution) and one per timer that fires.
+     * Nobody completes user and receive tasks, so executions only leave them through their timer boundary events.
+     * Exclusive and inclusive gateways are assumed to take their default (or else first) outgoing flow.
+     *
+     * @param activations the nr of executions that start the container
+     */
+    public static int countJobs(FlowElementsContainer container, int activations) {
+        Map<String, Integer> arrivals = new HashMap<String, Integer>();
+        Map<String, Integer> pendingFlows = new HashMap<String, Integer>();
+        Deque<FlowNode> ready = new ArrayDeque<FlowNode>();
+        for (FlowElement flowElement : container.getFlowElements()) {
+            if (flowElement instanceof StartEvent) {
+                arrivals.put(flowElement.getId(), activations);
+                ready.add((FlowNode) flowElement);
+            }
+        }
+
+        int jobs = 0;
+        while (!ready.isEmpty()) {
+            FlowNode flowNode = ready.poll();
+            int count = arrivals.containsKey(flowNode.getId()) ? arrivals.get(flowNode.getId()) : 0;
+            int leaving = count;
+
+            if (flowNode.isAsynchronous()) {
+                jobs += count;
+            }
+            if (flowNode instanceof ParallelGateway && flowNode.getIncomingFlows().size() > 1) {
+                leaving = count / flowNode.getIncomingFlows().size();
+            } else if (flowNode instanceof SubProcess) {
+                jobs += countJobs((SubProcess) flowNode, count);
+            } else if (isTimerEvent(flowNode)) {
+                jobs += count;
+            }
+
+            boolean waitState = flowNode instanceof UserTask || flowNode instanceof ReceiveTask;
+            if (flowNode instanceof Activity) {
+                for (BoundaryEvent boundaryEvent : ((Activity) flowNode).getBoundaryEvents()) {
+                    arrivals.put(boundaryEvent.getId(), waitState && isTimerEvent(boundaryEvent) ? count : 0);
+                    ready.add(boundaryEvent);
+                }
+            }
+            if (waitState) {
+                leaving = 0;
+            }
+
+            String takenFlowId = null;
+            if ((flowNode instanceof ExclusiveGateway || flowNode instanceof InclusiveGateway) && !flowNode.getOutgoingFlows().isEmpty()) {
+                String defaultFlow = ((Gateway) flowNode).getDefaultFlow();
+                takenFlowId = defaultFlow != null ? defaultFlow : flowNode.getOutgoingFlows().get(0).getId();
+            }
+
+            for (SequenceFlow sequenceFlow : flowNode.getOutgoingFlows()) {
+                FlowElement target = container.getFlowElement(sequenceFlow.getTargetRef());
+                if (!(target instanceof FlowNode)) {
+                    continue;
+                }
+                int taken = takenFlowId == null || takenFlowId.equals(sequenceFlow.getId()) ? leaving : 0;
+                Integer targetArrivals = arrivals.get(target.getId());
+                arrivals.put(target.getId(), (targetArrivals != null ? targetArrivals : 0) + taken);
+
+                Integer pending = pendingFlows.get(target.getId());
+                pending = (pending != null ? pending : ((FlowNode) target).getIncomingFlows().size()) - 1;
+                pendingFlows.put(target.getId(), pending);
+                if (pending <= 0) {
+                    ready.add((FlowNode) target);
+                }
+            }
+        }
+        return jobs;
+    }
+
+    private static boolean isTimerEvent(FlowNode flowNode) {
+        if (flowNode instanceof IntermediateCatchEvent || flowNode instanceof BoundaryEvent) {
+            for (EventDefinition eventDefinition : ((Event) flowNode).getEventDefinitions()) {
+                if (eventDefinition instanceof TimerEventDefinition) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+}